@@ -0,0 +1,5 @@
+#!/bin/sh
+# Headless end-to-end load test, see src/LoadTest.java for the options.
+# Build first with: javac -d bin -cp bin/OziAPI.jar src/*.java
+cd "$(dirname "$0")/bin" || exit 1
+exec java -cp OziAPI.jar:. LoadTest "$@"
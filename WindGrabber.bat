@@ -1,9 +1,9 @@
 @echo off
 TITLE Downloading wind...
 CLS
-echo ------------------------------------------------------------
-echo DON'T FORGET TO DELETE OLD WIND DATA FROM THE GFS DIRECTORY!
-echo ------------------------------------------------------------
-python src/get_wind_data.py --lat=-33 --lon=139 --latdelta=10 --londelta=10 -f 24 -m 0p25_1hr
-echo DON'T FORGET TO DELETE OLD WIND DATA FROM THE GFS DIRECTORY!
+python src/get_wind_data.py --lat=-33 --lon=139 --latdelta=10 --londelta=10 -f 24 -m 0p25_1hr --grib
+REM Add -dat if using the pred.exe backend (PREDBACKEND = pred)
+java -cp bin GribConverter -delete gfs
+echo Wind data from earlier downloads is kept until it expires, then OziPlotter
+echo moves it to gfs\archive (see WINDRETAIN and WINDARCHIVE in OziPlotter.conf).
 pause
\ No newline at end of file
@@ -0,0 +1,5 @@
+@echo off
+if not exist classes mkdir classes
+javac -d classes -cp ../bin/OziAPI.jar ../src/*.java
+javac -d classes -cp classes;lib/* src/benchmarks/*.java
+pause
\ No newline at end of file
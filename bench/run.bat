@@ -0,0 +1,6 @@
+@echo off
+TITLE OziPlotter Benchmarks
+REM Any extra arguments are passed to JMH, e.g. run.bat Checksum
+java -cp classes;../bin/OziAPI.jar;lib/* org.openjdk.jmh.Main -rf json -rff results.json %*
+java -cp classes;lib/* benchmarks.CompareResults baseline.json results.json
+pause
\ No newline at end of file
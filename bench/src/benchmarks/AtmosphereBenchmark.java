@@ -0,0 +1,69 @@
+////////////////////////////////////////////////////////////
+// AtmosphereBenchmark.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Atmosphere.getDensity and seaLevelDescentRate, called
+// once per integration step by the trajectory engine and
+// for every descending telemetry packet.
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AtmosphereBenchmark {
+
+	// One altitude in each layer of the model
+	@Param({"500", "15000", "25000", "40000", "60000", "80000"})
+	int altitude;
+
+	double descentRate = 12.5;
+
+	// A whole descent, 30 km to the ground in 10 m steps
+	double[] profile = new double[3000];
+	double[] corrections = new double[3000];
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < profile.length; i++) profile[i] = 30000 - i * 10;
+	}
+
+	@Benchmark
+	public double getDensity() throws Throwable {
+		return (double)Targets.GET_DENSITY.invokeExact(altitude);
+	}
+
+	@Benchmark
+	public double seaLevelDescentRate() throws Throwable {
+		return (double)Targets.SEA_LEVEL_DESCENT_RATE.invokeExact(descentRate, altitude);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(3000)
+	public void descentProfile(Blackhole bh) throws Throwable {
+		for (int h = 30000; h > 0; h -= 10) {
+			bh.consume((double)Targets.GET_DENSITY.invokeExact(h));
+		}
+	}
+
+	//
+	// The same descent through the bulk table lookup
+	//
+	@Benchmark
+	@OperationsPerInvocation(3000)
+	public double[] bulkDescentCorrection() throws Throwable {
+		Targets.FILL_DESCENT_CORRECTION.invokeExact(Targets.STANDARD_ATMOSPHERE, profile, corrections, profile.length);
+		return corrections;
+	}
+}
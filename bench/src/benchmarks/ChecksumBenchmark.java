@@ -0,0 +1,92 @@
+////////////////////////////////////////////////////////////
+// ChecksumBenchmark.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Checksum validation of typical NMEA and UKHAS sentences,
+// from Strings and straight from packet bytes, plus a
+// burst of 16 UKHAS packets validated in one call.
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumBenchmark {
+
+	static final String NMEA = "$GPGGA,092750.000,5321.6802,N,00630.3372,W,1,8,1.03,61.7,M,55.2,M,,*76";
+	static final String UKHAS_BODY = "HORUS,1234,01:23:45,-34.91234,138.51234,23456,12,-5,3.3";
+	static final int BURST = 16;
+
+	String ukhas;
+	byte[] nmeaBytes;
+	byte[] ukhasBytes;
+	ByteBuffer ukhasBuffer;
+	byte[][] burst = new byte[BURST][];
+	int[] burstLengths = new int[BURST];
+	boolean[] burstValid = new boolean[BURST];
+
+	@Setup
+	public void setup() throws Throwable {
+		int crc = (int)Targets.CRC16_SUM.invokeExact(UKHAS_BODY);
+		ukhas = "$$" + UKHAS_BODY + "*" + String.format("%04x", crc);
+
+		nmeaBytes = NMEA.getBytes(StandardCharsets.US_ASCII);
+		ukhasBytes = (ukhas + "\n").getBytes(StandardCharsets.US_ASCII);
+		ukhasBuffer = ByteBuffer.allocateDirect(512);
+		ukhasBuffer.put(ukhasBytes).flip();
+
+		for (int i = 0; i < BURST; i++) {
+			String body = UKHAS_BODY.replace("1234", String.valueOf(1234 + i));
+			crc = (int)Targets.CRC16_SUM.invokeExact(body);
+			burst[i] = ("$$" + body + "*" + String.format("%04X", crc) + "\n").getBytes(StandardCharsets.US_ASCII);
+			burstLengths[i] = burst[i].length;
+		}
+	}
+
+	@Benchmark
+	public boolean validateXORSum() throws Throwable {
+		return (boolean)Targets.VALIDATE_XOR_SUM.invokeExact(NMEA);
+	}
+
+	@Benchmark
+	public int CRC16Sum() throws Throwable {
+		return (int)Targets.CRC16_SUM.invokeExact(UKHAS_BODY);
+	}
+
+	@Benchmark
+	public boolean validateCRC16Sum() throws Throwable {
+		return (boolean)Targets.VALIDATE_CRC16_SUM.invokeExact(ukhas);
+	}
+
+	@Benchmark
+	public boolean validateNmeaBytes() throws Throwable {
+		return (boolean)Targets.VALIDATE_BYTES.invokeExact(nmeaBytes, 0, nmeaBytes.length);
+	}
+
+	@Benchmark
+	public boolean validateUkhasBytes() throws Throwable {
+		return (boolean)Targets.VALIDATE_BYTES.invokeExact(ukhasBytes, 0, ukhasBytes.length);
+	}
+
+	@Benchmark
+	public boolean validateUkhasDirectBuffer() throws Throwable {
+		return (boolean)Targets.VALIDATE_BUFFER.invokeExact(ukhasBuffer, 0, ukhasBuffer.limit());
+	}
+
+	@Benchmark
+	public int validateUkhasBurst() throws Throwable {
+		return (int)Targets.VALIDATE_BURST.invokeExact(burst, burstLengths, BURST, burstValid);
+	}
+}
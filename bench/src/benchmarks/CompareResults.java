@@ -0,0 +1,174 @@
+////////////////////////////////////////////////////////////
+// CompareResults.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Compares a JMH JSON result file against the recorded
+// baseline, and lists anything that has got slower by more
+// than the allowed margin. Exits with status 1 if so, so it
+// can be run as a pre-flight check.
+//
+// Usage: CompareResults <baseline.json> <results.json> [margin %]
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CompareResults {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: CompareResults <baseline.json> <results.json> [margin %]");
+			System.exit(2);
+		}
+		double margin = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+		Map<String, double[]> baseline = load(args[0]);
+		Map<String, double[]> results = load(args[1]);
+
+		int regressions = 0;
+		for (Map.Entry<String, double[]> entry : results.entrySet()) {
+			double[] base = baseline.get(entry.getKey());
+			double score = entry.getValue()[0];
+			if (base == null) {
+				System.out.println(String.format("  NEW   %-70s %12.3f", entry.getKey(), score));
+				continue;
+			}
+
+			// Scores are all time per operation, so bigger is worse
+			double change = (score - base[0]) / base[0] * 100.0;
+			boolean slower = change > margin && score - entry.getValue()[1] > base[0] + base[1];
+			if (slower) regressions++;
+			System.out.println(String.format("%s %-70s %12.3f %12.3f %+7.1f%%",
+					slower ? "! SLOW" : "  ok  ", entry.getKey(), base[0], score, change));
+		}
+
+		if (regressions > 0) {
+			System.out.println("\r\n" + regressions + " benchmark(s) more than " + margin + "% slower than the baseline!");
+			System.exit(1);
+		}
+		System.out.println("\r\nNo regressions.");
+	}
+
+	//
+	// Read a JMH JSON result file into benchmark[params] -> { score, error }
+	//
+	@SuppressWarnings("unchecked")
+	static Map<String, double[]> load(String file) throws IOException {
+		String json = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+		List<Object> runs = (List<Object>)new Json(json).value();
+
+		Map<String, double[]> scores = new LinkedHashMap<String, double[]>();
+		for (Object o : runs) {
+			Map<String, Object> run = (Map<String, Object>)o;
+			String name = (String)run.get("benchmark");
+			Map<String, Object> params = (Map<String, Object>)run.get("params");
+			if (params != null) name = name + params;
+			Map<String, Object> metric = (Map<String, Object>)run.get("primaryMetric");
+			double error = metric.get("scoreError") instanceof Double ? (Double)metric.get("scoreError") : 0;
+			scores.put(name, new double[] { (Double)metric.get("score"), error });
+		}
+		return scores;
+	}
+
+	//
+	// Just enough of a JSON reader for JMH's output
+	//
+	static class Json {
+		String s;
+		int pos = 0;
+
+		Json(String s) {
+			this.s = s;
+		}
+
+		Object value() {
+			skipSpace();
+			char c = s.charAt(pos);
+			if (c == '{') {
+				Map<String, Object> map = new LinkedHashMap<String, Object>();
+				pos++;
+				skipSpace();
+				if (s.charAt(pos) == '}') {
+					pos++;
+					return map;
+				}
+				while (true) {
+					skipSpace();
+					String key = string();
+					skipSpace();
+					expect(':');
+					map.put(key, value());
+					skipSpace();
+					if (s.charAt(pos++) == '}') return map;
+				}
+			} else if (c == '[') {
+				List<Object> list = new ArrayList<Object>();
+				pos++;
+				skipSpace();
+				if (s.charAt(pos) == ']') {
+					pos++;
+					return list;
+				}
+				while (true) {
+					list.add(value());
+					skipSpace();
+					if (s.charAt(pos++) == ']') return list;
+				}
+			} else if (c == '"') {
+				return string();
+			} else {
+				int start = pos;
+				while (pos < s.length() && ",}] \t\r\n".indexOf(s.charAt(pos)) < 0) pos++;
+				String literal = s.substring(start, pos);
+				if (literal.equals("true") || literal.equals("false")) return Boolean.valueOf(literal);
+				if (literal.equals("null")) return null;
+				try {
+					return Double.valueOf(literal);
+				} catch (NumberFormatException e) {
+					// JMH writes "NaN" for a missing error - as a string, but just in case
+					return literal;
+				}
+			}
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char c = s.charAt(pos++);
+				if (c == '"') return sb.toString();
+				if (c == '\\') {
+					c = s.charAt(pos++);
+					if (c == 'u') {
+						c = (char)Integer.parseInt(s.substring(pos, pos + 4), 16);
+						pos += 4;
+					} else if (c == 'n') {
+						c = '\n';
+					} else if (c == 't') {
+						c = '\t';
+					}
+				}
+				sb.append(c);
+			}
+		}
+
+		void expect(char c) {
+			if (s.charAt(pos) != c) throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+			pos++;
+		}
+
+		void skipSpace() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+////////////////////////////////////////////////////////////
+// PredictorOutputBenchmark.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Parsing the CSV trajectory written by the external
+// predictor (ExternalPredictor.parseOutput), for a typical
+// flight's worth of output.
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PredictorOutputBenchmark {
+
+	@Param({"2000"})
+	int points;
+
+	byte[] output;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder();
+		long time = 1500000000L;
+		for (int i = 0; i < points; i++) {
+			double f = (double)i / points;
+			double alt = f < 0.75 ? 30000 * f / 0.75 : 30000 * (1 - f) / 0.25;
+			sb.append(time + i * 4L).append(',')
+				.append(-34.9 + 0.3 * f).append(',')
+				.append(138.5 + 0.9 * f).append(',')
+				.append(alt).append('\n');
+		}
+		output = sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Benchmark
+	public int parseOutput() throws Throwable {
+		Object trajectory = (Object)Targets.PARSE_OUTPUT.invokeExact((InputStream)new ByteArrayInputStream(output), (Object)null);
+		return (int)Targets.TRAJECTORY_SIZE.invokeExact(trajectory);
+	}
+}
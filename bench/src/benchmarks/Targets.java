@@ -0,0 +1,169 @@
+////////////////////////////////////////////////////////////
+// Targets.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// OziPlotter's classes are all in the default package,
+// which JMH benchmarks can't be in, and Java code in a
+// named package can't refer to the default package. So
+// the benchmarks call OziPlotter through these method
+// handles instead.
+//
+// They are static final, so the JIT treats them as
+// constants and inlines straight through them - the
+// overhead is the same as a direct call.
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+final class Targets {
+
+	// Atmosphere
+	static final MethodHandle GET_DENSITY;
+	static final MethodHandle SEA_LEVEL_DESCENT_RATE;
+	static final MethodHandle FILL_DESCENT_CORRECTION;
+	static final Object STANDARD_ATMOSPHERE;
+
+	// Checksum
+	static final MethodHandle VALIDATE_XOR_SUM;
+	static final MethodHandle CRC16_SUM;
+	static final MethodHandle VALIDATE_CRC16_SUM;
+	static final MethodHandle VALIDATE_BYTES;
+	static final MethodHandle VALIDATE_BUFFER;
+	static final MethodHandle VALIDATE_BURST;
+
+	// TelemetryParser / TelemetryRecord
+	static final MethodHandle NEW_PARSER;
+	static final MethodHandle NEW_RECORD;
+	static final MethodHandle PARSE;
+
+	// ExternalPredictor output
+	static final MethodHandle PARSE_OUTPUT;
+	static final MethodHandle TRAJECTORY_SIZE;
+
+	// Trajectory / track files
+	static final MethodHandle NEW_TRAJECTORY;
+	static final MethodHandle TRAJECTORY_ADD;
+	static final MethodHandle WRITE_TRACK_FILE;
+	static final MethodHandle NEW_GEOJSON_SINK;
+	static final MethodHandle NEW_KML_SINK;
+	static final MethodHandle LOAD_TRACK;
+	static final MethodHandle CLOSE_SINK;
+	static final MethodHandle SIMPLIFY;
+
+	static {
+		try {
+			Class<?> atmosphere = find("Atmosphere");
+			GET_DENSITY = lookup(atmosphere).findStatic(atmosphere, "getDensity",
+					MethodType.methodType(double.class, int.class));
+			SEA_LEVEL_DESCENT_RATE = lookup(atmosphere).findStatic(atmosphere, "seaLevelDescentRate",
+					MethodType.methodType(double.class, double.class, int.class));
+			FILL_DESCENT_CORRECTION = erase(lookup(atmosphere).findVirtual(atmosphere, "descentCorrection",
+					MethodType.methodType(void.class, double[].class, double[].class, int.class)));
+			STANDARD_ATMOSPHERE = atmosphere.getField("STANDARD").get(null);
+
+			Class<?> checksum = find("Checksum");
+			VALIDATE_XOR_SUM = lookup(checksum).findStatic(checksum, "validateXORSum",
+					MethodType.methodType(boolean.class, String.class));
+			CRC16_SUM = lookup(checksum).findStatic(checksum, "CRC16Sum",
+					MethodType.methodType(int.class, String.class));
+			VALIDATE_CRC16_SUM = lookup(checksum).findStatic(checksum, "validateCRC16Sum",
+					MethodType.methodType(boolean.class, String.class));
+			VALIDATE_BYTES = lookup(checksum).findStatic(checksum, "validate",
+					MethodType.methodType(boolean.class, byte[].class, int.class, int.class));
+			VALIDATE_BUFFER = lookup(checksum).findStatic(checksum, "validate",
+					MethodType.methodType(boolean.class, ByteBuffer.class, int.class, int.class));
+			VALIDATE_BURST = lookup(checksum).findStatic(checksum, "validate",
+					MethodType.methodType(int.class, byte[][].class, int[].class, int.class, boolean[].class));
+
+			Class<?> parser = find("TelemetryParser");
+			Class<?> record = find("TelemetryRecord");
+			NEW_PARSER = erase(lookup(parser).findConstructor(parser, MethodType.methodType(void.class)));
+			NEW_RECORD = erase(lookup(record).findConstructor(record, MethodType.methodType(void.class)));
+			PARSE = erase(lookup(parser).findVirtual(parser, "parse",
+					MethodType.methodType(boolean.class, byte[].class, int.class, record)));
+
+			Class<?> trajectory = find("Trajectory");
+			Class<?> externalPredictor = find("ExternalPredictor");
+			Class<?> listener = find("TrajectoryListener");
+			PARSE_OUTPUT = erase(lookup(externalPredictor).findStatic(externalPredictor, "parseOutput",
+					MethodType.methodType(trajectory, InputStream.class, listener)));
+			TRAJECTORY_SIZE = erase(lookup(trajectory).findVirtual(trajectory, "size",
+					MethodType.methodType(int.class)));
+
+			NEW_TRAJECTORY = erase(lookup(trajectory).findConstructor(trajectory,
+					MethodType.methodType(void.class, int.class)));
+			TRAJECTORY_ADD = erase(lookup(trajectory).findVirtual(trajectory, "add",
+					MethodType.methodType(void.class, long.class, double.class, double.class, double.class)));
+
+			Class<?> oziSink = find("OziSink");
+			WRITE_TRACK_FILE = erase(lookup(oziSink).findStatic(oziSink, "writeTrackFile",
+					MethodType.methodType(void.class, String.class, String.class, int.class, int.class, trajectory)));
+
+			Class<?> mapSink = find("MapSink");
+			Class<?> geoJsonSink = find("GeoJsonSink");
+			Class<?> kmlSink = find("KmlSink");
+			NEW_GEOJSON_SINK = erase(lookup(geoJsonSink).findConstructor(geoJsonSink,
+					MethodType.methodType(void.class, String.class)));
+			NEW_KML_SINK = erase(lookup(kmlSink).findConstructor(kmlSink,
+					MethodType.methodType(void.class, String.class)));
+			LOAD_TRACK = erase(lookup(mapSink).findVirtual(mapSink, "loadTrack",
+					MethodType.methodType(void.class, int.class, String.class, int.class, int.class, trajectory, String.class)));
+			CLOSE_SINK = erase(lookup(mapSink).findVirtual(mapSink, "close",
+					MethodType.methodType(void.class)));
+
+			Class<?> simplifier = find("TrackSimplifier");
+			SIMPLIFY = erase(lookup(simplifier).findStatic(simplifier, "simplify",
+					MethodType.methodType(trajectory, trajectory, double.class)));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Targets() {
+	}
+
+	static Class<?> find(String name) throws ClassNotFoundException {
+		return Class.forName(name, true, Targets.class.getClassLoader());
+	}
+
+	// Both sides are in the unnamed module, so this gives access to package-private members
+	static MethodHandles.Lookup lookup(Class<?> target) throws IllegalAccessException {
+		return MethodHandles.privateLookupIn(target, MethodHandles.lookup());
+	}
+
+	// Replace OziPlotter types in a handle's signature with Object, so invokeExact can be used from here
+	static MethodHandle erase(MethodHandle handle) {
+		MethodType type = handle.type();
+		for (int i = 0; i < type.parameterCount(); i++) {
+			if (isOziPlotter(type.parameterType(i))) type = type.changeParameterType(i, Object.class);
+		}
+		if (isOziPlotter(type.returnType())) type = type.changeReturnType(Object.class);
+		return handle.asType(type);
+	}
+
+	static boolean isOziPlotter(Class<?> c) {
+		return !c.isPrimitive() && !c.isArray() && c.getPackageName().isEmpty();
+	}
+
+	//
+	// Build a straight-ish 2 hour flight of the given number of points
+	//
+	static Object trajectory(int points) throws Throwable {
+		Object t = (Object)NEW_TRAJECTORY.invokeExact(points);
+		long time = 1500000000L;
+		for (int i = 0; i < points; i++) {
+			double f = (double)i / points;
+			double alt = f < 0.75 ? 30000 * f / 0.75 : 30000 * (1 - f) / 0.25;
+			TRAJECTORY_ADD.invokeExact(t, time + i * 4L, -34.9 + 0.3 * f, 138.5 + 0.9 * f, alt);
+		}
+		return t;
+	}
+}
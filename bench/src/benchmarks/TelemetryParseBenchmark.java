@@ -0,0 +1,54 @@
+////////////////////////////////////////////////////////////
+// TelemetryParseBenchmark.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Parsing of TELEMETRY and WAYPOINT UDP packets, as done
+// for every packet received by OziPlotterUDP.
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TelemetryParseBenchmark {
+
+	byte[] telemetry = "TELEMETRY,01:23:45,-34.91234,138.51234,23456,HORUS\n".getBytes(StandardCharsets.ISO_8859_1);
+	byte[] telemetryNoCallsign = "TELEMETRY,01:23:45,-34.91234,138.51234,23456\n".getBytes(StandardCharsets.ISO_8859_1);
+	byte[] waypoint = "WAYPOINT,CHASE1,-34.80000,138.60000,Chase car 1\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	Object parser;
+	Object record;
+
+	@Setup
+	public void setup() throws Throwable {
+		parser = (Object)Targets.NEW_PARSER.invokeExact();
+		record = (Object)Targets.NEW_RECORD.invokeExact();
+	}
+
+	@Benchmark
+	public boolean telemetry() throws Throwable {
+		return (boolean)Targets.PARSE.invokeExact(parser, telemetry, telemetry.length, record);
+	}
+
+	@Benchmark
+	public boolean telemetryNoCallsign() throws Throwable {
+		return (boolean)Targets.PARSE.invokeExact(parser, telemetryNoCallsign, telemetryNoCallsign.length, record);
+	}
+
+	@Benchmark
+	public boolean waypoint() throws Throwable {
+		return (boolean)Targets.PARSE.invokeExact(parser, waypoint, waypoint.length, record);
+	}
+}
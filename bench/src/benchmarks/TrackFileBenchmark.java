@@ -0,0 +1,82 @@
+////////////////////////////////////////////////////////////
+// TrackFileBenchmark.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Writing a 2000 point prediction track to disk, as done
+// for every prediction.
+//
+// oziTrackFile goes through OziAPI's TrackFile, so it needs
+// the real OziAPI.jar on the classpath to mean anything.
+// geoJson and kml write through the headless map sinks,
+// one new file per operation. simplify is the track
+// simplification done before writing (25 m tolerance).
+//
+////////////////////////////////////////////////////////////
+
+package benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrackFileBenchmark {
+
+	@Param({"2000"})
+	int points;
+
+	Object trajectory;
+	File directory;
+	String plt, geoJson, kml;
+
+	@Setup
+	public void setup() throws Throwable {
+		trajectory = Targets.trajectory(points);
+		directory = new File(System.getProperty("java.io.tmpdir"), "oziplotter-bench");
+		directory.mkdirs();
+		plt = new File(directory, "predict.plt").getPath();
+		geoJson = new File(directory, "predict.geojson").getPath();
+		kml = new File(directory, "predict.kml").getPath();
+	}
+
+	@TearDown
+	public void tearDown() {
+		new File(plt).delete();
+		new File(geoJson).delete();
+		new File(kml).delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public void oziTrackFile() throws Throwable {
+		Targets.WRITE_TRACK_FILE.invokeExact(plt, "OziPlotter prediction", 2, 0x0080ff, trajectory);
+	}
+
+	@Benchmark
+	public void geoJson() throws Throwable {
+		new File(geoJson).delete();
+		Object sink = (Object)Targets.NEW_GEOJSON_SINK.invokeExact(geoJson);
+		Targets.LOAD_TRACK.invokeExact(sink, 1, "OziPlotter prediction", 2, 0x0080ff, trajectory, geoJson);
+		Targets.CLOSE_SINK.invokeExact(sink);
+	}
+
+	@Benchmark
+	public void kml() throws Throwable {
+		Object sink = (Object)Targets.NEW_KML_SINK.invokeExact(kml);
+		Targets.LOAD_TRACK.invokeExact(sink, 1, "OziPlotter prediction", 2, 0x0080ff, trajectory, kml);
+		Targets.CLOSE_SINK.invokeExact(sink);
+	}
+
+	@Benchmark
+	public Object simplify() throws Throwable {
+		return (Object)Targets.SIMPLIFY.invokeExact(trajectory, 25.0);
+	}
+}
@@ -6,89 +6,246 @@
 //
 // This class provides methods for validating checkums
 //
+// The CRC16 (CCITT, polynomial 0x1021, initial value
+// 0xFFFF, as used by UKHAS telemetry) is table driven and
+// processes four bytes per step (slice-by-4). Sentences
+// can be checked straight from byte[] or ByteBuffer
+// ranges, without converting them to Strings.
+//
 ////////////////////////////////////////////////////////////
 
+import java.nio.ByteBuffer;
+
 public class Checksum {
 
+	static final int POLYNOMIAL = 0x1021;
+	static final int INITIAL = 0xFFFF;
+
+	// CRC16_TABLE[k][v] is the CRC contribution of byte v followed by k zero bytes
+	static final int[][] CRC16_TABLE = new int[4][256];
+
+	static {
+		for (int v = 0; v < 256; v++) {
+			int crc = v << 8;
+			for (int i = 0; i < 8; i++) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+			}
+			CRC16_TABLE[0][v] = crc & 0xffff;
+		}
+		for (int k = 1; k < 4; k++) {
+			for (int v = 0; v < 256; v++) {
+				int prev = CRC16_TABLE[k-1][v];
+				CRC16_TABLE[k][v] = ((prev << 8) & 0xffff) ^ CRC16_TABLE[0][prev >> 8];
+			}
+		}
+	}
+
 	//
 	// Validate an XOR checksum
 	//
 	public static boolean validateXORSum(String inputString) {
-		int c;	int xor = 0;
-	
+		int length = inputString.length();
+		if (length < 3 || inputString.charAt(length-3) != '*') return false;
+
 		// Read the checksum from the input string
-		String sumString = inputString.substring(inputString.length()-2, inputString.length());
-		int sum;
-		try {
-			sum = Integer.parseInt(sumString, 16);
-		} catch (Exception e) {
-			return false;
-		}
-		
+		int sum = hexValue(inputString.charAt(length-2), inputString.charAt(length-1), 0, 0, 2);
+		if (sum < 0) return false;
+
 		// Calculate what the checksum for the string should be
-		for (int i = 0; i < inputString.length(); i++) {
-			c = inputString.charAt(i);
-			if (c == '*' && i == inputString.length() - 3) break;
+		int xor = 0;
+		for (int i = 0; i < length - 3; i++) {
+			int c = inputString.charAt(i);
 			if (c != '$') xor ^= c;
 		}
-		
+
 		// Does the sum validate?
-		if (sum == xor) {
-			return true;
-		} else {
-			return false;
-		}
+		return sum == xor;
 	}
-	
+
 	//
 	// Calculate a CRC16 checksum
 	//
-	public static int CRC16Sum(String input) throws Exception {
-		
-		int crc = 0xFFFF;          // initial value
-        int polynomial = 0x1021;   // 0001 0000 0010 0001  (0, 5, 12) 
-		byte[] bytes = input.getBytes("ASCII");
-		
-		for (byte b : bytes) {
-            for (int i = 0; i < 8; i++) {
-                boolean bit = ((b   >> (7-i) & 1) == 1);
-                boolean c15 = ((crc >> 15    & 1) == 1);
-                crc <<= 1;
-                if (c15 ^ bit) crc ^= polynomial;
-             }
-        }
-        crc &= 0xffff;
+	public static int CRC16Sum(String input) {
+		int crc = INITIAL;
+		int[] t0 = CRC16_TABLE[0];
+		for (int i = 0; i < input.length(); i++) {
+			int c = input.charAt(i);
+			if (c > 0x7f) c = '?';
+			crc = ((crc << 8) & 0xffff) ^ t0[((crc >> 8) ^ c) & 0xff];
+		}
 		return crc;
 	}
-	
+
 	//
-	// Validate a CRC16 checksum
+	// Validate a CRC16 checksum ($$<sentence>*XXXX)
 	//
 	public static boolean validateCRC16Sum(String inputString) {
-		
+		int length = inputString.length();
+		if (length < 7 || inputString.charAt(length-5) != '*') return false;
+
 		// Read the checksum from the string
-		String sumString = inputString.substring(inputString.length()-5, inputString.length());
-		System.out.println("Read:" + sumString);
-		int calcSum;
-		
-		try {
-			System.out.println(inputString.substring(2, inputString.length()-6));
-			calcSum = CRC16Sum(inputString.substring(2, inputString.length()-6));
-			System.out.println(Integer.toHexString(calcSum));
-		} catch (Exception e) {
-			return false;
+		int sum = hexValue(inputString.charAt(length-4), inputString.charAt(length-3),
+				inputString.charAt(length-2), inputString.charAt(length-1), 4);
+		if (sum < 0) return false;
+
+		return CRC16Sum(inputString.substring(2, length-5)) == sum;
+	}
+
+	//
+	// CRC16 of a range of bytes
+	//
+	public static int crc16(byte[] data, int offset, int length) {
+		return crc16(INITIAL, data, offset, length);
+	}
+
+	//
+	// Continue a CRC16 over a range of bytes
+	//
+	public static int crc16(int crc, byte[] data, int offset, int length) {
+		int[] t0 = CRC16_TABLE[0], t1 = CRC16_TABLE[1], t2 = CRC16_TABLE[2], t3 = CRC16_TABLE[3];
+		int i = offset;
+		int end = offset + length;
+
+		for (; i + 4 <= end; i += 4) {
+			crc = t3[((crc >> 8) ^ data[i]) & 0xff]
+				^ t2[(crc ^ data[i+1]) & 0xff]
+				^ t1[data[i+2] & 0xff]
+				^ t0[data[i+3] & 0xff];
 		}
-		
-		try {
-			if (Integer.toHexString(calcSum).toLowerCase().equals(sumString.toLowerCase())) { 
-				return true;
-			} else {
-				return false;
-			}
-		} catch (Exception e) {
-			return false;
+		for (; i < end; i++) {
+			crc = ((crc << 8) & 0xffff) ^ t0[((crc >> 8) ^ data[i]) & 0xff];
 		}
-		
+		return crc;
+	}
+
+	//
+	// CRC16 of a range of a buffer. Uses absolute indexes, so the buffer's position is left alone.
+	//
+	public static int crc16(ByteBuffer buffer, int offset, int length) {
+		if (buffer.hasArray()) return crc16(buffer.array(), buffer.arrayOffset() + offset, length);
+
+		int[] t0 = CRC16_TABLE[0], t1 = CRC16_TABLE[1], t2 = CRC16_TABLE[2], t3 = CRC16_TABLE[3];
+		int crc = INITIAL;
+		int i = offset;
+		int end = offset + length;
+
+		for (; i + 4 <= end; i += 4) {
+			crc = t3[((crc >> 8) ^ buffer.get(i)) & 0xff]
+				^ t2[(crc ^ buffer.get(i+1)) & 0xff]
+				^ t1[buffer.get(i+2) & 0xff]
+				^ t0[buffer.get(i+3) & 0xff];
+		}
+		for (; i < end; i++) {
+			crc = ((crc << 8) & 0xffff) ^ t0[((crc >> 8) ^ buffer.get(i)) & 0xff];
+		}
+		return crc;
 	}
 
-}
\ No newline at end of file
+	//
+	// XOR checksum of a range of bytes
+	//
+	public static int xor(byte[] data, int offset, int length) {
+		int xor = 0;
+		for (int i = offset; i < offset + length; i++) xor ^= data[i];
+		return xor & 0xff;
+	}
+
+	public static int xor(ByteBuffer buffer, int offset, int length) {
+		if (buffer.hasArray()) return xor(buffer.array(), buffer.arrayOffset() + offset, length);
+
+		int xor = 0;
+		for (int i = offset; i < offset + length; i++) xor ^= buffer.get(i);
+		return xor & 0xff;
+	}
+
+	//
+	// Validate a sentence held in a range of bytes. Trailing return chars are ignored.
+	//   $$<sentence>*XXXX - UKHAS, CRC16 of <sentence>
+	//   $<sentence>*XX    - NMEA, XOR of <sentence>
+	// Anything else is invalid.
+	//
+	public static boolean validate(byte[] data, int offset, int length) {
+		int end = trimmedEnd(data, offset, offset + length);
+		length = end - offset;
+		if (length < 4 || data[offset] != '$') return false;
+
+		if (data[offset+1] == '$' && length >= 7 && data[end-5] == '*') {
+			int sum = hexValue(data[end-4], data[end-3], data[end-2], data[end-1], 4);
+			return sum >= 0 && crc16(data, offset + 2, length - 7) == sum;
+		}
+		if (data[end-3] == '*') {
+			int sum = hexValue(data[end-2], data[end-1], 0, 0, 2);
+			return sum >= 0 && xor(data, offset + 1, length - 4) == sum;
+		}
+		return false;
+	}
+
+	public static boolean validate(ByteBuffer buffer, int offset, int length) {
+		if (buffer.hasArray()) return validate(buffer.array(), buffer.arrayOffset() + offset, length);
+
+		int end = offset + length;
+		while (end > offset && isReturn(buffer.get(end-1))) end--;
+		length = end - offset;
+		if (length < 4 || buffer.get(offset) != '$') return false;
+
+		if (buffer.get(offset+1) == '$' && length >= 7 && buffer.get(end-5) == '*') {
+			int sum = hexValue(buffer.get(end-4), buffer.get(end-3), buffer.get(end-2), buffer.get(end-1), 4);
+			return sum >= 0 && crc16(buffer, offset + 2, length - 7) == sum;
+		}
+		if (buffer.get(end-3) == '*') {
+			int sum = hexValue(buffer.get(end-2), buffer.get(end-1), 0, 0, 2);
+			return sum >= 0 && xor(buffer, offset + 1, length - 4) == sum;
+		}
+		return false;
+	}
+
+	//
+	// Validate a burst of sentences, one per packet. valid[i] is set for each of the
+	// first count packets. Returns the number of valid sentences.
+	//
+	public static int validate(byte[][] packets, int[] lengths, int count, boolean[] valid) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			valid[i] = validate(packets[i], 0, lengths[i]);
+			if (valid[i]) n++;
+		}
+		return n;
+	}
+
+	//
+	// Validate a burst of sentences held in one buffer at the given offsets
+	//
+	public static int validate(ByteBuffer buffer, int[] offsets, int[] lengths, int count, boolean[] valid) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			valid[i] = validate(buffer, offsets[i], lengths[i]);
+			if (valid[i]) n++;
+		}
+		return n;
+	}
+
+	static int trimmedEnd(byte[] data, int offset, int end) {
+		while (end > offset && isReturn(data[end-1])) end--;
+		return end;
+	}
+
+	static boolean isReturn(int c) {
+		return c == '\r' || c == '\n' || c == 0;
+	}
+
+	//
+	// Value of 2 or 4 hex digits (either case), negative if any aren't hex
+	//
+	static int hexValue(int c0, int c1, int c2, int c3, int digits) {
+		int value = (hexDigit(c0) << 4) | hexDigit(c1);
+		if (digits == 4) value = (value << 8) | (hexDigit(c2) << 4) | hexDigit(c3);
+		return value;
+	}
+
+	static int hexDigit(int c) {
+		if (c >= '0' && c <= '9') return c - '0';
+		if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+		return -1;
+	}
+}
@@ -0,0 +1,214 @@
+////////////////////////////////////////////////////////////
+// EnsemblePredictor.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Runs a Monte Carlo ensemble of perturbed predictions in
+// parallel on a ForkJoinPool, and reduces the landing points
+// into a landing ellipse.
+//
+// Each member perturbs the ascent rate, descent rate, burst
+// altitude and wind speed of the nominal scenario. Members are
+// seeded from the scenario, so the same scenario always gives
+// the same ensemble. Any members which have not started when
+// the time budget runs out are skipped.
+//
+////////////////////////////////////////////////////////////
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class EnsemblePredictor {
+
+	// Shared by all ensembles, one worker per core
+	static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	PredictorBackend backend;
+
+	// Configuration variables
+	int members;
+	long timeBudget;			// ms
+	double ascentError;			// 1-sigma, fraction of nominal
+	double descentError;		// 1-sigma, fraction of nominal
+	double burstError;			// 1-sigma, fraction of nominal
+	double windError;			// 1-sigma, fraction of wind speed
+
+	// Size of the ellipse drawn, in standard deviations
+	double ellipseSigma = 2.0;
+	int ellipsePoints = 36;
+
+	//
+	// Constructor
+	//
+	public EnsemblePredictor(PredictorBackend backend, int members, long timeBudget, double ascentError, double descentError, double burstError, double windError) {
+		this.backend = backend;
+		this.members = members;
+		this.timeBudget = timeBudget;
+		this.ascentError = ascentError;
+		this.descentError = descentError;
+		this.burstError = burstError;
+		this.windError = windError;
+	}
+
+	//
+	// Result of an ensemble run
+	//
+	public static class Result {
+		double[] landingLat;
+		double[] landingLon;
+		int count;				// Members completed
+		long runTime;			// ms
+
+		Result(int members) {
+			landingLat = new double[members];
+			landingLon = new double[members];
+		}
+	}
+
+	//
+	// Run the ensemble around a nominal scenario
+	//
+	public Result run(Scenario nominal) {
+		long start = System.currentTimeMillis();
+		long deadline = start + timeBudget;
+
+		double[] lat = new double[members];
+		double[] lon = new double[members];
+		boolean[] done = new boolean[members];
+
+		pool.invoke(new MemberTask(nominal, lat, lon, done, 0, members, deadline));
+
+		// Gather the members which finished
+		Result result = new Result(members);
+		for (int i = 0; i < members; i++) {
+			if (done[i]) {
+				result.landingLat[result.count] = lat[i];
+				result.landingLon[result.count] = lon[i];
+				result.count++;
+			}
+		}
+		result.runTime = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	//
+	// Build the scenario for a single ensemble member
+	//
+	Scenario perturb(Scenario nominal, int member) {
+		Random random = new Random(nominal.launchTime * 31 + member);
+		double asc = nominal.ascentRate * (1 + random.nextGaussian() * ascentError);
+		double desc = nominal.descentRate * (1 + random.nextGaussian() * descentError);
+		int burst = (int)(nominal.burstAltitude * (1 + random.nextGaussian() * burstError));
+		double wind = random.nextGaussian() * windError;
+
+		// Keep the payload moving in the right direction
+		asc = Math.max(asc, 0.5);
+		desc = Math.max(desc, 1.0);
+		if (!nominal.descent) burst = Math.max(burst, nominal.altitude + 1);
+
+		return new Scenario(nominal.latitude, nominal.longitude, nominal.altitude, nominal.launchTime,
+				asc, desc, burst, nominal.descent, wind);
+	}
+
+	//
+	// Runs a range of members, splitting until each task has a single member
+	//
+	class MemberTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		Scenario nominal;
+		double[] lat, lon;
+		boolean[] done;
+		int from, to;
+		long deadline;
+
+		MemberTask(Scenario nominal, double[] lat, double[] lon, boolean[] done, int from, int to, long deadline) {
+			this.nominal = nominal;
+			this.lat = lat;
+			this.lon = lon;
+			this.done = done;
+			this.from = from;
+			this.to = to;
+			this.deadline = deadline;
+		}
+
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new MemberTask(nominal, lat, lon, done, from, mid, deadline),
+						new MemberTask(nominal, lat, lon, done, mid, to, deadline));
+				return;
+			}
+
+			// Out of time?
+			if (System.currentTimeMillis() > deadline) return;
+
+			try {
+				Trajectory trajectory = backend.predict(perturb(nominal, from));
+				int landing = trajectory.getLandingIndex();
+				if (landing >= 0) {
+					lat[from] = trajectory.getLat(landing);
+					lon[from] = trajectory.getLon(landing);
+					done[from] = true;
+				}
+			} catch (Exception e) {
+				// A failed member just doesn't count
+			}
+		}
+	}
+
+	//
+	// Reduce the landing points into an ellipse, returned as {lats, lons}
+	// of a closed polygon, or null if there are too few points.
+	//
+	public double[][] landingEllipse(Result result) {
+		int n = result.count;
+		if (n < 3) return null;
+
+		// Mean landing position
+		double meanLat = 0, meanLon = 0;
+		for (int i = 0; i < n; i++) {
+			meanLat += result.landingLat[i];
+			meanLon += result.landingLon[i];
+		}
+		meanLat /= n;
+		meanLon /= n;
+
+		// Covariance, in metres east/north of the mean
+		double metresPerDegLat = Math.toRadians(TrajectoryEngine.EARTH_RADIUS);
+		double metresPerDegLon = metresPerDegLat * Math.cos(Math.toRadians(meanLat));
+		double sxx = 0, syy = 0, sxy = 0;
+		for (int i = 0; i < n; i++) {
+			double x = (result.landingLon[i] - meanLon) * metresPerDegLon;
+			double y = (result.landingLat[i] - meanLat) * metresPerDegLat;
+			sxx += x * x;
+			syy += y * y;
+			sxy += x * y;
+		}
+		sxx /= (n - 1);
+		syy /= (n - 1);
+		sxy /= (n - 1);
+
+		// Eigen-decomposition of the 2x2 covariance matrix
+		double trace = sxx + syy;
+		double det = sxx * syy - sxy * sxy;
+		double disc = Math.sqrt(Math.max(0, trace * trace / 4 - det));
+		double major = Math.sqrt(Math.max(0, trace / 2 + disc)) * ellipseSigma;
+		double minor = Math.sqrt(Math.max(0, trace / 2 - disc)) * ellipseSigma;
+		double angle = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+
+		// Trace out the ellipse
+		double[][] polygon = new double[2][ellipsePoints + 1];
+		for (int i = 0; i <= ellipsePoints; i++) {
+			double t = 2 * Math.PI * i / ellipsePoints;
+			double ex = major * Math.cos(t);
+			double ey = minor * Math.sin(t);
+			double x = ex * Math.cos(angle) - ey * Math.sin(angle);
+			double y = ex * Math.sin(angle) + ey * Math.cos(angle);
+			polygon[0][i] = meanLat + y / metresPerDegLat;
+			polygon[1][i] = meanLon + x / metresPerDegLon;
+		}
+		return polygon;
+	}
+}
@@ -0,0 +1,124 @@
+////////////////////////////////////////////////////////////
+// ExternalPredictor.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Predictor backend which runs the external CUSF predictor
+// binary. The scenario is fed in on STDIN as an INI file,
+// and the trajectory is parsed from STDOUT (CSV) as the
+// predictor writes it.
+//
+// This was the only backend prior to the in-process
+// TrajectoryEngine, and is kept as a fallback.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class ExternalPredictor implements PredictorBackend {
+
+	// What to execute when running the predictor (wtf windows paths)
+	String command;
+
+	//
+	// Constructor
+	//
+	public ExternalPredictor(String command) {
+		this.command = command;
+	}
+
+	public String getName() {
+		return "pred.exe";
+	}
+
+	//
+	// Fork the predictor and collect its output
+	//
+	public Trajectory predict(Scenario scenario) throws Exception {
+		return predict(scenario, null);
+	}
+
+	public Trajectory predict(Scenario scenario, TrajectoryListener listener) throws Exception {
+
+		// Fire up the predictor binary
+		long spawnStart = System.nanoTime();
+		Process predictor;
+		if (scenario.descent) {
+			predictor = Runtime.getRuntime().exec(command + " -d");
+		} else {
+			predictor = Runtime.getRuntime().exec(command);
+		}
+		Metrics.PRED_SPAWN.recordSince(spawnStart);
+
+		// STDERR has to be drained in its own thread to avoid deadlocking, as we
+		// block reading STDOUT - we use InputStreamHandler to do this
+		StringBuffer errBuffer = new StringBuffer();
+		InputStreamHandler errHandler = new InputStreamHandler(errBuffer, predictor.getErrorStream());
+
+		// Work out the date etc
+		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.setTimeInMillis(scenario.launchTime * 1000L);
+
+		// Feed in the scenario
+		OutputStreamWriter predictorInput = new OutputStreamWriter(predictor.getOutputStream());
+
+		predictorInput.write("[launch-site]\n");
+		predictorInput.write("latitude = " + scenario.latitude + "\n");
+		predictorInput.write("altitude = " + scenario.altitude + "\n");
+		predictorInput.write("longitude =" + scenario.longitude + "\n");
+
+		predictorInput.write("[atmosphere]\n");
+		predictorInput.write("wind-error = " + scenario.windError + "\n");
+		predictorInput.write("[altitude-model]\n");
+
+		predictorInput.write("ascent-rate = " + scenario.ascentRate + "\n");
+		predictorInput.write("descent-rate = " + scenario.descentRate + "\n");
+		predictorInput.write("burst-altitude = " + scenario.burstAltitude + "\n");
+
+		predictorInput.write("[launch-time]\n");
+		predictorInput.write("hour = " + cal.get(Calendar.HOUR_OF_DAY) + "\n");
+		predictorInput.write("month = " + (cal.get(Calendar.MONTH) + 1) + "\n");
+		predictorInput.write("second = 0\n");
+		predictorInput.write("year = " + cal.get(Calendar.YEAR) + "\n");
+		predictorInput.write("day = " + cal.get(Calendar.DATE) + "\n");
+		predictorInput.write("minute = " + cal.get(Calendar.MINUTE) + "\n");
+
+		predictorInput.flush();
+		predictorInput.close();
+
+		// Read the datapoints as the predictor produces them, until it closes STDOUT
+		Trajectory trajectory;
+		try {
+			trajectory = parseOutput(predictor.getInputStream(), listener);
+		} catch (Exception e) {
+			// Don't leave it blocked on a full STDOUT
+			predictor.destroy();
+			throw e;
+		}
+
+		// Let the predictor run its course, and wait for STDERR to be drained
+		predictor.waitFor();
+		errHandler.join();
+
+		return trajectory;
+	}
+
+	//
+	// Parse the predictor's CSV output (time,lat,lon,alt per line).
+	// Time spent waiting for output counts as predictor compute time,
+	// and the rest as parse time.
+	//
+	static Trajectory parseOutput(InputStream in, TrajectoryListener listener) throws Exception {
+		PredictorOutputParser parser = new PredictorOutputParser();
+		long start = System.nanoTime();
+		try {
+			return parser.parse(in, listener);
+		} finally {
+			in.close();
+			Metrics.PRED_COMPUTE.record(parser.readTime);
+			Metrics.PRED_PARSE.record(System.nanoTime() - start - parser.readTime);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+////////////////////////////////////////////////////////////
+// FlightRecorder.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Appends every received packet, with its receive time and
+// source, to a binary flight log, so a flight can be
+// replayed later through the same ingest path (see
+// FlightReplay).
+//
+// The log is written through a memory-mapped window onto
+// the end of the file, which is moved along a chunk at a
+// time, so recording a packet is just a copy into memory.
+// The mapping is forced to disk every flush interval, by
+// the next record() or by flush() while no packets arrive.
+//
+// Layout (little endian):
+//   int32   magic "OZFR", int32 version
+//   then for each packet:
+//   int32   length (> 0)
+//   int64   receive time (ms since 1970)
+//   byte    source length, byte source[] (ISO-8859-1)
+//   byte    packet[length]
+// The file is grown a chunk at a time, and the unused part
+// of the last chunk is zeros - a zero length marks the end.
+// Opening an existing log appends to it, in its own format
+// (version 1 logs have no source).
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+public class FlightRecorder {
+
+	static final int MAGIC = 0x52465A4F;	// "OZFR"
+	static final int FORMAT_VERSION = 2;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_HEADER_SIZE = 12;
+	static final int MAX_SOURCE_LENGTH = 255;
+
+	// Size of each mapped window onto the file
+	static final int CHUNK_SIZE = 1 << 20;
+
+	File file;
+	RandomAccessFile raf;
+	FileChannel channel;
+
+	// Current window, and its offset in the file
+	MappedByteBuffer window;
+	long windowStart;
+
+	// Format of the log being appended to
+	int version = FORMAT_VERSION;
+
+	long flushInterval;		// ms
+	long lastFlush;
+	boolean dirty = false;	// records not yet forced to disk
+	boolean closed = false;
+
+	// Statistics
+	long records = 0;
+	long bytes = 0;
+
+	//
+	// Open a log for appending, creating it if needed
+	//
+	public FlightRecorder(File file, long flushInterval) throws IOException {
+		this.file = file;
+		this.flushInterval = flushInterval;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+
+		try {
+			if (raf.length() == 0) {
+				mapAt(0, HEADER_SIZE);
+				window.putInt(MAGIC);
+				window.putInt(FORMAT_VERSION);
+			} else {
+				mapAt(findEnd(), 0);
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		lastFlush = System.currentTimeMillis();
+	}
+
+	//
+	// Offset of the end of the records in an existing log
+	//
+	long findEnd() throws IOException {
+		ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) throw new IOException(file.getName() + " is not a flight log");
+		version = buf.getInt();
+		if (version < 1 || version > FORMAT_VERSION) throw new IOException("Unsupported flight log version " + version + " in " + file.getName());
+
+		while (buf.remaining() >= RECORD_HEADER_SIZE) {
+			int length = buf.getInt(buf.position());
+			if (length <= 0 || length > buf.remaining() - RECORD_HEADER_SIZE) break;
+			if (version >= 2) {
+				if (buf.remaining() < RECORD_HEADER_SIZE + 1) break;
+				length += 1 + (buf.get(buf.position() + RECORD_HEADER_SIZE) & 0xff);
+				if (length > buf.remaining() - RECORD_HEADER_SIZE) break;
+			}
+			buf.position(buf.position() + RECORD_HEADER_SIZE + length);
+		}
+		return buf.position();
+	}
+
+	//
+	// Map a new window starting at the given file offset, big enough for at least
+	// the given number of bytes
+	//
+	void mapAt(long position, int needed) throws IOException {
+		if (window != null) window.force();
+		window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(CHUNK_SIZE, needed));
+		window.order(ByteOrder.LITTLE_ENDIAN);
+		windowStart = position;
+	}
+
+	//
+	// Append a packet, received at time from source
+	//
+	public synchronized void record(byte[] packet, int length, long time, String source) throws IOException {
+		if (length <= 0 || closed) return;
+		int sourceLength = version >= 2 ? Math.min(source.length(), MAX_SOURCE_LENGTH) : -1;
+		int size = RECORD_HEADER_SIZE + sourceLength + 1 + length;
+		if (window.remaining() < size) {
+			mapAt(windowStart + window.position(), size);
+		}
+
+		// Write the length last, so a torn record reads as the end of the log
+		int start = window.position();
+		window.position(start + 4);
+		window.putLong(time);
+		if (sourceLength >= 0) {
+			window.put((byte)sourceLength);
+			for (int i = 0; i < sourceLength; i++) window.put((byte)source.charAt(i));
+		}
+		window.put(packet, 0, length);
+		window.putInt(start, length);
+		records++;
+		bytes += length;
+		dirty = true;
+		flush(time);
+	}
+
+	//
+	// Force the log to disk if there are records waiting and the flush interval
+	// has passed
+	//
+	public synchronized void flush(long now) {
+		if (!dirty || closed) return;
+		if (now - lastFlush >= flushInterval || now < lastFlush) {
+			window.force();
+			lastFlush = now;
+			dirty = false;
+		}
+	}
+
+	//
+	// How long (ms) until flush() has something to do
+	//
+	public synchronized long timeToFlush(long now) {
+		if (!dirty || closed) return Long.MAX_VALUE;
+		return Math.max(0, lastFlush + flushInterval - now);
+	}
+
+	public synchronized long getRecords() {
+		return records;
+	}
+
+	//
+	// Flush and close the log
+	//
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		window.force();
+		raf.close();
+	}
+
+	public String getName() {
+		return file.getPath();
+	}
+}
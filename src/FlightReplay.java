@@ -0,0 +1,114 @@
+////////////////////////////////////////////////////////////
+// FlightReplay.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Plays a flight log written by FlightRecorder back into a
+// packet handler, keeping the recorded gaps between packets
+// scaled by a speed factor: 1 for real time, N for N times
+// faster, or 0 to send packets as fast as they can be
+// handled. Each packet comes with the source it was
+// recorded from ("replay" for logs which didn't record it).
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class FlightReplay {
+
+	//
+	// Receives each replayed packet
+	//
+	public interface Handler {
+		public void handlePacket(byte[] packet, int length, String source);
+	}
+
+	File file;
+	double speed;
+
+	// Statistics
+	long records = 0;
+	long flightTime = 0;	// ms, first to last packet as recorded
+	long replayTime = 0;	// ms
+
+	//
+	// Constructor
+	//
+	public FlightReplay(File file, double speed) {
+		this.file = file;
+		this.speed = speed;
+	}
+
+	//
+	// Replay the whole log. Returns the number of packets sent.
+	//
+	public long replay(Handler handler) throws IOException, InterruptedException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buf.remaining() < FlightRecorder.HEADER_SIZE || buf.getInt() != FlightRecorder.MAGIC) {
+			throw new IOException(file.getName() + " is not a flight log");
+		}
+		int version = buf.getInt();
+		if (version < 1 || version > FlightRecorder.FORMAT_VERSION) throw new IOException("Unsupported flight log version " + version + " in " + file.getName());
+
+		byte[] packet = new byte[OziPlotterUDP.MAX_PACKET_SIZE];
+		byte[] sourceBytes = new byte[FlightRecorder.MAX_SOURCE_LENGTH];
+		String source = "replay";
+		long start = System.currentTimeMillis();
+		long firstTime = 0;
+
+		while (buf.remaining() >= FlightRecorder.RECORD_HEADER_SIZE) {
+			int length = buf.getInt();
+			if (length <= 0 || length > buf.remaining() - 8) break;
+			long time = buf.getLong();
+			if (version >= 2) {
+				int sourceLength = buf.get() & 0xff;
+				if (sourceLength + length > buf.remaining()) break;
+				buf.get(sourceBytes, 0, sourceLength);
+				if (!matches(source, sourceBytes, sourceLength)) {
+					source = new String(sourceBytes, 0, sourceLength, StandardCharsets.ISO_8859_1);
+				}
+			}
+			if (length > packet.length) packet = new byte[length];
+			buf.get(packet, 0, length);
+
+			if (records == 0) firstTime = time;
+			flightTime = time - firstTime;
+
+			// Wait until this packet is due
+			if (speed > 0) {
+				long due = start + (long)(flightTime / speed);
+				long wait = due - System.currentTimeMillis();
+				if (wait > 0) Thread.sleep(wait);
+			}
+
+			handler.handlePacket(packet, length, source);
+			records++;
+		}
+
+		replayTime = System.currentTimeMillis() - start;
+		return records;
+	}
+
+	//
+	// Whether the bytes spell out the same source as last time, so it isn't made again
+	//
+	static boolean matches(String source, byte[] bytes, int length) {
+		if (source.length() != length) return false;
+		for (int i = 0; i < length; i++) {
+			if (source.charAt(i) != (bytes[i] & 0xff)) return false;
+		}
+		return true;
+	}
+}
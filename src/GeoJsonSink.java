@@ -0,0 +1,114 @@
+////////////////////////////////////////////////////////////
+// GeoJsonSink.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Headless MapSink which streams every map change to a
+// file as newline-delimited GeoJSON, one Feature per line.
+// Each feature has an "event" property saying what it was
+// (trackpoint, track, cleartrack, waypoint, deletewaypoint),
+// and a "time" property (POSIX ms).
+//
+// The file is flushed on every refresh, so it can be
+// followed live by another program.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+
+public class GeoJsonSink implements MapSink {
+
+	Writer out;
+	String file;
+
+	//
+	// Constructor
+	//
+	public GeoJsonSink(String file) throws IOException {
+		this.file = file;
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+	}
+
+	public boolean isAvailable() {
+		return true;
+	}
+
+	public String getName() {
+		return "GeoJSON file " + file;
+	}
+
+	public synchronized void setupTrack(int track, String description, int width, int colour) throws IOException {
+		feature("setuptrack", null, "\"track\":" + track + ",\"description\":" + quote(description) + ",\"colour\":\"" + rgb(colour) + "\"");
+	}
+
+	public synchronized void addTrackPoint(int track, double lat, double lon, double alt) throws IOException {
+		feature("trackpoint", "{\"type\":\"Point\",\"coordinates\":" + position(lat, lon, alt) + "}", "\"track\":" + track);
+	}
+
+	public synchronized void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) throws IOException {
+		StringBuilder sb = new StringBuilder("{\"type\":\"LineString\",\"coordinates\":[");
+		for (int i = 0; i < points.size(); i++) {
+			if (i > 0) sb.append(',');
+			sb.append(position(points.getLat(i), points.getLon(i), points.getAlt(i)));
+		}
+		sb.append("]}");
+		feature("track", sb.toString(), "\"track\":" + track + ",\"description\":" + quote(description) + ",\"colour\":\"" + rgb(colour) + "\"");
+	}
+
+	public synchronized void clearTrack(int track) throws IOException {
+		feature("cleartrack", null, "\"track\":" + track);
+	}
+
+	public synchronized void addWaypoint(String name, double lat, double lon) throws IOException {
+		feature("waypoint", "{\"type\":\"Point\",\"coordinates\":" + position(lat, lon, 0) + "}", "\"name\":" + quote(name));
+	}
+
+	public synchronized void deleteWaypoint(String name) throws IOException {
+		feature("deletewaypoint", null, "\"name\":" + quote(name));
+	}
+
+	public synchronized void refresh() throws IOException {
+		out.flush();
+	}
+
+	public synchronized void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+		}
+	}
+
+	//
+	// Write a feature line
+	//
+	void feature(String event, String geometry, String properties) throws IOException {
+		out.write("{\"type\":\"Feature\",\"geometry\":" + geometry
+				+ ",\"properties\":{\"event\":\"" + event + "\",\"time\":" + System.currentTimeMillis() + "," + properties + "}}\n");
+	}
+
+	static String position(double lat, double lon, double alt) {
+		return "[" + lon + "," + lat + "," + alt + "]";
+	}
+
+	//
+	// OziExplorer colours are BGR
+	//
+	static String rgb(int bgr) {
+		return String.format("#%02x%02x%02x", bgr & 0xff, (bgr >> 8) & 0xff, (bgr >> 16) & 0xff);
+	}
+
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,532 @@
+////////////////////////////////////////////////////////////
+// Grib2Reader.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Minimal GRIB edition 2 reader - just enough to pull
+// geopotential height and wind fields on pressure levels
+// out of GFS files, without GDAL.
+//
+// Messages are read one at a time from a stream, and a
+// field's values are only unpacked when asked for, so
+// fields we don't want cost little more than a read.
+//
+// Supported:
+//  - grid template 3.0 (regular latitude/longitude)
+//  - product templates 4.0, 4.1, 4.8 (the leading part,
+//    up to the first fixed surface, is all we use)
+//  - data templates 5.0 (simple packing), 5.2 (complex
+//    packing) and 5.3 (complex packing with spatial
+//    differencing), which is what GFS uses
+//  - bitmaps (missing points come out as NaN)
+//
+// JPEG 2000 (5.40) and PNG (5.41) packing are not.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class Grib2Reader {
+
+	// Parameters we know by name (discipline 0, meteorological)
+	static final int CATEGORY_MASS = 3;
+	static final int NUMBER_HGT = 5;			// Geopotential height, gpm
+	static final int CATEGORY_MOMENTUM = 2;
+	static final int NUMBER_UGRD = 2;			// u-component of wind, m/s
+	static final int NUMBER_VGRD = 3;			// v-component of wind, m/s
+
+	static final int SURFACE_ISOBARIC = 100;	// Level in Pa
+
+	//
+	// A single field (one parameter on one level at one time)
+	//
+	static class Field {
+		byte[] message;
+
+		// Product
+		int discipline, category, number;
+		int surfaceType;
+		double surfaceValue;	// e.g. pressure in Pa
+		long referenceTime;		// POSIX timestamps
+		long validTime;
+
+		// Grid. lats and lons are in scan order, and the values
+		// come out latitude major, longitude minor.
+		int ni, nj;
+		int scanMode;
+		double[] lats, lons;
+
+		// Where the packed data is
+		int numPoints;			// Grid points
+		int numValues;			// Values actually packed
+		int dataTemplate;
+		int representation;		// Offset of section 5
+		int bitmap = -1;		// Offset of the bitmap, -1 if none
+		int data, dataLength;	// Offset and length of section 7's contents
+
+		boolean is(int discipline, int category, int number) {
+			return this.discipline == discipline && this.category == category && this.number == number;
+		}
+
+		//
+		// Unpack the values
+		//
+		float[] values() throws IOException {
+			try {
+				return reorder(unpack());
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException("Truncated GRIB data section");
+			}
+		}
+
+		//
+		// Decode section 7 into one value per grid point, in scan order
+		//
+		float[] unpack() throws IOException {
+			int s = representation;
+			float reference = Float.intBitsToFloat((int)uint(message, s + 11, 4));
+			int binaryScale = signed(message, s + 15, 2);
+			int decimalScale = signed(message, s + 17, 2);
+			int bits = message[s + 19] & 0xFF;
+			double bscale = Math.pow(2, binaryScale);
+			double dscale = Math.pow(10, -decimalScale);
+
+			// Packed integers, and which of them are missing
+			long[] packed = new long[numValues];
+			boolean[] missing = null;
+			if (dataTemplate == 0) {
+				BitReader in = new BitReader(message, data, dataLength);
+				if (bits > 0) {
+					for (int i = 0; i < numValues; i++) packed[i] = in.read(bits);
+				}
+			} else if (dataTemplate == 2 || dataTemplate == 3) {
+				missing = unpackComplex(packed, bits);
+			} else {
+				throw new IOException("Unsupported GRIB data representation template 5." + dataTemplate);
+			}
+
+			float[] values = new float[numValues];
+			for (int i = 0; i < numValues; i++) {
+				values[i] = missing != null && missing[i] ? Float.NaN : (float)((reference + packed[i] * bscale) * dscale);
+			}
+
+			// Spread over the grid, if only some points were packed
+			if (bitmap < 0) {
+				if (numValues != numPoints) throw new IOException("Expected " + numPoints + " values, got " + numValues);
+				return values;
+			}
+			float[] points = new float[numPoints];
+			int v = 0;
+			for (int i = 0; i < numPoints; i++) {
+				boolean present = (message[bitmap + (i >> 3)] & (0x80 >> (i & 7))) != 0;
+				points[i] = present && v < numValues ? values[v++] : Float.NaN;
+			}
+			return points;
+		}
+
+		//
+		// Complex packing (5.2), with optional spatial differencing (5.3).
+		// Fills in packed, and returns the missing flags (null if none are).
+		//
+		boolean[] unpackComplex(long[] packed, int referenceBits) throws IOException {
+			int s = representation;
+			int missingManagement = message[s + 22] & 0xFF;
+			int groups = (int)uint(message, s + 31, 4);
+			int widthReference = message[s + 35] & 0xFF;
+			int widthBits = message[s + 36] & 0xFF;
+			long lengthReference = uint(message, s + 37, 4);
+			int lengthIncrement = message[s + 41] & 0xFF;
+			long lastLength = uint(message, s + 42, 4);
+			int lengthBits = message[s + 46] & 0xFF;
+			int order = 0, descriptorBits = 0;
+			if (dataTemplate == 3) {
+				order = message[s + 47] & 0xFF;
+				descriptorBits = 8 * (message[s + 48] & 0xFF);
+				if (order != 1 && order != 2) throw new IOException("Unsupported spatial differencing order " + order);
+			}
+			if (missingManagement > 1) throw new IOException("Unsupported GRIB missing value management " + missingManagement);
+
+			BitReader in = new BitReader(message, data, dataLength);
+
+			// First values and minimum of the differences
+			long first = 0, second = 0, minimum = 0;
+			if (descriptorBits > 0) {
+				first = in.readSigned(descriptorBits);
+				if (order == 2) second = in.readSigned(descriptorBits);
+				minimum = in.readSigned(descriptorBits);
+			}
+
+			// Group references, widths and lengths, each byte aligned
+			long[] references = new long[groups];
+			int[] widths = new int[groups];
+			long[] lengths = new long[groups];
+			for (int g = 0; g < groups; g++) references[g] = referenceBits > 0 ? in.read(referenceBits) : 0;
+			in.align();
+			for (int g = 0; g < groups; g++) widths[g] = widthReference + (widthBits > 0 ? (int)in.read(widthBits) : 0);
+			in.align();
+			for (int g = 0; g < groups; g++) lengths[g] = lengthReference + (lengthBits > 0 ? in.read(lengthBits) : 0) * lengthIncrement;
+			in.align();
+			if (groups > 0) lengths[groups - 1] = lastLength;
+
+			// The groups themselves
+			boolean[] missing = missingManagement > 0 ? new boolean[numValues] : null;
+			int n = 0;
+			for (int g = 0; g < groups; g++) {
+				if (n + lengths[g] > numValues) throw new IOException("GRIB groups overrun the data");
+				int width = widths[g];
+				long missingCode = (1L << (width > 0 ? width : referenceBits)) - 1;
+				for (long k = 0; k < lengths[g]; k++, n++) {
+					if (width > 0) {
+						long x = in.read(width);
+						if (missing != null && x == missingCode) {
+							missing[n] = true;
+						} else {
+							packed[n] = references[g] + x;
+						}
+					} else if (missing != null && references[g] == missingCode) {
+						missing[n] = true;
+					} else {
+						packed[n] = references[g];
+					}
+				}
+			}
+			if (n != numValues) throw new IOException("GRIB groups hold " + n + " values, expected " + numValues);
+
+			// Undo the spatial differencing, over the values which aren't missing
+			if (order > 0) {
+				long previous = 0, beforePrevious = 0;
+				int count = 0;
+				for (int i = 0; i < numValues; i++) {
+					if (missing != null && missing[i]) continue;
+					long value;
+					if (count == 0) {
+						value = first;
+					} else if (count == 1 && order == 2) {
+						value = second;
+					} else if (order == 1) {
+						value = packed[i] + minimum + previous;
+					} else {
+						value = packed[i] + minimum + 2 * previous - beforePrevious;
+					}
+					packed[i] = value;
+					beforePrevious = previous;
+					previous = value;
+					count++;
+				}
+			}
+
+			boolean any = false;
+			if (missing != null) for (boolean m : missing) any |= m;
+			return any ? missing : null;
+		}
+
+		//
+		// Put the values latitude major, longitude minor, whatever the scan mode
+		//
+		float[] reorder(float[] values) {
+			boolean columns = (scanMode & 0x20) != 0;		// Adjacent points in j are consecutive
+			boolean alternate = (scanMode & 0x10) != 0;		// Every other row reversed
+			if (!columns && !alternate) return values;
+
+			float[] ordered = new float[values.length];
+			int rows = columns ? ni : nj, length = columns ? nj : ni;
+			for (int r = 0; r < rows; r++) {
+				boolean reversed = alternate && (r & 1) == 1;
+				for (int k = 0; k < length; k++) {
+					float value = values[r * length + (reversed ? length - 1 - k : k)];
+					if (columns) {
+						ordered[k * ni + r] = value;
+					} else {
+						ordered[r * ni + k] = value;
+					}
+				}
+			}
+			return ordered;
+		}
+	}
+
+	//
+	// Reads bits, most significant first
+	//
+	static class BitReader {
+		byte[] buf;
+		long position;	// In bits
+		long end;
+
+		BitReader(byte[] buf, int offset, int length) {
+			this.buf = buf;
+			this.position = 8L * offset;
+			this.end = 8L * (offset + length);
+		}
+
+		long read(int bits) {
+			if (position + bits > end) throw new IndexOutOfBoundsException("Read past the end of the data");
+			long value = 0;
+			while (bits > 0) {
+				int b = buf[(int)(position >>> 3)] & 0xFF;
+				int available = 8 - (int)(position & 7);
+				int take = Math.min(available, bits);
+				value = (value << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+				bits -= take;
+				position += take;
+			}
+			return value;
+		}
+
+		// Sign bit, then magnitude
+		long readSigned(int bits) {
+			long sign = read(1);
+			long magnitude = read(bits - 1);
+			return sign != 0 ? -magnitude : magnitude;
+		}
+
+		void align() {
+			position = (position + 7) & ~7L;
+		}
+	}
+
+	InputStream in;
+	ArrayDeque<Field> pending = new ArrayDeque<Field>();
+
+	//
+	// Constructor
+	//
+	public Grib2Reader(InputStream in) {
+		this.in = in;
+	}
+
+	//
+	// The next field, or null at the end of the stream
+	//
+	public Field next() throws IOException {
+		while (pending.isEmpty()) {
+			byte[] message = readMessage();
+			if (message == null) return null;
+			parse(message);
+		}
+		return pending.poll();
+	}
+
+	//
+	// Read the next whole message, skipping anything before "GRIB"
+	//
+	byte[] readMessage() throws IOException {
+		int matched = 0;
+		while (matched < 4) {
+			int b = in.read();
+			if (b < 0) {
+				if (matched == 0) return null;
+				throw new EOFException("Truncated GRIB message");
+			}
+			matched = b == "GRIB".charAt(matched) ? matched + 1 : (b == 'G' ? 1 : 0);
+		}
+
+		byte[] indicator = new byte[16];
+		indicator[0] = 'G';
+		indicator[1] = 'R';
+		indicator[2] = 'I';
+		indicator[3] = 'B';
+		readFully(indicator, 4, 12);
+		if (indicator[7] != 2) throw new IOException("GRIB edition " + indicator[7] + " is not supported");
+		long length = uint(indicator, 8, 8);
+		if (length < 16 + 4 || length > Integer.MAX_VALUE) throw new IOException("Bad GRIB message length " + length);
+
+		byte[] message = new byte[(int)length];
+		System.arraycopy(indicator, 0, message, 0, 16);
+		readFully(message, 16, message.length - 16);
+		if (message[message.length - 4] != '7' || message[message.length - 1] != '7') {
+			throw new IOException("GRIB message doesn't end in 7777");
+		}
+		return message;
+	}
+
+	void readFully(byte[] buf, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read = in.read(buf, offset, length);
+			if (read < 0) throw new EOFException("Truncated GRIB message");
+			offset += read;
+			length -= read;
+		}
+	}
+
+	//
+	// Split a message into fields. Sections 2 to 7 may repeat, with
+	// later fields reusing whatever sections they don't redefine.
+	//
+	void parse(byte[] message) throws IOException {
+		Field current = new Field();
+		current.message = message;
+		current.discipline = message[6] & 0xFF;
+		int lastBitmap = -1;
+
+		int offset = 16;
+		while (offset < message.length - 4) {
+			long sectionLength = uint(message, offset, 4);
+			int section = message[offset + 4] & 0xFF;
+			if (sectionLength < 5 || offset + sectionLength > message.length - 4) {
+				throw new IOException("Bad GRIB section " + section + " length " + sectionLength);
+			}
+
+			switch (section) {
+			case 1:
+				current.referenceTime = referenceTime(message, offset);
+				break;
+			case 3:
+				parseGrid(current, message, offset);
+				break;
+			case 4:
+				parseProduct(current, message, offset);
+				break;
+			case 5:
+				current.numValues = (int)uint(message, offset + 5, 4);
+				current.dataTemplate = (int)uint(message, offset + 9, 2);
+				current.representation = offset;
+				break;
+			case 6:
+				int indicator = message[offset + 5] & 0xFF;
+				if (indicator == 0) {
+					lastBitmap = offset + 6;
+					current.bitmap = lastBitmap;
+				} else if (indicator == 254) {
+					current.bitmap = lastBitmap;
+				} else if (indicator == 255) {
+					current.bitmap = -1;
+				} else {
+					throw new IOException("Predefined GRIB bitmaps are not supported");
+				}
+				break;
+			case 7:
+				current.data = offset + 5;
+				current.dataLength = (int)sectionLength - 5;
+				pending.add(current);
+
+				// The next field starts as a copy of this one
+				Field next = new Field();
+				next.message = message;
+				next.discipline = current.discipline;
+				next.referenceTime = current.referenceTime;
+				next.validTime = current.validTime;
+				next.ni = current.ni;
+				next.nj = current.nj;
+				next.scanMode = current.scanMode;
+				next.lats = current.lats;
+				next.lons = current.lons;
+				next.numPoints = current.numPoints;
+				current = next;
+				break;
+			default:
+				// Local use (2), or something we don't need
+				break;
+			}
+			offset += (int)sectionLength;
+		}
+	}
+
+	//
+	// Section 1 reference time, as a POSIX timestamp
+	//
+	static long referenceTime(byte[] m, int s) {
+		Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		c.clear();
+		c.set((int)uint(m, s + 12, 2), (m[s + 14] & 0xFF) - 1, m[s + 15] & 0xFF,
+				m[s + 16] & 0xFF, m[s + 17] & 0xFF, m[s + 18] & 0xFF);
+		return c.getTimeInMillis() / 1000;
+	}
+
+	//
+	// Section 3, regular latitude/longitude grid (template 3.0)
+	//
+	static void parseGrid(Field f, byte[] m, int s) throws IOException {
+		int template = (int)uint(m, s + 12, 2);
+		if (template != 0) throw new IOException("Unsupported GRIB grid template 3." + template);
+
+		f.numPoints = (int)uint(m, s + 6, 4);
+		f.ni = (int)uint(m, s + 30, 4);
+		f.nj = (int)uint(m, s + 34, 4);
+		if ((long)f.ni * f.nj != f.numPoints) throw new IOException("Irregular GRIB grids are not supported");
+
+		// Degrees, unless a basic angle and subdivisions are given
+		long basicAngle = uint(m, s + 38, 4);
+		long subdivisions = uint(m, s + 42, 4);
+		double unit = 1e-6;
+		if (basicAngle != 0 && basicAngle != 0xFFFFFFFFL && subdivisions != 0 && subdivisions != 0xFFFFFFFFL) {
+			unit = (double)basicAngle / subdivisions;
+		}
+
+		double la1 = signed(m, s + 46, 4) * unit;
+		double lo1 = signed(m, s + 50, 4) * unit;
+		double di = uint(m, s + 63, 4) * unit;
+		double dj = uint(m, s + 67, 4) * unit;
+		f.scanMode = m[s + 71] & 0xFF;
+
+		f.lons = new double[f.ni];
+		f.lats = new double[f.nj];
+		double lonStep = (f.scanMode & 0x80) != 0 ? -di : di;
+		double latStep = (f.scanMode & 0x40) != 0 ? dj : -dj;
+		for (int i = 0; i < f.ni; i++) f.lons[i] = round(lo1 + i * lonStep);
+		for (int j = 0; j < f.nj; j++) f.lats[j] = round(la1 + j * latStep);
+	}
+
+	//
+	// Section 4. Templates 4.0, 4.1 and 4.8 agree up to the first fixed surface.
+	//
+	static void parseProduct(Field f, byte[] m, int s) throws IOException {
+		int template = (int)uint(m, s + 7, 2);
+		if (template != 0 && template != 1 && template != 8) {
+			throw new IOException("Unsupported GRIB product template 4." + template);
+		}
+
+		f.category = m[s + 9] & 0xFF;
+		f.number = m[s + 10] & 0xFF;
+		int unit = m[s + 17] & 0xFF;
+		long forecast = signed(m, s + 18, 4);
+		f.validTime = f.referenceTime + forecast * timeUnit(unit);
+
+		f.surfaceType = m[s + 22] & 0xFF;
+		int scale = signed(m, s + 23, 1);
+		long value = uint(m, s + 24, 4);
+		f.surfaceValue = value * Math.pow(10, -scale);
+	}
+
+	//
+	// Seconds in a GRIB time range unit (code table 4.4)
+	//
+	static long timeUnit(int unit) throws IOException {
+		switch (unit) {
+		case 0: return 60;
+		case 1: return 3600;
+		case 2: return 86400;
+		case 10: return 3 * 3600;
+		case 11: return 6 * 3600;
+		case 12: return 12 * 3600;
+		case 13: return 1;
+		default: throw new IOException("Unsupported GRIB time unit " + unit);
+		}
+	}
+
+	// Coordinates to a micro-degree, so 0.25 degree steps come out exact
+	static double round(double degrees) {
+		return Math.round(degrees * 1e6) / 1e6;
+	}
+
+	//
+	// Big endian unsigned integer
+	//
+	static long uint(byte[] m, int offset, int bytes) {
+		long value = 0;
+		for (int i = 0; i < bytes; i++) value = (value << 8) | (m[offset + i] & 0xFF);
+		return value;
+	}
+
+	//
+	// Big endian sign and magnitude integer, as GRIB uses
+	//
+	static int signed(byte[] m, int offset, int bytes) {
+		long value = uint(m, offset, bytes);
+		long sign = 1L << (8 * bytes - 1);
+		return (int)((value & sign) != 0 ? -(value & (sign - 1)) : value);
+	}
+}
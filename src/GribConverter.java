@@ -0,0 +1,260 @@
+////////////////////////////////////////////////////////////
+// GribConverter.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Converts GRIB2 files downloaded by get_wind_data.py
+// (get_wind_data.py --grib) straight into binary wind
+// grids, replacing the slow GDAL/Python parsing step.
+//
+// Usage: java GribConverter [-dat] [-delete] [-threads N]
+//                           <gfs directory> [GRIB files]
+//
+// With no GRIB files given, every *.grib2 file (or GFS
+// pgrb2 file) in the gfs directory is converted. Files
+// are converted in parallel, one forecast hour per file,
+// and the grids (gfs_*.bin) are written to the gfs
+// directory. -dat also writes the CUSF text format, which
+// the external pred.exe backend needs, and -delete removes
+// each GRIB file once it has been converted.
+//
+// Only HGT, UGRD and VGRD on pressure levels are used, and
+// only levels with all three are kept.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class GribConverter {
+
+	//
+	// Entry point
+	//
+	public static void main(String[] args) throws Exception {
+		boolean text = false, delete = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String directory = null;
+		ArrayList<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-dat")) {
+				text = true;
+			} else if (args[i].equals("-delete")) {
+				delete = true;
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (directory == null) {
+				directory = args[i];
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		if (directory == null) {
+			System.err.println("Usage: java GribConverter [-dat] [-delete] [-threads N] <gfs directory> [GRIB files]");
+			System.exit(1);
+		}
+
+		File output = new File(directory);
+		if (files.isEmpty()) files.addAll(Arrays.asList(listGribFiles(output)));
+
+		long start = System.currentTimeMillis();
+		int failed = convertFiles(files, output, text, delete, threads);
+		System.out.println("Converted " + (files.size() - failed) + " GRIB files in " + (System.currentTimeMillis() - start) + " ms.");
+		if (failed > 0) {
+			System.err.println(failed + " GRIB files could not be converted.");
+			System.exit(1);
+		}
+	}
+
+	//
+	// GRIB2 files in a directory
+	//
+	static File[] listGribFiles(File directory) throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".grib2") || name.endsWith(".grb2") || name.contains(".pgrb2");
+			}
+		});
+		if (files == null) throw new IOException("Could not read directory " + directory);
+		Arrays.sort(files);
+		return files;
+	}
+
+	//
+	// Convert files in parallel, returning the number which failed
+	//
+	static int convertFiles(List<File> files, final File output, final boolean text, final boolean delete, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+		for (final File file : files) {
+			results.add(pool.submit(new Callable<String>() {
+				public String call() throws Exception {
+					long start = System.currentTimeMillis();
+					List<File> written = convert(file, output, text);
+					if (delete && !file.delete()) System.err.println("Could not delete " + file.getName());
+					StringBuilder names = new StringBuilder();
+					for (File f : written) names.append(names.length() > 0 ? ", " : "").append(f.getName());
+					return file.getName() + " -> " + names + " (" + (System.currentTimeMillis() - start) + " ms)";
+				}
+			}));
+		}
+		pool.shutdown();
+
+		int failed = 0;
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				System.out.println(results.get(i).get());
+			} catch (ExecutionException e) {
+				System.err.println(files.get(i).getName() + ": " + e.getCause());
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	//
+	// Convert one GRIB file, writing a grid for each valid time in it
+	//
+	public static List<File> convert(File source, File directory, boolean text) throws IOException {
+		ArrayList<File> written = new ArrayList<File>();
+		for (WindGrid grid : read(source)) {
+			String name = String.format(Locale.US, "gfs_%d_%.1f_%.1f_%.1f_%.1f",
+					grid.validTime, grid.latCentre, grid.lonCentre, grid.latRadius, grid.lonRadius);
+
+			// Text first, so the binary never appears without it
+			if (text) {
+				File dat = new File(directory, name + ".dat");
+				File temp = new File(dat.getPath() + ".tmp");
+				grid.writeText(temp);
+				replace(temp, dat);
+				written.add(dat);
+			}
+			File binary = new File(directory, name + WindGrid.BINARY_EXTENSION);
+			File temp = new File(binary.getPath() + ".tmp");
+			grid.write(temp);
+			replace(temp, binary);
+			written.add(binary);
+		}
+		if (written.isEmpty()) throw new IOException("No complete wind data in " + source.getName());
+		return written;
+	}
+
+	//
+	// Rename over the destination, so nothing ever sees a half written file
+	//
+	static void replace(File temp, File destination) throws IOException {
+		if (destination.exists() && !destination.delete()) {
+			temp.delete();
+			throw new IOException("Could not replace " + destination.getName());
+		}
+		if (!temp.renameTo(destination)) {
+			throw new IOException("Could not rename " + temp.getName());
+		}
+	}
+
+	//
+	// Stream through a GRIB file, collecting HGT, UGRD and VGRD by valid time and level
+	//
+	static List<WindGrid> read(File source) throws IOException {
+		// valid time -> pressure (hPa) -> {HGT, UGRD, VGRD}
+		TreeMap<Long, TreeMap<Double, float[][]>> times = new TreeMap<Long, TreeMap<Double, float[][]>>();
+		Grib2Reader.Field shape = null;
+
+		InputStream in = new BufferedInputStream(new FileInputStream(source), 1 << 16);
+		try {
+			Grib2Reader reader = new Grib2Reader(in);
+			Grib2Reader.Field field;
+			while ((field = reader.next()) != null) {
+				int component = component(field);
+				if (component < 0 || field.surfaceType != Grib2Reader.SURFACE_ISOBARIC) continue;
+
+				// Every field has to be on the same grid
+				if (shape == null) {
+					shape = field;
+				} else if (field.ni != shape.ni || field.nj != shape.nj
+						|| field.lats[0] != shape.lats[0] || field.lons[0] != shape.lons[0]) {
+					throw new IOException("Fields on different grids in " + source.getName());
+				}
+
+				TreeMap<Double, float[][]> levels = times.get(field.validTime);
+				if (levels == null) {
+					levels = new TreeMap<Double, float[][]>(Collections.reverseOrder());
+					times.put(field.validTime, levels);
+				}
+				double pressure = field.surfaceValue / 100.0;
+				float[][] level = levels.get(pressure);
+				if (level == null) {
+					level = new float[3][];
+					levels.put(pressure, level);
+				}
+				level[component] = field.values();
+			}
+		} finally {
+			in.close();
+		}
+
+		ArrayList<WindGrid> grids = new ArrayList<WindGrid>();
+		for (Map.Entry<Long, TreeMap<Double, float[][]>> time : times.entrySet()) {
+			WindGrid grid = build(time.getKey(), time.getValue(), shape);
+			if (grid != null) grids.add(grid);
+		}
+		return grids;
+	}
+
+	//
+	// 0 = HGT, 1 = UGRD, 2 = VGRD, -1 for anything else
+	//
+	static int component(Grib2Reader.Field field) {
+		if (field.is(0, Grib2Reader.CATEGORY_MASS, Grib2Reader.NUMBER_HGT)) return 0;
+		if (field.is(0, Grib2Reader.CATEGORY_MOMENTUM, Grib2Reader.NUMBER_UGRD)) return 1;
+		if (field.is(0, Grib2Reader.CATEGORY_MOMENTUM, Grib2Reader.NUMBER_VGRD)) return 2;
+		return -1;
+	}
+
+	//
+	// Assemble the levels for one valid time into a grid, highest pressure first,
+	// with the same centre and radius as get_wind_data.py would give it
+	//
+	static WindGrid build(long validTime, TreeMap<Double, float[][]> levels, Grib2Reader.Field shape) {
+		ArrayList<Double> pressures = new ArrayList<Double>();
+		for (Map.Entry<Double, float[][]> level : levels.entrySet()) {
+			float[][] c = level.getValue();
+			if (c[0] != null && c[1] != null && c[2] != null) pressures.add(level.getKey());
+		}
+		if (pressures.isEmpty()) return null;
+
+		WindGrid grid = new WindGrid();
+		grid.validTime = validTime;
+		grid.lats = shape.lats;
+		grid.lons = shape.lons;
+		grid.numLats = shape.nj;
+		grid.numLons = shape.ni;
+		grid.numPressures = pressures.size();
+		grid.pressures = new double[grid.numPressures];
+		grid.latCentre = grid.lats[grid.numLats / 2];
+		grid.lonCentre = grid.lons[grid.numLons / 2];
+		if (grid.lonCentre > 180) grid.lonCentre -= 360;	// GRIB longitudes run 0-360
+		grid.latRadius = Math.abs(grid.lats[grid.numLats - 1] - grid.lats[0]) / 2.0;
+		grid.lonRadius = Math.abs(grid.lons[grid.numLons - 1] - grid.lons[0]) / 2.0;
+
+		int cells = grid.numLats * grid.numLons;
+		float[] hgt = new float[grid.numPressures * cells];
+		float[] u = new float[hgt.length];
+		float[] v = new float[hgt.length];
+		for (int p = 0; p < grid.numPressures; p++) {
+			grid.pressures[p] = pressures.get(p);
+			float[][] c = levels.get(pressures.get(p));
+			System.arraycopy(c[0], 0, hgt, p * cells, cells);
+			System.arraycopy(c[1], 0, u, p * cells, cells);
+			System.arraycopy(c[2], 0, v, p * cells, cells);
+		}
+		grid.hgt = FloatBuffer.wrap(hgt);
+		grid.u = FloatBuffer.wrap(u);
+		grid.v = FloatBuffer.wrap(v);
+		return grid;
+	}
+}
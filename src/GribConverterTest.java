@@ -0,0 +1,215 @@
+////////////////////////////////////////////////////////////
+// GribConverterTest.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Offline check of Grib2Reader and GribConverter against
+// the sample GRIB2 file in test/grib, which was written by
+// an independent encoder (make_sample.py) along with the
+// values it holds (sample.txt). The sample covers simple
+// packing (5.0), complex packing with first and second
+// order spatial differencing (5.3), a bitmap, and a GFS
+// style grid scanned north to south.
+//
+// Checks that:
+//  - every field decodes to the values in sample.txt
+//  - the converted grids hold the same values
+//  - the converted .bin and .dat files match the ones in
+//    test/grib/expected byte for byte
+//
+// Usage (from the bin directory):
+//   java GribConverterTest [fixture directory]
+// The fixture directory defaults to ../test/grib. Exits
+// with status 1 if any check fails.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GribConverterTest {
+
+	//
+	// A field as described in sample.txt
+	//
+	static class Expected {
+		int discipline, category, number, template;
+		double level;
+		long validTime;
+		double[] lats, lons, values;
+	}
+
+	static int checks = 0;
+	static int failures = 0;
+
+	//
+	// Entry point
+	//
+	public static void main(String[] args) throws Exception {
+		File fixtures = new File(args.length > 0 ? args[0] : "../test/grib");
+		File sample = new File(fixtures, "sample.grib2");
+		List<Expected> expected = readExpected(new File(fixtures, "sample.txt"));
+
+		checkFields(sample, expected);
+
+		File output = Files.createTempDirectory("gribtest").toFile();
+		try {
+			checkConversion(sample, output, new File(fixtures, "expected"), expected);
+		} finally {
+			for (File f : output.listFiles()) {
+				if (!f.delete()) f.deleteOnExit();
+			}
+			if (!output.delete()) output.deleteOnExit();
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " of " + checks + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All " + checks + " checks passed.");
+	}
+
+	//
+	// Decode every field, and compare it with what was encoded
+	//
+	static void checkFields(File sample, List<Expected> expected) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(sample));
+		try {
+			Grib2Reader reader = new Grib2Reader(in);
+			Grib2Reader.Field field;
+			int n = 0;
+			while ((field = reader.next()) != null) {
+				if (!check(n < expected.size(), "Unexpected field " + n)) break;
+				Expected e = expected.get(n);
+				String name = "Field " + n + " (" + e.category + "." + e.number + " at " + e.level + " Pa)";
+
+				check(field.is(e.discipline, e.category, e.number), name + ": parameter " + field.discipline + "." + field.category + "." + field.number);
+				check(field.surfaceType == Grib2Reader.SURFACE_ISOBARIC && field.surfaceValue == e.level, name + ": level " + field.surfaceValue);
+				check(field.dataTemplate == e.template, name + ": data template 5." + field.dataTemplate);
+				check(field.validTime == e.validTime, name + ": valid time " + field.validTime);
+				check(close(field.lats, e.lats, 1e-6), name + ": latitudes " + Arrays.toString(field.lats));
+				check(close(field.lons, e.lons, 1e-6), name + ": longitudes " + Arrays.toString(field.lons));
+
+				float[] values = field.values();
+				double[] decoded = new double[values.length];
+				for (int i = 0; i < values.length; i++) decoded[i] = values[i];
+				check(close(decoded, e.values, 1e-5), name + ": values " + Arrays.toString(values));
+				n++;
+			}
+			check(n == expected.size(), "Decoded " + n + " fields, expected " + expected.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	//
+	// Convert the sample, and compare the grids and files with what's expected
+	//
+	static void checkConversion(File sample, File output, File expectedDir, List<Expected> expected) throws IOException {
+		List<File> written = GribConverter.convert(sample, output, true);
+		String[] names = expectedDir.list();
+		if (!check(names != null, "No expected output in " + expectedDir)) return;
+		check(written.size() == names.length, "Wrote " + written.size() + " files, expected " + names.length);
+
+		for (File f : written) {
+			File reference = new File(expectedDir, f.getName());
+			if (!check(reference.exists(), "Unexpected output " + f.getName())) continue;
+			check(Arrays.equals(Files.readAllBytes(f.toPath()), Files.readAllBytes(reference.toPath())),
+					f.getName() + " differs from " + reference);
+			if (!f.getName().endsWith(WindGrid.BINARY_EXTENSION)) continue;
+
+			// Each level of the grid should hold the fields encoded for it
+			WindGrid grid = WindGrid.open(f);
+			int cells = grid.numLats * grid.numLons;
+			for (int p = 0; p < grid.numPressures; p++) {
+				double level = grid.pressures[p] * 100;
+				String name = f.getName() + " at " + grid.pressures[p] + " hPa";
+				check(compareLevel(grid.hgt, p * cells, find(expected, Grib2Reader.CATEGORY_MASS, Grib2Reader.NUMBER_HGT, level)), name + ": HGT");
+				check(compareLevel(grid.u, p * cells, find(expected, Grib2Reader.CATEGORY_MOMENTUM, Grib2Reader.NUMBER_UGRD, level)), name + ": UGRD");
+				check(compareLevel(grid.v, p * cells, find(expected, Grib2Reader.CATEGORY_MOMENTUM, Grib2Reader.NUMBER_VGRD, level)), name + ": VGRD");
+			}
+		}
+	}
+
+	static boolean compareLevel(FloatBuffer data, int offset, Expected e) {
+		if (e == null) return false;
+		double[] values = new double[e.values.length];
+		for (int i = 0; i < values.length; i++) values[i] = data.get(offset + i);
+		return close(values, e.values, 1e-5);
+	}
+
+	static Expected find(List<Expected> expected, int category, int number, double level) {
+		for (Expected e : expected) {
+			if (e.discipline == 0 && e.category == category && e.number == number && e.level == level) return e;
+		}
+		return null;
+	}
+
+	//
+	// Whether two arrays match, to a relative tolerance. NaN matches NaN.
+	//
+	static boolean close(double[] a, double[] b, double tolerance) {
+		if (a.length != b.length) return false;
+		for (int i = 0; i < a.length; i++) {
+			if (Double.isNaN(a[i]) || Double.isNaN(b[i])) {
+				if (Double.isNaN(a[i]) != Double.isNaN(b[i])) return false;
+			} else if (Math.abs(a[i] - b[i]) > tolerance * Math.max(1, Math.abs(b[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean check(boolean ok, String message) {
+		checks++;
+		if (!ok) {
+			failures++;
+			System.out.println("FAILED: " + message);
+		}
+		return ok;
+	}
+
+	//
+	// Read sample.txt
+	//
+	static List<Expected> readExpected(File file) throws IOException {
+		ArrayList<Expected> fields = new ArrayList<Expected>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			Expected e = null;
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.trim().split("\\s+");
+				if (parts[0].equals("field")) {
+					e = new Expected();
+					e.discipline = Integer.parseInt(parts[1]);
+					e.category = Integer.parseInt(parts[2]);
+					e.number = Integer.parseInt(parts[3]);
+					e.level = Double.parseDouble(parts[4]);
+					e.template = Integer.parseInt(parts[5]);
+					e.validTime = Long.parseLong(parts[6]);
+					fields.add(e);
+				} else if (parts[0].equals("lats")) {
+					e.lats = numbers(parts);
+				} else if (parts[0].equals("lons")) {
+					e.lons = numbers(parts);
+				} else if (parts[0].equals("values")) {
+					e.values = numbers(parts);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return fields;
+	}
+
+	static double[] numbers(String[] parts) {
+		double[] values = new double[parts.length - 1];
+		for (int i = 1; i < parts.length; i++) values[i - 1] = Double.parseDouble(parts[i]);
+		return values;
+	}
+}
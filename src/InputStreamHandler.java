@@ -11,6 +11,7 @@
 ////////////////////////////////////////////////////////////
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 class InputStreamHandler extends Thread {
 
@@ -24,15 +25,17 @@ class InputStreamHandler extends Thread {
 	InputStreamHandler(StringBuffer captureBuffer, InputStream stream) {
 		m_stream = stream;
 		m_captureBuffer = captureBuffer;
+		setDaemon(true);
 		start();
 	}
 
-	// Stream the data
+	// Stream the data, a block at a time
 	public void run() {
+		byte[] block = new byte[4096];
 		try {
-			int nextChar;
-			while((nextChar = m_stream.read()) != -1) {
-				m_captureBuffer.append((char)nextChar);
+			int n;
+			while((n = m_stream.read(block)) != -1) {
+				m_captureBuffer.append(new String(block, 0, n, StandardCharsets.ISO_8859_1));
 			}
 		}
 		catch( IOException ioe ){}
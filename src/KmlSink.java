@@ -0,0 +1,187 @@
+////////////////////////////////////////////////////////////
+// KmlSink.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Headless MapSink which keeps the map in memory and
+// writes it to a KML file on every refresh: a line for
+// each payload and prediction track, and a point for each
+// waypoint. Clears and deletes take effect, and a waypoint
+// which moves is just moved.
+//
+// Each refresh writes a temporary file and renames it over
+// the last one, so the file is always complete - a viewer
+// (e.g. a Google Earth network link) can load it at any
+// time, even after the program has been killed.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+public class KmlSink implements MapSink {
+
+	//
+	// A track as last set up or loaded
+	//
+	static class Track {
+		String description = "";
+		int width = 1, colour;
+		Trajectory points = new Trajectory();
+	}
+
+	File file;
+	SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+	// Current state of the map, and whether it has changed since it was written
+	TreeMap<Integer, Track> tracks = new TreeMap<Integer, Track>();
+	LinkedHashMap<String, double[]> waypoints = new LinkedHashMap<String, double[]>();
+	boolean changed = false;
+
+	//
+	// Constructor. Writes an empty map, so a bad path shows up straight away.
+	//
+	public KmlSink(String file) throws IOException {
+		this.file = new File(file);
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		write();
+	}
+
+	public boolean isAvailable() {
+		return true;
+	}
+
+	public String getName() {
+		return "KML file " + file;
+	}
+
+	public synchronized void setupTrack(int track, String description, int width, int colour) {
+		Track t = track(track);
+		t.description = description;
+		t.width = width;
+		t.colour = colour;
+		changed = true;
+	}
+
+	public synchronized void addTrackPoint(int track, double lat, double lon, double alt) {
+		track(track).points.add(System.currentTimeMillis() / 1000, lat, lon, alt);
+		changed = true;
+	}
+
+	public synchronized void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) {
+		Track t = track(track);
+		t.description = description;
+		t.width = width;
+		t.colour = colour;
+		t.points = new Trajectory(Math.max(16, points.size()));
+		for (int i = 0; i < points.size(); i++) {
+			t.points.add(points.getTime(i), points.getLat(i), points.getLon(i), points.getAlt(i));
+		}
+		changed = true;
+	}
+
+	public synchronized void clearTrack(int track) {
+		track(track).points = new Trajectory();
+		changed = true;
+	}
+
+	public synchronized void addWaypoint(String name, double lat, double lon) {
+		waypoints.put(name, new double[] { lat, lon });
+		changed = true;
+	}
+
+	public synchronized void deleteWaypoint(String name) {
+		if (waypoints.remove(name) != null) changed = true;
+	}
+
+	public synchronized void refresh() throws IOException {
+		if (changed) write();
+	}
+
+	public synchronized void close() {
+		try {
+			if (changed) write();
+		} catch (IOException e) {
+			Log.error("Could not write " + file, e);
+		}
+	}
+
+	Track track(int track) {
+		Track t = tracks.get(track);
+		if (t == null) {
+			t = new Track();
+			tracks.put(track, t);
+		}
+		return t;
+	}
+
+	//
+	// Write the whole map to a temporary file, and put it in place
+	//
+	void write() throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n<Document>\n<name>OziPlotter</name>\n");
+			out.write("<TimeStamp><when>" + timeFormat.format(new Date()) + "</when></TimeStamp>\n");
+
+			for (Map.Entry<Integer, Track> e : tracks.entrySet()) {
+				writeTrack(out, e.getKey(), e.getValue());
+			}
+			for (Map.Entry<String, double[]> e : waypoints.entrySet()) {
+				double[] p = e.getValue();
+				out.write("<Placemark><name>" + escape(e.getKey()) + "</name><Point><coordinates>"
+						+ p[1] + "," + p[0] + ",0</coordinates></Point></Placemark>\n");
+			}
+			out.write("</Document>\n</kml>\n");
+		} finally {
+			out.close();
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		changed = false;
+	}
+
+	//
+	// A track as a line (or a point, while it only has one). KML colours are
+	// aabbggrr, so an OziExplorer BGR colour only needs an alpha channel adding.
+	//
+	void writeTrack(Writer out, int track, Track t) throws IOException {
+		Trajectory points = t.points;
+		if (points.size() == 0) return;
+
+		String colour = String.format("ff%06x", t.colour & 0xffffff);
+		out.write("<Placemark id=\"track" + track + "\"><name>" + escape(t.description) + "</name>");
+		out.write("<TimeSpan><begin>" + timeFormat.format(new Date(points.getTime(0) * 1000)) + "</begin><end>"
+				+ timeFormat.format(new Date(points.getTime(points.size() - 1) * 1000)) + "</end></TimeSpan>");
+		out.write("<Style><LineStyle><color>" + colour + "</color><width>" + t.width + "</width></LineStyle>"
+				+ "<IconStyle><color>" + colour + "</color><scale>0.5</scale></IconStyle></Style>");
+		if (points.size() == 1) {
+			out.write("<Point><altitudeMode>absolute</altitudeMode><coordinates>"
+					+ points.getLon(0) + "," + points.getLat(0) + "," + points.getAlt(0) + "</coordinates></Point></Placemark>\n");
+			return;
+		}
+		out.write("<LineString><altitudeMode>absolute</altitudeMode><coordinates>\n");
+		for (int i = 0; i < points.size(); i++) {
+			out.write(points.getLon(i) + "," + points.getLat(i) + "," + points.getAlt(i) + "\n");
+		}
+		out.write("</coordinates></LineString></Placemark>\n");
+	}
+
+	static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
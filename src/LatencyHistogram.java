@@ -0,0 +1,115 @@
+////////////////////////////////////////////////////////////
+// LatencyHistogram.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Fixed size, log-linear histogram of durations (ns). Each
+// power of two is split into 8 buckets, so any percentile
+// is within about 12% of the true value, from 1 ns up to
+// centuries, in under 4 KB.
+//
+// Recording is lock free and allocation free, so it can be
+// used from the packet path and any thread at once.
+//
+////////////////////////////////////////////////////////////
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	final String name;
+	final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	final AtomicLong count = new AtomicLong();
+	final AtomicLong total = new AtomicLong();
+	final AtomicLong max = new AtomicLong();
+
+	//
+	// Constructor
+	//
+	LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	//
+	// Record a duration (ns)
+	//
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+		}
+	}
+
+	//
+	// Record the time since start (a System.nanoTime() value)
+	//
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) return (int)value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Largest value which falls in a bucket
+	static long bucketTop(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long shift = exponent - SUB_BUCKET_BITS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double)total.get() / n;
+	}
+
+	//
+	// Value (ns) at or below which the given fraction of durations fall, e.g. 0.99.
+	// Reports the top of the bucket it falls in, capped at the largest recorded value.
+	//
+	public long getPercentile(double fraction) {
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(bucketTop(i), max.get());
+		}
+		return max.get();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	//
+	// One line summary, in ms
+	//
+	public String summary() {
+		return String.format("%-28s %9d  mean %9.3f  p50 %9.3f  p90 %9.3f  p99 %9.3f  max %9.3f ms",
+				name, getCount(), getMean() / 1e6, getPercentile(0.5) / 1e6, getPercentile(0.9) / 1e6,
+				getPercentile(0.99) / 1e6, getMax() / 1e6);
+	}
+}
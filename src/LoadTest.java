@@ -0,0 +1,323 @@
+////////////////////////////////////////////////////////////
+// LoadTest.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// End-to-end load test. Runs OziPlotterUDP headless (on an
+// in-memory map, with the in-process predictor and a
+// synthetic wind field), and drives it with a
+// TelemetryGenerator over the loopback interface, so no
+// network, OziExplorer or wind download is needed.
+//
+// Measures, from the send of each TELEMETRY packet:
+//  - latency until its point is plotted on the payload track
+//  - latency until a full prediction (to landing) starting
+//    from it is plotted, and how many each payload got
+//  - the fraction of packets which were never plotted
+//  - bytes allocated by the receive thread, per packet
+// followed by the per-stage Metrics histograms.
+//
+// Usage (from the bin directory):
+//   java -cp OziAPI.jar:. LoadTest [options]
+//   -payloads N      payloads to fly (1)
+//   -rate R          TELEMETRY packets per second, per payload (1)
+//   -cars N          chase cars sending WAYPOINT packets (0)
+//   -duration S      seconds to run for (60)
+//   -speedup K       flight seconds per real second (10)
+//   -profile P       flight or float (flight)
+//   -port P          UDP port (18942)
+//   -verbose         show OziPlotter's console output
+// Anything else in ../OziPlotter.conf (e.g. PREDFREQ) applies.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.TreeMap;
+
+public class LoadTest {
+
+	//
+	// In-memory map which timestamps plotted points and predictions against the
+	// send times of the packets behind them
+	//
+	static class LatencySink extends MemorySink {
+		TelemetryGenerator generator;
+		volatile boolean available = true;
+
+		// Latencies (ns)
+		long[] pointLatency = new long[4096];
+		int points = 0;
+		long[] predictionLatency = new long[256];
+		int predictions = 0;
+		long unmatched = 0;
+
+		// Full predictions plotted, by track
+		HashMap<Integer, Integer> predictionsByTrack = new HashMap<Integer, Integer>();
+
+		LatencySink(TelemetryGenerator generator) {
+			super(10000);
+			this.generator = generator;
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+
+		public synchronized void addTrackPoint(int track, double lat, double lon, double alt) {
+			super.addTrackPoint(track, lat, lon, alt);
+			Long sent = generator.sendTimes.get(TelemetryGenerator.key(lat, lon));
+			if (sent == null) {
+				unmatched++;
+				return;
+			}
+			if (points == pointLatency.length) pointLatency = Arrays.copyOf(pointLatency, points * 2);
+			pointLatency[points++] = System.nanoTime() - sent;
+		}
+
+		public synchronized void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) {
+			super.loadTrack(track, description, width, colour, points, file);
+			// Only full predictions - the ascent-only plot has its own description
+			if (points.size() == 0 || !description.equals("OziPlotter prediction track")) return;
+
+			// Predictions start from the position they were run for
+			Long sent = generator.sendTimes.get(TelemetryGenerator.key(points.getLat(0), points.getLon(0)));
+			if (sent == null) return;
+			if (predictions == predictionLatency.length) predictionLatency = Arrays.copyOf(predictionLatency, predictions * 2);
+			predictionLatency[predictions++] = System.nanoTime() - sent;
+			Integer count = predictionsByTrack.get(track);
+			predictionsByTrack.put(track, count == null ? 1 : count + 1);
+		}
+
+		//
+		// Full predictions plotted on a payload's prediction tracks
+		//
+		synchronized int predictionsFor(PayloadTracker payload) {
+			int count = 0;
+			for (int t = payload.track + 1; t <= payload.track + OziPlotterUDP.TRACKS_PER_PREDICTOR; t++) {
+				Integer n = predictionsByTrack.get(t);
+				if (n != null) count += n;
+			}
+			return count;
+		}
+	}
+
+	//
+	// Entry point
+	//
+	public static void main(String[] args) throws Exception {
+		int payloads = 1, cars = 0, duration = 60, port = 18942;
+		double rate = 1.0, speedup = 10.0;
+		String profile = "flight";
+		boolean verbose = false;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-verbose")) {
+				verbose = true;
+				continue;
+			}
+			if (i + 1 >= args.length) usage("Missing value for " + arg);
+			String value = args[++i];
+			if (arg.equals("-payloads")) payloads = Integer.parseInt(value);
+			else if (arg.equals("-rate")) rate = Double.parseDouble(value);
+			else if (arg.equals("-cars")) cars = Integer.parseInt(value);
+			else if (arg.equals("-duration")) duration = Integer.parseInt(value);
+			else if (arg.equals("-speedup")) speedup = Double.parseDouble(value);
+			else if (arg.equals("-profile")) profile = value;
+			else if (arg.equals("-port")) port = Integer.parseInt(value);
+			else usage("Unknown option " + arg);
+		}
+
+		PrintStream out = System.out;
+		if (!verbose) System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		// Synthetic wind, so predictions run without any downloaded data
+		File windDir = new File(System.getProperty("java.io.tmpdir"), "oziplotter-loadtest-gfs");
+		writeWind(windDir, 10.0);
+
+		// The usual config, if there is one, with the test settings on top
+		Properties config = defaults();
+		File configFile = new File("../OziPlotter.conf");
+		if (configFile.exists()) {
+			FileInputStream in = new FileInputStream(configFile);
+			try {
+				config.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		config.setProperty("PORT", String.valueOf(port));
+		config.setProperty("SOURCES", "udp:" + port);
+		config.setProperty("MAPSINK", "memory");
+		config.setProperty("PREDBACKEND", "java");
+		config.setProperty("GFSDIR", windDir.getPath());
+		config.setProperty("FLIGHTLOG", "");
+		config.setProperty("LOGFILE", "");
+		config.setProperty("TRACKTOLERANCE", "0");	// Every packet is matched to its plotted point,
+		config.setProperty("PREDREDRAW", "0");		// and every prediction to its track
+		config.setProperty("REORDERWINDOW", "0");	// No added latency
+		config.setProperty("MAXPAYLOADS", String.valueOf(payloads));
+
+		TelemetryGenerator generator = new TelemetryGenerator(new InetSocketAddress("127.0.0.1", port));
+		generator.payloads = payloads;
+		generator.cars = cars;
+		generator.packetRate = rate;
+		generator.speedup = speedup;
+		generator.profile = profile.equalsIgnoreCase("float") ? TelemetryGenerator.PROFILE_FLOAT : TelemetryGenerator.PROFILE_FLIGHT;
+		generator.launchLat = Double.parseDouble(config.getProperty("LAUNCHLAT").trim());
+		generator.launchLon = Double.parseDouble(config.getProperty("LAUNCHLON").trim());
+
+		// Start the plotter, and wait for it to be listening
+		final OziPlotterUDP plotter = new OziPlotterUDP(config);
+		LatencySink sink = new LatencySink(generator);
+		plotter.sink = sink;
+		Thread plotterThread = new Thread("OziPlotterUDP") {
+			public void run() {
+				try {
+					plotter.run();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		plotterThread.setDaemon(true);
+		plotterThread.start();
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!plotter.listening) {
+			if (System.currentTimeMillis() > deadline || !plotterThread.isAlive()) {
+				out.println("OziPlotter did not start.");
+				System.exit(1);
+			}
+			Thread.sleep(50);
+		}
+		long allocatedBefore = allocatedBytes(plotterThread);
+
+		out.println("Load test: " + payloads + " payload(s) at " + rate + " packets/s, " + cars + " car(s), "
+				+ profile + " profile, " + speedup + "x flight time, for " + duration + " s");
+		generator.start();
+		Thread.sleep(duration * 1000L);
+		generator.shutdown();
+		generator.join();
+
+		// Let the last packets and predictions through
+		Thread.sleep(2000);
+		for (PayloadTracker payload : plotter.payloads.values()) payload.scheduler.awaitIdle();
+		plotter.renderer.finish();
+		long allocated = allocatedBytes(plotterThread) - allocatedBefore;
+
+		synchronized (sink) {
+			long sent = generator.telemetrySent;
+			out.println();
+			out.println("Sent " + sent + " TELEMETRY and " + generator.waypointsSent + " WAYPOINT packets ("
+					+ generator.sendErrors + " send errors)");
+			out.println("Plotted " + sink.points + " points, " + String.format("%.2f", 100.0 * (sent - sink.points) / Math.max(1, sent)) + "% dropped");
+			out.println("Packet to plotted point:  " + percentiles(sink.pointLatency, sink.points));
+			out.println("Packet to prediction:     " + percentiles(sink.predictionLatency, sink.predictions)
+					+ " (" + sink.predictions + " predictions)");
+			TreeMap<String, PayloadTracker> byCallsign = new TreeMap<String, PayloadTracker>(plotter.payloads);
+			for (PayloadTracker payload : byCallsign.values()) {
+				out.println("  " + payload.callsign + ": " + sink.predictionsFor(payload) + " predictions");
+			}
+			if (allocatedBefore >= 0) {
+				out.println("Receive thread allocated " + allocated / Math.max(1, sent + generator.waypointsSent) + " bytes per packet");
+			}
+			out.println();
+			out.print(sink.summary());
+			out.println();
+			out.print(Metrics.report());
+		}
+		sink.available = false;
+		System.exit(0);
+	}
+
+	//
+	// Bytes allocated so far by a thread, or -1 if this JVM can't tell
+	//
+	static long allocatedBytes(Thread thread) {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+		return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(thread.getId());
+	}
+
+	//
+	// Latency percentiles, in ms
+	//
+	static String percentiles(long[] values, int count) {
+		if (count == 0) return "no samples";
+		long[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+				sorted[count / 2] / 1e6, sorted[(int)(count * 0.9)] / 1e6,
+				sorted[Math.min(count - 1, (int)(count * 0.99))] / 1e6, sorted[count - 1] / 1e6);
+	}
+
+	//
+	// Settings OziPlotterUDP needs, for running without a config file
+	//
+	static Properties defaults() {
+		Properties p = new Properties();
+		p.setProperty("PREDASC", "5");
+		p.setProperty("PREDDESC", "5");
+		p.setProperty("PREDBURST", "30000");
+		p.setProperty("LAUNCHLAT", "-35.0");
+		p.setProperty("LAUNCHLON", "138.8");
+		p.setProperty("PAYLOADTRACK", "10");
+		p.setProperty("PREDTRACK", "11");
+		p.setProperty("TRACKWIDTH", "4");
+		p.setProperty("PAYLOADCOLOUR", "00cd0e");
+		p.setProperty("PREDCOLOUR", "007eff");
+		p.setProperty("PREDFREQ", "15");
+		p.setProperty("PREDAVERAGE", "15");
+		return p;
+	}
+
+	//
+	// Write a single forecast hour of uniform westerly wind covering the whole globe
+	//
+	static void writeWind(File dir, double speed) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+
+		WindGrid grid = new WindGrid();
+		grid.validTime = System.currentTimeMillis() / 1000;
+		grid.latCentre = 0;
+		grid.latRadius = 90;
+		grid.lonCentre = 0;
+		grid.lonRadius = 180;
+		grid.pressures = new double[] { 1000, 850, 700, 500, 300, 200, 100, 50, 20, 10 };
+		grid.lats = new double[] { -90, 0, 90 };
+		grid.lons = new double[] { -180, 0, 180 };
+		grid.numPressures = grid.pressures.length;
+		grid.numLats = grid.lats.length;
+		grid.numLons = grid.lons.length;
+
+		int cells = grid.numPressures * grid.numLats * grid.numLons;
+		float[] hgt = new float[cells], u = new float[cells], v = new float[cells];
+		for (int i = 0; i < cells; i++) {
+			double p = grid.pressures[i / (grid.numLats * grid.numLons)];
+			hgt[i] = (float)(44330.8 * (1 - Math.pow(p / 1013.25, 0.190263)));
+			u[i] = (float)speed;
+		}
+		grid.hgt = FloatBuffer.wrap(hgt);
+		grid.u = FloatBuffer.wrap(u);
+		grid.v = FloatBuffer.wrap(v);
+		grid.write(new File(dir, "gfs_loadtest" + WindGrid.BINARY_EXTENSION));
+	}
+
+	static void usage(String message) {
+		System.err.println(message);
+		System.err.println("Usage: LoadTest [-payloads N] [-rate R] [-cars N] [-duration S] [-speedup K] [-profile flight|float] [-port P] [-verbose]");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,288 @@
+////////////////////////////////////////////////////////////
+// Log.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Asynchronous, level-filtered logging. Messages go into
+// a bounded queue and are written out by a background
+// thread, a batch at a time, so a slow console never holds
+// up the receive loop, the map renderer or the predictor.
+// If the queue is full, messages are dropped (and counted)
+// rather than waiting for room.
+//
+// The console and the optional log file have their own
+// levels. At INFO the console gets one line per packet,
+// and at DEBUG the full detail. Format strings (and stack
+// traces) are only expanded on the logging thread.
+//
+// Entries come from a fixed pool and go back to it once
+// written, and the per-packet position line is queued as
+// plain numbers (see position()), so logging a packet
+// allocates nothing on the receive thread.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Log {
+
+	// Levels
+	static final int ERROR = 0;
+	static final int WARN = 1;
+	static final int INFO = 2;
+	static final int DEBUG = 3;
+	static final String[] LEVEL_NAMES = { "ERROR", "WARN", "INFO", "DEBUG" };
+
+	// Messages waiting to be written
+	static final int BUFFER_SIZE = 8192;
+
+	static class Entry {
+		int level;
+		long time;
+		String message;
+		Object[] args;
+		Throwable error;
+
+		// A payload position, formatted when written
+		boolean position;
+		String callsign;
+		int hour, minute, second, alt;
+		double lat, lon, rate;
+		boolean descending;
+	}
+
+	static final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(BUFFER_SIZE);
+	static final ArrayBlockingQueue<Entry> free = new ArrayBlockingQueue<Entry>(BUFFER_SIZE);
+	static final AtomicLong dropped = Metrics.counter("log.dropped");
+
+	static volatile int consoleLevel = INFO;
+	static volatile int fileLevel = DEBUG;
+	static volatile PrintWriter file;	// null if not logging to a file
+
+	// Held while writing, so a flush doesn't interleave with the writer thread
+	static final Object writeLock = new Object();
+	static long droppedReported = 0;
+
+	static {
+		for (int i = 0; i < BUFFER_SIZE; i++) free.add(new Entry());
+
+		Thread writer = new Thread("Log") {
+			public void run() {
+				ArrayList<Entry> batch = new ArrayList<Entry>();
+				while (true) {
+					try {
+						batch.add(queue.take());
+					} catch (InterruptedException e) {
+						return;
+					}
+					synchronized (writeLock) {
+						queue.drainTo(batch);
+						write(batch);
+					}
+					batch.clear();
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+
+		// Don't lose the last messages on exit
+		Runtime.getRuntime().addShutdownHook(new Thread("Log shutdown") {
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	//
+	// Set the console level, and optionally a file (blank for none) with its own level
+	//
+	static synchronized void configure(int consoleLevel, String fileName, int fileLevel) throws IOException {
+		Log.consoleLevel = consoleLevel;
+		Log.fileLevel = fileLevel;
+		if (fileName != null && fileName.length() > 0) {
+			file = new PrintWriter(new BufferedWriter(new FileWriter(fileName, true)));
+		}
+	}
+
+	//
+	// Parse a level name (error, warn, info or debug)
+	//
+	static int parseLevel(String name) {
+		for (int i = 0; i < LEVEL_NAMES.length; i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name.trim())) return i;
+		}
+		throw new IllegalArgumentException("Unknown log level " + name);
+	}
+
+	//
+	// Would a message at this level be written anywhere? Check this before
+	// building an expensive message.
+	//
+	static boolean enabled(int level) {
+		return level <= consoleLevel || (file != null && level <= fileLevel);
+	}
+
+	static void error(String message) {
+		log(ERROR, message, null, null);
+	}
+
+	static void error(String message, Throwable error) {
+		log(ERROR, message, null, error);
+	}
+
+	static void warn(String message) {
+		log(WARN, message, null, null);
+	}
+
+	static void info(String message) {
+		log(INFO, message, null, null);
+	}
+
+	static void info(String format, Object... args) {
+		log(INFO, format, args, null);
+	}
+
+	static void debug(String message) {
+		log(DEBUG, message, null, null);
+	}
+
+	static void debug(String format, Object... args) {
+		log(DEBUG, format, args, null);
+	}
+
+	//
+	// Log a payload position at INFO, e.g.
+	//   PAYLOAD 12:00:01 -34.90000,138.10000 1001 m +5.0 m/s (descending)
+	// without boxing or formatting anything on the calling thread
+	//
+	static void position(String callsign, int hour, int minute, int second, double lat, double lon, int alt, double rate, boolean descending) {
+		if (!enabled(INFO)) return;
+		Entry e = entry(INFO);
+		if (e == null) return;
+		e.position = true;
+		e.callsign = callsign;
+		e.hour = hour;
+		e.minute = minute;
+		e.second = second;
+		e.lat = lat;
+		e.lon = lon;
+		e.alt = alt;
+		e.rate = rate;
+		e.descending = descending;
+		queue.add(e);
+	}
+
+	//
+	// Queue a message. Never blocks.
+	//
+	static void log(int level, String message, Object[] args, Throwable error) {
+		if (!enabled(level)) return;
+		Entry e = entry(level);
+		if (e == null) return;
+		e.message = message;
+		e.args = args;
+		e.error = error;
+		queue.add(e);
+	}
+
+	//
+	// A free entry, stamped with the level and time. Null (and counted as
+	// dropped) if they're all queued. There are as many entries as the queue
+	// holds, so one taken here always fits in the queue.
+	//
+	static Entry entry(int level) {
+		Entry e = free.poll();
+		if (e == null) {
+			dropped.incrementAndGet();
+			return null;
+		}
+		e.level = level;
+		e.time = System.currentTimeMillis();
+		return e;
+	}
+
+	//
+	// Put a written entry back in the pool
+	//
+	static void recycle(Entry e) {
+		e.message = null;
+		e.args = null;
+		e.error = null;
+		e.position = false;
+		e.callsign = null;
+		free.add(e);
+	}
+
+	//
+	// Write out everything queued, from the calling thread
+	//
+	static void flush() {
+		ArrayList<Entry> batch = new ArrayList<Entry>();
+		synchronized (writeLock) {
+			queue.drainTo(batch);
+			write(batch);
+		}
+	}
+
+	//
+	// Write a batch to the console and the file, with one call to each
+	//
+	static void write(ArrayList<Entry> batch) {
+		PrintWriter f = file;
+		StringBuilder console = new StringBuilder();
+		StringBuilder detail = f != null ? new StringBuilder() : null;
+		SimpleDateFormat timeFormat = f != null ? new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS") : null;
+		String newline = System.lineSeparator();
+
+		long d = dropped.get();
+		if (d != droppedReported) {
+			console.append("(").append(d - droppedReported).append(" log messages dropped)").append(newline);
+			droppedReported = d;
+		}
+
+		for (Entry e : batch) {
+			String text = e.message;
+			if (e.position) {
+				text = String.format("%s %02d:%02d:%02d %.5f,%.5f %d m %+.1f m/s%s", e.callsign, e.hour, e.minute, e.second,
+						e.lat, e.lon, e.alt, e.rate, e.descending ? " (descending)" : "");
+			} else if (e.args != null) {
+				try {
+					text = String.format(e.message, e.args);
+				} catch (RuntimeException ex) {
+					// Show the raw format rather than losing the message
+				}
+			}
+			if (e.error != null) {
+				StringWriter trace = new StringWriter();
+				e.error.printStackTrace(new PrintWriter(trace));
+				text = text + newline + trace.toString().trim();
+			}
+
+			if (e.level <= consoleLevel) {
+				console.append(text).append(newline);
+			}
+			if (detail != null && e.level <= fileLevel) {
+				detail.append(timeFormat.format(new Date(e.time))).append(' ')
+						.append(LEVEL_NAMES[e.level]).append(' ').append(text).append(newline);
+			}
+			recycle(e);
+		}
+
+		if (console.length() > 0) {
+			// Looked up each time, so a redirected System.out (e.g. LoadTest) is honoured
+			PrintStream out = System.out;
+			out.print(console);
+			out.flush();
+		}
+		if (detail != null && detail.length() > 0) {
+			f.print(detail);
+			f.flush();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+////////////////////////////////////////////////////////////
+// MapRenderer.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Batches up map updates and sends them to the MapSink
+// at a fixed frame rate, rather than making several
+// cross-process calls into OziExplorer for every packet.
+//
+// Track points are flushed in the order they were added.
+// Waypoint moves are de-duplicated, so only the latest
+// position of each waypoint is sent, and the map is
+// refreshed once per frame at most.
+//
+////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+class MapRenderer extends Thread {
+
+	// Pending track point
+	static class PendingPoint {
+		int track;
+		double lat, lon, alt;
+
+		PendingPoint(int track, double lat, double lon, double alt) {
+			this.track = track;
+			this.lat = lat;
+			this.lon = lon;
+			this.alt = alt;
+		}
+	}
+
+	// Pending waypoint change - a move, or a delete if !visible
+	static class PendingWaypoint {
+		boolean visible;
+		double lat, lon;
+	}
+
+	MapSink sink;
+	long frameInterval;		// ms
+
+	// Guarded by this
+	ArrayList<PendingPoint> points = new ArrayList<PendingPoint>();
+	LinkedHashMap<String, PendingWaypoint> waypoints = new LinkedHashMap<String, PendingWaypoint>();
+	boolean refresh = false;
+
+	// Swapped with the pending lists each frame
+	ArrayList<PendingPoint> flushPoints = new ArrayList<PendingPoint>();
+	LinkedHashMap<String, PendingWaypoint> flushWaypoints = new LinkedHashMap<String, PendingWaypoint>();
+
+	// Statistics
+	volatile long frames = 0;
+	volatile long waypointsCoalesced = 0;
+
+	//
+	// Constructor
+	//
+	MapRenderer(MapSink sink, int framesPerSecond) {
+		super("MapRenderer");
+		this.sink = sink;
+		frameInterval = 1000 / Math.max(1, framesPerSecond);
+		setDaemon(true);
+		start();
+	}
+
+	//
+	// Queue a point to be added to a track
+	//
+	public synchronized void addTrackPoint(int track, double lat, double lon, double alt) {
+		points.add(new PendingPoint(track, lat, lon, alt));
+		refresh = true;
+	}
+
+	//
+	// Queue a waypoint move (or creation). Replaces any earlier pending move.
+	//
+	public synchronized void moveWaypoint(String name, double lat, double lon) {
+		PendingWaypoint w = waypoints.get(name);
+		if (w == null) {
+			w = new PendingWaypoint();
+			waypoints.put(name, w);
+		} else {
+			waypointsCoalesced++;
+		}
+		w.visible = true;
+		w.lat = lat;
+		w.lon = lon;
+		refresh = true;
+	}
+
+	//
+	// Queue a waypoint deletion. Replaces any earlier pending move.
+	//
+	public synchronized void deleteWaypoint(String name) {
+		PendingWaypoint w = waypoints.get(name);
+		if (w == null) {
+			w = new PendingWaypoint();
+			waypoints.put(name, w);
+		}
+		w.visible = false;
+		refresh = true;
+	}
+
+	//
+	// Ask for the map to be refreshed on the next frame
+	//
+	public synchronized void requestRefresh() {
+		refresh = true;
+	}
+
+	//
+	// Frame loop
+	//
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(frameInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				flush();
+			} catch (Exception e) {
+				Log.error("Could not update the map!", e);
+			}
+		}
+	}
+
+	//
+	// Stop the frame loop, and send anything still pending
+	//
+	void finish() throws Exception {
+		interrupt();
+		join();
+		flush();
+	}
+
+	//
+	// Send everything pending to the map
+	//
+	void flush() throws Exception {
+		ArrayList<PendingPoint> p;
+		LinkedHashMap<String, PendingWaypoint> w;
+
+		// Swap out the pending changes, so producers aren't held up while we talk to the map
+		synchronized (this) {
+			if (!refresh) return;
+			p = points;
+			points = flushPoints;
+			flushPoints = p;
+			w = waypoints;
+			waypoints = flushWaypoints;
+			flushWaypoints = w;
+			refresh = false;
+		}
+
+		try {
+			synchronized (Predictor.plotLock) {
+				long start = System.nanoTime();
+				for (PendingPoint point : p) {
+					sink.addTrackPoint(point.track, point.lat, point.lon, point.alt);
+				}
+				for (String name : w.keySet()) {
+					PendingWaypoint waypoint = w.get(name);
+					sink.deleteWaypoint(name);
+					if (waypoint.visible) sink.addWaypoint(name, waypoint.lat, waypoint.lon);
+				}
+				sink.refresh();
+				Metrics.RENDER_FRAME.recordSince(start);
+			}
+			frames++;
+		} finally {
+			p.clear();
+			w.clear();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+////////////////////////////////////////////////////////////
+// MapSink.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Interface implemented by anything which can display the
+// payload tracks, predictions and waypoints.
+//
+// OziSink     - OziExplorer, via OziAPI
+// MemorySink  - records every call, with timing (testing)
+// GeoJsonSink - streams newline-delimited GeoJSON to a file
+// KmlSink     - streams KML to a file
+//
+// Calls are made from several threads, but are always
+// serialised on Predictor.plotLock.
+//
+////////////////////////////////////////////////////////////
+
+public interface MapSink {
+
+	//
+	// Is the map still there? The receive loop exits when this returns false.
+	//
+	public boolean isAvailable();
+
+	//
+	// Short description used in console output
+	//
+	public String getName();
+
+	//
+	// Set up a live track (e.g. a payload track)
+	//
+	public void setupTrack(int track, String description, int width, int colour) throws Exception;
+
+	//
+	// Add a point to a live track
+	//
+	public void addTrackPoint(int track, double lat, double lon, double alt) throws Exception;
+
+	//
+	// Replace the contents of a track with a complete set of points (e.g. a prediction).
+	// file is somewhere the sink may write the track to, if it needs to.
+	//
+	public void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) throws Exception;
+
+	//
+	// Remove all points from a track
+	//
+	public void clearTrack(int track) throws Exception;
+
+	//
+	// Add or delete a waypoint
+	//
+	public void addWaypoint(String name, double lat, double lon) throws Exception;
+	public void deleteWaypoint(String name) throws Exception;
+
+	//
+	// Redraw the map
+	//
+	public void refresh() throws Exception;
+
+	//
+	// Finish up (flush and close any output)
+	//
+	public void close();
+}
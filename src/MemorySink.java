@@ -0,0 +1,179 @@
+////////////////////////////////////////////////////////////
+// MemorySink.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Headless MapSink which keeps the map in memory, and
+// records every call made to it along with when it was
+// made and how long it took. Used for testing and load
+// testing without OziExplorer.
+//
+////////////////////////////////////////////////////////////
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MemorySink implements MapSink {
+
+	//
+	// A recorded call
+	//
+	public static class Call {
+		String method;
+		long time;			// System.nanoTime() when the call was made
+		long duration;		// ns
+		int track;
+		String name;
+		double lat, lon, alt;
+		int points;
+	}
+
+	// Most recent calls, oldest are dropped once this many have been recorded
+	int maxCalls;
+	ArrayDeque<Call> calls = new ArrayDeque<Call>();
+
+	// Per-method totals: {count, total ns}
+	HashMap<String, long[]> totals = new HashMap<String, long[]>();
+
+	// Current state of the map
+	HashMap<Integer, Trajectory> tracks = new HashMap<Integer, Trajectory>();
+	HashMap<String, double[]> waypoints = new HashMap<String, double[]>();
+
+	//
+	// Constructor
+	//
+	public MemorySink(int maxCalls) {
+		this.maxCalls = maxCalls;
+	}
+
+	public boolean isAvailable() {
+		return true;
+	}
+
+	public String getName() {
+		return "in-memory map";
+	}
+
+	public synchronized void setupTrack(int track, String description, int width, int colour) {
+		long start = System.nanoTime();
+		if (!tracks.containsKey(track)) tracks.put(track, new Trajectory());
+		record("setupTrack", start, track, description, 0, 0, 0, 0);
+	}
+
+	public synchronized void addTrackPoint(int track, double lat, double lon, double alt) {
+		long start = System.nanoTime();
+		Trajectory t = tracks.get(track);
+		if (t == null) {
+			t = new Trajectory();
+			tracks.put(track, t);
+		}
+		t.add(System.currentTimeMillis() / 1000, lat, lon, alt);
+		record("addTrackPoint", start, track, null, lat, lon, alt, 1);
+	}
+
+	public synchronized void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) {
+		long start = System.nanoTime();
+		Trajectory t = new Trajectory(Math.max(16, points.size()));
+		for (int i = 0; i < points.size(); i++) {
+			t.add(points.getTime(i), points.getLat(i), points.getLon(i), points.getAlt(i));
+		}
+		tracks.put(track, t);
+		record("loadTrack", start, track, description, 0, 0, 0, points.size());
+	}
+
+	public synchronized void clearTrack(int track) {
+		long start = System.nanoTime();
+		tracks.remove(track);
+		record("clearTrack", start, track, null, 0, 0, 0, 0);
+	}
+
+	public synchronized void addWaypoint(String name, double lat, double lon) {
+		long start = System.nanoTime();
+		waypoints.put(name, new double[] { lat, lon });
+		record("addWaypoint", start, 0, name, lat, lon, 0, 1);
+	}
+
+	public synchronized void deleteWaypoint(String name) {
+		long start = System.nanoTime();
+		waypoints.remove(name);
+		record("deleteWaypoint", start, 0, name, 0, 0, 0, 0);
+	}
+
+	public synchronized void refresh() {
+		long start = System.nanoTime();
+		record("refresh", start, 0, null, 0, 0, 0, 0);
+	}
+
+	public void close() {
+	}
+
+	//
+	// Record a call
+	//
+	void record(String method, long start, int track, String name, double lat, double lon, double alt, int points) {
+		Call call = new Call();
+		call.method = method;
+		call.time = start;
+		call.duration = System.nanoTime() - start;
+		call.track = track;
+		call.name = name;
+		call.lat = lat;
+		call.lon = lon;
+		call.alt = alt;
+		call.points = points;
+
+		if (calls.size() >= maxCalls) calls.pollFirst();
+		calls.addLast(call);
+
+		long[] total = totals.get(method);
+		if (total == null) {
+			total = new long[2];
+			totals.put(method, total);
+		}
+		total[0]++;
+		total[1] += call.duration;
+	}
+
+	//
+	// Copy of the recorded calls
+	//
+	public synchronized ArrayList<Call> getCalls() {
+		return new ArrayList<Call>(calls);
+	}
+
+	//
+	// Number of calls made to a method
+	//
+	public synchronized long getCount(String method) {
+		long[] total = totals.get(method);
+		return total == null ? 0 : total[0];
+	}
+
+	//
+	// Current contents of a track, or null
+	//
+	public synchronized Trajectory getTrack(int track) {
+		return tracks.get(track);
+	}
+
+	//
+	// Current position of a waypoint {lat, lon}, or null
+	//
+	public synchronized double[] getWaypoint(String name) {
+		return waypoints.get(name);
+	}
+
+	//
+	// Summary of the calls made
+	//
+	public synchronized String summary() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, long[]> e : totals.entrySet()) {
+			long[] t = e.getValue();
+			sb.append(String.format(" * %-15s %8d calls, %8.1f us mean%n", e.getKey(), t[0], t[1] / 1000.0 / t[0]));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,106 @@
+////////////////////////////////////////////////////////////
+// MeteredSink.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// MapSink which times every call through to another sink,
+// into a Metrics histogram per call type (map.addTrackPoint,
+// map.loadTrack etc.). With OziSink underneath, these are
+// the OziAPI call times.
+//
+////////////////////////////////////////////////////////////
+
+public class MeteredSink implements MapSink {
+
+	static final LatencyHistogram SETUP_TRACK = Metrics.histogram("map.setupTrack");
+	static final LatencyHistogram ADD_TRACK_POINT = Metrics.histogram("map.addTrackPoint");
+	static final LatencyHistogram LOAD_TRACK = Metrics.histogram("map.loadTrack");
+	static final LatencyHistogram CLEAR_TRACK = Metrics.histogram("map.clearTrack");
+	static final LatencyHistogram ADD_WAYPOINT = Metrics.histogram("map.addWaypoint");
+	static final LatencyHistogram DELETE_WAYPOINT = Metrics.histogram("map.deleteWaypoint");
+	static final LatencyHistogram REFRESH = Metrics.histogram("map.refresh");
+
+	MapSink sink;
+
+	//
+	// Constructor
+	//
+	public MeteredSink(MapSink sink) {
+		this.sink = sink;
+	}
+
+	public boolean isAvailable() {
+		return sink.isAvailable();
+	}
+
+	public String getName() {
+		return sink.getName();
+	}
+
+	public void setupTrack(int track, String description, int width, int colour) throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.setupTrack(track, description, width, colour);
+		} finally {
+			SETUP_TRACK.recordSince(start);
+		}
+	}
+
+	public void addTrackPoint(int track, double lat, double lon, double alt) throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.addTrackPoint(track, lat, lon, alt);
+		} finally {
+			ADD_TRACK_POINT.recordSince(start);
+		}
+	}
+
+	public void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.loadTrack(track, description, width, colour, points, file);
+		} finally {
+			LOAD_TRACK.recordSince(start);
+		}
+	}
+
+	public void clearTrack(int track) throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.clearTrack(track);
+		} finally {
+			CLEAR_TRACK.recordSince(start);
+		}
+	}
+
+	public void addWaypoint(String name, double lat, double lon) throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.addWaypoint(name, lat, lon);
+		} finally {
+			ADD_WAYPOINT.recordSince(start);
+		}
+	}
+
+	public void deleteWaypoint(String name) throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.deleteWaypoint(name);
+		} finally {
+			DELETE_WAYPOINT.recordSince(start);
+		}
+	}
+
+	public void refresh() throws Exception {
+		long start = System.nanoTime();
+		try {
+			sink.refresh();
+		} finally {
+			REFRESH.recordSince(start);
+		}
+	}
+
+	public void close() {
+		sink.close();
+	}
+}
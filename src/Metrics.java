@@ -0,0 +1,244 @@
+////////////////////////////////////////////////////////////
+// Metrics.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Latency histograms and counters for each stage of the
+// pipeline (packet parsing, map calls, track files and
+// the predictor), so we can tell during a chase whether
+// OziExplorer or the predictor is holding things up.
+//
+// Everything is exposed locally:
+//  - over JMX, as oziplotter:type=Metrics (e.g. jconsole)
+//  - as plain text from http://127.0.0.1:METRICSPORT/
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+public class Metrics {
+
+	static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	// Packets
+	static final AtomicLong PACKETS_RECEIVED = counter("packets.received");
+	static final AtomicLong PACKETS_MALFORMED = counter("packets.malformed");
+	static final AtomicLong PACKETS_UNKNOWN = counter("packets.unknown");
+	static final AtomicLong PACKETS_OUT_OF_ORDER = counter("packets.dropped.outOfOrder");
+	static final AtomicLong PACKETS_OVER_LIMIT = counter("packets.dropped.payloadLimit");
+	static final AtomicLong PACKETS_FAILED = counter("packets.failed");
+	// From receipt to parsed, including time queued or held for reordering
+	static final LatencyHistogram PACKET_PARSE = histogram("packet.parse");
+	static final LatencyHistogram PACKET_PARSE_ONLY = histogram("packet.parseOnly");
+	static final LatencyHistogram PACKET_HANDLE = histogram("packet.handle");
+
+	// Predictions, end to end and by stage
+	static final LatencyHistogram PREDICTION_NOMINAL = histogram("prediction.nominal");
+	static final LatencyHistogram PREDICTION_ABORT = histogram("prediction.abort");
+	static final LatencyHistogram PREDICTION_ENSEMBLE = histogram("prediction.ensemble");
+	static final AtomicLong PREDICTIONS_FAILED = counter("predictions.failed");
+	static final AtomicLong PREDICTIONS_UNCHANGED = counter("predictions.unchanged");
+	static final LatencyHistogram PRED_SPAWN = histogram("pred.spawn");
+	static final LatencyHistogram PRED_COMPUTE = histogram("pred.compute");
+	static final LatencyHistogram PRED_PARSE = histogram("pred.parse");
+	static final LatencyHistogram ENGINE_COMPUTE = histogram("engine.compute");
+
+	// Map
+	static final LatencyHistogram RENDER_FRAME = histogram("render.frame");
+	static final LatencyHistogram TRACKFILE_WRITE = histogram("trackfile.write");
+	static final LatencyHistogram TRACKFILE_LOAD = histogram("trackfile.load");
+
+	static final String OBJECT_NAME = "oziplotter:type=Metrics";
+
+	static Server server;
+
+	//
+	// Find or create a histogram
+	//
+	static LatencyHistogram histogram(String name) {
+		LatencyHistogram h = histograms.get(name);
+		if (h == null) {
+			h = new LatencyHistogram(name);
+			LatencyHistogram existing = histograms.putIfAbsent(name, h);
+			if (existing != null) h = existing;
+		}
+		return h;
+	}
+
+	//
+	// Find or create a counter
+	//
+	static AtomicLong counter(String name) {
+		AtomicLong c = counters.get(name);
+		if (c == null) {
+			c = new AtomicLong();
+			AtomicLong existing = counters.putIfAbsent(name, c);
+			if (existing != null) c = existing;
+		}
+		return c;
+	}
+
+	//
+	// Everything, as text
+	//
+	static String report() {
+		StringBuilder s = new StringBuilder();
+		s.append("# OziPlotter metrics. Latencies in ms.\n");
+		for (String name : new TreeSet<String>(histograms.keySet())) {
+			s.append(histograms.get(name).summary()).append('\n');
+		}
+		s.append('\n');
+		for (String name : new TreeSet<String>(counters.keySet())) {
+			s.append(String.format("%-28s %9d\n", name, counters.get(name).get()));
+		}
+		return s.toString();
+	}
+
+	//
+	// Register with JMX, and serve the report on a local port (0 for no HTTP)
+	//
+	static synchronized void start(int httpPort) {
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!mbs.isRegistered(name)) mbs.registerMBean(new MBean(), name);
+		} catch (Exception e) {
+			Log.error("Could not register metrics with JMX", e);
+		}
+
+		if (httpPort > 0 && server == null) {
+			try {
+				server = new Server(httpPort);
+				server.start();
+				Log.info("Metrics at http://127.0.0.1:" + httpPort + "/");
+			} catch (IOException e) {
+				Log.error("Could not open metrics port " + httpPort, e);
+			}
+		}
+	}
+
+	//
+	// Minimal HTTP server on the loopback interface. Any GET gets the report.
+	//
+	static class Server extends Thread {
+		ServerSocket socket;
+
+		Server(int port) throws IOException {
+			super("MetricsServer");
+			socket = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+			setDaemon(true);
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					Socket client = socket.accept();
+					try {
+						client.setSoTimeout(2000);
+						respond(client);
+					} finally {
+						client.close();
+					}
+				} catch (IOException e) {
+					if (socket.isClosed()) return;
+				}
+			}
+		}
+
+		void respond(Socket client) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+			String request = in.readLine();
+			if (request == null) return;
+
+			// Skip the headers
+			String line;
+			while ((line = in.readLine()) != null && line.length() > 0) {
+			}
+
+			byte[] body = report().getBytes(StandardCharsets.US_ASCII);
+			String status = request.startsWith("GET ") ? "200 OK" : "405 Method Not Allowed";
+			if (!request.startsWith("GET ")) body = new byte[0];
+			String header = "HTTP/1.0 " + status + "\r\nContent-Type: text/plain; charset=us-ascii\r\n"
+					+ "Content-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+			OutputStream out = client.getOutputStream();
+			out.write(header.getBytes(StandardCharsets.US_ASCII));
+			out.write(body);
+			out.flush();
+		}
+	}
+
+	//
+	// JMX view. Each histogram shows up as <name>.count, .meanMs, .p50Ms, .p90Ms,
+	// .p99Ms and .maxMs, and each counter under its own name.
+	//
+	static class MBean implements DynamicMBean {
+		static final String[] STATS = { "count", "meanMs", "p50Ms", "p90Ms", "p99Ms", "maxMs" };
+
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			AtomicLong c = counters.get(attribute);
+			if (c != null) return c.get();
+
+			int dot = attribute.lastIndexOf('.');
+			LatencyHistogram h = dot > 0 ? histograms.get(attribute.substring(0, dot)) : null;
+			if (h == null) throw new AttributeNotFoundException(attribute);
+			String stat = attribute.substring(dot + 1);
+			if (stat.equals("count")) return (double)h.getCount();
+			if (stat.equals("meanMs")) return h.getMean() / 1e6;
+			if (stat.equals("p50Ms")) return h.getPercentile(0.5) / 1e6;
+			if (stat.equals("p90Ms")) return h.getPercentile(0.9) / 1e6;
+			if (stat.equals("p99Ms")) return h.getPercentile(0.99) / 1e6;
+			if (stat.equals("maxMs")) return h.getMax() / 1e6;
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {
+					// Left out, as JMX expects
+				}
+			}
+			return list;
+		}
+
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read only");
+		}
+
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		public Object invoke(String action, Object[] params, String[] signature) throws MBeanException {
+			if (action.equals("report")) return report();
+			throw new MBeanException(new UnsupportedOperationException(action));
+		}
+
+		public MBeanInfo getMBeanInfo() {
+			ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+			for (String name : new TreeSet<String>(histograms.keySet())) {
+				for (String stat : STATS) {
+					attributes.add(new MBeanAttributeInfo(name + "." + stat, "double", name + " " + stat, true, false, false));
+				}
+			}
+			for (String name : new TreeSet<String>(counters.keySet())) {
+				attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+			}
+			MBeanOperationInfo report = new MBeanOperationInfo("report", "All metrics, as text",
+					new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+			return new MBeanInfo(Metrics.class.getName(), "OziPlotter latency histograms and counters",
+					attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+					new MBeanOperationInfo[] { report }, null);
+		}
+	}
+}
@@ -12,15 +12,20 @@
 // and plot the resultant coordinates in OziExplorer,
 // for live tracking not dependant on an internet connection.
 //
+// The map output goes through a MapSink, so it can also run
+// headless (writing GeoJSON/KML, or into memory for testing).
+//
 // 2017-11-11 First Public Release
 //
 ////////////////////////////////////////////////////////////
 
-import com.oziexplorer.*;
 import java.io.*;
 import javax.swing.JFileChooser;
-import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.lang.Math;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Properties;
 
 
@@ -30,13 +35,69 @@ public class OziPlotterUDP {
 	
 	// Configuration variables
 	String hostname, balloonCallsign;
-	DatagramSocket udpSource;
+	volatile boolean listening = false;
 	double predictionAsc, predictionDesc, launchLat, launchLon;
 	int port, balloonTrack, trackWidth, balloonColour;
 	int predictionTrack, predictionColour, predictionBurst, predictionFrequency, predictionAverage;
+	String predictionBackend, windDirectory, windArchive, mapSink, mapFile;
+	double windRetention;
+	int ensembleMembers, ensembleTime, renderRate;
+	double ensembleAscError, ensembleDescError, ensembleBurstError, ensembleWindError;
+	double atmosphereTemperature;
+	int cacheSize, cacheTime;
+	double cachePosition, cacheAltitude, cacheRate;
+	String flightLog;
+	int flightLogFlush;
+	int metricsPort;
+	double trackTolerance, redrawDistance;
+	int logLevel, logFileLevel;
+	String logFile;
+	int reorderWindow;
+	String sources;
 
 	int udpTimeout = 5;
 
+	// Largest packet we will read
+	static final int MAX_PACKET_SIZE = 2048;
+
+	// Most packets held back for reordering at once
+	static final int REORDER_CAPACITY = 128;
+
+	// Most packets waiting between the sources and the handler
+	static final int QUEUE_CAPACITY = 1024;
+
+	// Packet parser, and the record it fills in (receive thread only)
+	TelemetryParser parser = new TelemetryParser();
+	TelemetryRecord record = new TelemetryRecord();
+
+	// Drops copies of packets forwarded by more than one station
+	PacketDeduplicator deduplicator;
+
+	// Payloads being tracked, by callsign
+	int maxPayloads;
+	HashMap<String, PayloadTracker> payloads = new HashMap<String, PayloadTracker>();
+	PredictorBackend backend;
+	PredictorBackend cachedBackend;		// backend, through the prediction cache if enabled
+	WindField windField;
+	Atmosphere atmosphere = Atmosphere.STANDARD;
+	MapRenderer renderer;
+	MapSink sink;
+	volatile FlightRecorder recorder;
+	volatile boolean stopping = false;
+	boolean shutDown = false;
+
+	// Each predictor uses six tracks (nominal, abort and ensemble swing-buffers)
+	static final int TRACKS_PER_PREDICTOR = 6;
+
+	// Most samples held by a payload's rate estimator
+	static final int RATE_SAMPLES = 64;
+
+	// Most points the live track simplifier holds back
+	static final int TRACK_HOLD = 10;
+
+	// Longest (ms) the shutdown hook waits for the receive loop to finish
+	static final long SHUTDOWN_WAIT = 2000;
+
 	//
 	// Entry point, config is loaded here
 	//
@@ -49,7 +110,15 @@ public class OziPlotterUDP {
 			System.exit(1);
 		}
 			OziPlotterUDP o = new OziPlotterUDP(configFile);
+
+		// OziPlotterUDP -replay <log> [speed] plays a recorded flight back instead of listening
+		if (args.length >= 2 && args[0].equalsIgnoreCase("-replay")) {
+			double speed = 1.0;
+			if (args.length >= 3) speed = args[2].equalsIgnoreCase("max") ? 0 : Double.parseDouble(args[2]);
+			o.replay(new File(args[1]), speed);
+		} else {
 			o.run();
+		}
 	}
 		
 	//
@@ -71,217 +140,501 @@ public class OziPlotterUDP {
 		predictionBurst = Integer.parseInt(configFile.getProperty("PREDBURST"));
 		launchLat = Double.parseDouble(configFile.getProperty("LAUNCHLAT"));
 		launchLon = Double.parseDouble(configFile.getProperty("LAUNCHLON"));
+		predictionBackend = configFile.getProperty("PREDBACKEND", "java").trim();
+		windDirectory = configFile.getProperty("GFSDIR", "../gfs").trim();
+		windRetention = Double.parseDouble(configFile.getProperty("WINDRETAIN", "0").trim());
+		windArchive = configFile.getProperty("WINDARCHIVE", "archive").trim();
+		mapSink = configFile.getProperty("MAPSINK", "ozi").trim();
+		mapFile = configFile.getProperty("MAPFILE", "oziplotter.geojson").trim();
+		renderRate = Integer.parseInt(configFile.getProperty("RENDERRATE", "4").trim());
+		maxPayloads = Integer.parseInt(configFile.getProperty("MAXPAYLOADS", "4").trim());
+		atmosphereTemperature = Double.parseDouble(configFile.getProperty("ATMOSTEMP", "0").trim());
+		ensembleMembers = Integer.parseInt(configFile.getProperty("ENSEMBLE", "0").trim());
+		ensembleTime = Integer.parseInt(configFile.getProperty("ENSEMBLETIME", "5000").trim());
+		ensembleAscError = Double.parseDouble(configFile.getProperty("ENSEMBLEASCERR", "0.1").trim());
+		ensembleDescError = Double.parseDouble(configFile.getProperty("ENSEMBLEDESCERR", "0.1").trim());
+		ensembleBurstError = Double.parseDouble(configFile.getProperty("ENSEMBLEBURSTERR", "0.05").trim());
+		ensembleWindError = Double.parseDouble(configFile.getProperty("ENSEMBLEWINDERR", "0.1").trim());
+		cacheSize = Integer.parseInt(configFile.getProperty("PREDCACHE", "32").trim());
+		cachePosition = Double.parseDouble(configFile.getProperty("PREDCACHEPOS", "50").trim());
+		cacheAltitude = Double.parseDouble(configFile.getProperty("PREDCACHEALT", "20").trim());
+		cacheRate = Double.parseDouble(configFile.getProperty("PREDCACHERATE", "0.2").trim());
+		cacheTime = Integer.parseInt(configFile.getProperty("PREDCACHETIME", "300").trim());
+		flightLog = configFile.getProperty("FLIGHTLOG", "").trim();
+		flightLogFlush = Integer.parseInt(configFile.getProperty("FLIGHTLOGFLUSH", "1000").trim());
+		metricsPort = Integer.parseInt(configFile.getProperty("METRICSPORT", "0").trim());
+		trackTolerance = Double.parseDouble(configFile.getProperty("TRACKTOLERANCE", "0").trim());
+		redrawDistance = Double.parseDouble(configFile.getProperty("PREDREDRAW", "0").trim());
+		logLevel = Log.parseLevel(configFile.getProperty("LOGLEVEL", "info"));
+		logFile = configFile.getProperty("LOGFILE", "").trim();
+		logFileLevel = Log.parseLevel(configFile.getProperty("LOGFILELEVEL", "debug"));
+		reorderWindow = Integer.parseInt(configFile.getProperty("REORDERWINDOW", "0").trim());
+		sources = configFile.getProperty("SOURCES", "").trim();
+		if (sources.length() == 0) sources = "udp:" + port;
 	}
-	
+
 	//
-	// Run method
-	// This is where everything happens
+	// Create the configured map sink
 	//
-	public void run() throws Exception {
+	MapSink createSink() throws IOException {
+		if (mapSink.equalsIgnoreCase("memory")) {
+			return new MemorySink(100000);
+		} else if (mapSink.equalsIgnoreCase("geojson")) {
+			return new GeoJsonSink(mapFile);
+		} else if (mapSink.equalsIgnoreCase("kml")) {
+			return new KmlSink(mapFile);
+		}
+		return new OziSink();
+	}
+
+	//
+	// Create the configured predictor backend
+	//
+	PredictorBackend createBackend() {
+		windField = new WindField(createWindIndex());
+		if (predictionBackend.equalsIgnoreCase("pred")) {
+			return new ExternalPredictor("pred.exe -i " + windDirectory);
+		}
+		return new TrajectoryEngine(windField, atmosphere);
+	}
+
+	//
+	// Index the wind directory, and watch it for new and expired data
+	//
+	WindIndex createWindIndex() {
+		File directory = new File(windDirectory);
+		WindIndex index = new WindIndex(directory);
+		File archive = windArchive.length() > 0 ? new File(directory, windArchive) : null;
+		index.setRetention((long)(windRetention * 3600), archive);
+		try {
+			index.start();
+			Log.info(index.size() + " wind data files in " + windDirectory + ", watching for changes.");
+		} catch (IOException e) {
+			// Still usable, by looking at the directory now and then
+			Log.warn("Could not watch wind directory " + windDirectory + ": " + e.getMessage());
+		}
+		return index;
+	}
+
+	//
+	// Wrap the backend in a prediction cache, if enabled
+	//
+	PredictorBackend createCache(PredictorBackend backend) {
+		if (cacheSize <= 0) return backend;
+		PredictionCache cache = new PredictionCache(backend, windField, cacheSize);
+		cache.setTolerances(cachePosition, cacheAltitude, cacheRate, cacheTime);
+		return cache;
+	}
 	
-		// Degree character
-		char deg = 248;
-		
-		// Tracking vars
-		int lastAlt = 0;
-		long lastTime = 0;
-		long lastPayloadTime = 0;
-		long lastPredUpdate = 0;
-		long lastPredTime = 0;
-		boolean descent = false;
+	//
+	// Find the tracker for a payload, setting one up the first time a callsign is heard.
+	// The default (PAYLOAD, for packets without a callsign) is no different, so it only
+	// takes one of the MAXPAYLOADS if such packets arrive.
+	//
+	PayloadTracker getPayload(String callsign) throws Exception {
+		PayloadTracker payload = payloads.get(callsign);
+		if (payload != null) return payload;
 
-		int telemetryTimer = 0;
+		int index = payloads.size();
+		if (index >= maxPayloads) return null;
+
+		// The first payload uses the configured tracks. Each extra payload gets a block
+		// of tracks after those: one for the payload, then six for its predictions.
+		int track = balloonTrack;
+		int predTrack = predictionTrack;
+		if (index > 0) {
+			track = predictionTrack + TRACKS_PER_PREDICTOR + (index - 1) * (TRACKS_PER_PREDICTOR + 1);
+			predTrack = track + 1;
+		}
 
-		
 		// Instantiate predictor with config
-		Predictor predictor = new Predictor(predictionAsc, predictionDesc, predictionBurst, predictionTrack, predictionColour, trackWidth);
-   
+		Predictor predictor = new Predictor(cachedBackend, renderer, predictionAsc, predictionDesc, predictionBurst, predTrack, predictionColour, trackWidth);
+		if (!callsign.equals(balloonCallsign)) predictor.setCallsign(callsign);
+		predictor.setAtmosphere(atmosphere);
+		predictor.setRateEstimator(new RateEstimator(predictionAverage, RATE_SAMPLES));
+		predictor.setTrackTolerance(trackTolerance);
+		predictor.setRedrawDistance(redrawDistance);
+		if (ensembleMembers > 0) {
+			predictor.setEnsemble(new EnsemblePredictor(backend, ensembleMembers, ensembleTime,
+					ensembleAscError, ensembleDescError, ensembleBurstError, ensembleWindError));
+		}
+		payload = new PayloadTracker(callsign, track, predictor);
+		payload.simplifier = new TrackSimplifier(trackTolerance, TRACK_HOLD);
+		payloads.put(callsign, payload);
+
+		// Setup a track for the baloon flightpath	
+		synchronized (Predictor.plotLock) {
+			sink.setupTrack(track, "OziPlotter payload track (" + callsign + ")", trackWidth, balloonColour);
+		}
+		Log.info("Now tracking " + callsign + " on track " + track + ", predictions on tracks " + predTrack + "-" + (predTrack + TRACKS_PER_PREDICTOR - 1));
+
+		return payload;
+	}
+	
+	//
+	// Set up the map, predictor and payload tracks
+	//
+	void start() throws Exception {
+
 		// Startup
-		System.out.println("OziPlotter " + version + " Terry Baume & Mark Jessop, 2010-2018\r\n");
-		System.out.println("Project Horus / AREG (http://www.areg.org.au)\r\n");
+		Log.configure(logLevel, logFile, logFileLevel);
+		Log.info("OziPlotter " + version + " Terry Baume & Mark Jessop, 2010-2018");
+		Log.info("Project Horus / AREG (http://www.areg.org.au)");
                
-        // Look for OziExplorer
-        System.out.println("Looking for OziExplorer...");
-        if (!OziAPI.findOzi()) {
-			System.out.println("OziExplorer not detected, please start OziExplorer first!");
+        // Look for the map (unless one has been provided, e.g. by LoadTest)
+		if (sink == null) sink = createSink();
+        if (!sink.isAvailable()) {
+			Log.error("OziExplorer not detected, please start OziExplorer first!");
 			System.exit(0);
 		} else {
-			System.out.println("OziExplorer " + OziAPI.getOziVersion() + " found!\r\n");
+			Log.info("Plotting to " + sink.getName());
 		}
+
+		// Time every map call
+		Metrics.start(metricsPort);
+		sink = new MeteredSink(sink);
+
+		// Predictor backend and map renderer, shared by all payloads
+		if (atmosphereTemperature != 0) atmosphere = new Atmosphere(10.0, Atmosphere.LINEAR, atmosphereTemperature);
+		backend = createBackend();
+		cachedBackend = createCache(backend);
+		renderer = new MapRenderer(sink, renderRate);
+
+		// If we're stopped with Ctrl+C, let the receive loop finish what it has,
+		// then close the flight log and finish the map (e.g. a KML file)
+		final Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread("OziPlotter shutdown") {
+			public void run() {
+				stopping = true;
+				main.interrupt();
+				try {
+					main.join(SHUTDOWN_WAIT);
+				} catch (InterruptedException ignored) {
+				}
+				shutdown();
+			}
+		});
+		deduplicator = new PacketDeduplicator(new PacketDeduplicator.Handler() {
+			public void handlePacket(byte[] packet, int length, long received) {
+				OziPlotterUDP.this.handlePacket(packet, length, received);
+			}
+		}, reorderWindow, REORDER_CAPACITY, MAX_PACKET_SIZE);
 		
 		// Add a waypoint for launch
-		OziAPI.deleteWaypoint("LAUNCH");
-		OziAPI.addWaypoint(new Waypoint("LAUNCH", 0, new LatLon(launchLat, launchLon)));
-		
-		// Setup a track for the baloon flightpath	
-		OziAPI.setTrackDescription(balloonTrack, "OziPlotter payload track");
-		OziAPI.setTrackWidth(balloonTrack, trackWidth);
-		OziAPI.setTrackType(balloonTrack, TrackType.LINE);
-		OziAPI.setTrackColor(balloonTrack, balloonColour); 
-		OziAPI.showTrack(balloonTrack);
-		OziAPI.hideAllTracks(); OziAPI.showAllTracks(); 
-		OziAPI.refreshMap();
+		sink.deleteWaypoint("LAUNCH");
+		sink.addWaypoint("LAUNCH", launchLat, launchLon);
+		sink.refresh();
+	}
+
+	//
+	// Run method
+	// This is where everything happens
+	//
+	public void run() throws Exception {
+	
+		// Degree character
+		char deg = 248;
 		
-		// Open the UDP Listener
-		System.out.println("Opening UDP Socket\r\n");
-		udpSource = new DatagramSocket(port);
-		udpSource.setSoTimeout(udpTimeout*1000);
+		int telemetryTimer = 0;
+
+		start();
+
+		// Record the flight
+		if (flightLog.length() > 0) {
+			recorder = new FlightRecorder(new File(flightLog), flightLogFlush);
+			Log.info("Recording packets to " + recorder.getName());
+		}
 		
-			
-		// Handle the stream reading & processing
-		String udpLine; String callsign; char c;
-
-		while (OziAPI.findOzi()) {
-
-			// Get setup to read a UDP packet.
-			byte[] packetbuf = new byte[1024];
-			DatagramPacket packet = new DatagramPacket(packetbuf, packetbuf.length);
-			// Attempt to read a UDP packet. Timeout after 5 seconds. 
-			try{
-				udpSource.receive(packet);
-			}catch (Exception e) {
-				// Probably a timeout. Increment our counter. and try again.
-				telemetryTimer += udpTimeout;
+		// Open the packet sources, each reading on its own thread into the queue
+		PacketQueue packetQueue = new PacketQueue(QUEUE_CAPACITY, MAX_PACKET_SIZE);
+		ArrayList<PacketSource> packetSources = openSources(packetQueue);
+		listening = true;
+
+		while (sink.isAvailable() && !stopping) {
+
+			// Wait for packets, a held packet to be due, or the flight log to need
+			// flushing. Timeout after 5 seconds.
+			long timeout = udpTimeout * 1000L;
+			long now = System.currentTimeMillis();
+			long wait = Math.min(deduplicator.timeToNext(now), timeout);
+			FlightRecorder log = recorder;
+			if (log != null) wait = Math.min(wait, log.timeToFlush(now));
+			PacketQueue.Packet packet;
+			try {
+				packet = packetQueue.poll(Math.max(1, wait));
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (packet == null) {
+				now = System.currentTimeMillis();
+				deduplicator.release(now);
+				if (log != null) log.flush(now);
+				if (wait >= timeout) {
+					telemetryTimer += udpTimeout;
+					flushTracks();
+				}
 				continue;
 			}
 
-			udpLine = new String(packet.getData(),0,packet.getLength());
-			// Remove any trailing return chars
-			udpLine = udpLine.replaceAll("\\r","");
-			udpLine = udpLine.replaceAll("\\n","");
-			System.out.println("Read line: " + udpLine + "\r\n");
-
-			// Expected Strings:
-			// TELEMETRY,HH:MM:SS,lat,lon,alt\n
-			// WAYPOINT,<waypointname>,lat,lon,message\n
-
-
-			try{
-				String[] fields = udpLine.split(",");
-
-				if( fields[0].equals("TELEMETRY")) {
-					// Attempt to extract field data from the string.
-					String time;
-					double lat = 0, lon = 0, ascRate = 0, speed=0.0;
-					int currentTime = 0, hour = 0, minute = 0, second = 0;
-					int txCount = 0, alt = 0, numSats = 0, extTemp = 0, intTemp = 0, rssi = 0, snr = 0;
-					// Try to parse the telemetry data
-					time = fields[1];
-					lat = Double.parseDouble(fields[2]);
-					lon = Double.parseDouble(fields[3]);
-					alt = Integer.parseInt(fields[4]);
-					
-					// Break up the time
-					hour = Integer.parseInt(time.split("\\:")[0]);
-					minute = Integer.parseInt(time.split("\\:")[1]);
-					second = Integer.parseInt(time.split("\\:")[2]);
-					currentTime = (hour * 3600) + (minute * 60) + second;
-					
-					// Ascent rate
-					ascRate = Math.round((float)(alt - lastAlt)/(currentTime - lastPayloadTime) * 10.0)/10.0;
-					
-					// Play some beeps when the balloon first bursts
-					if (!descent && alt < (lastAlt - 100)) { beep(10); }
-					
-					// Enter descent mode
-					if (ascRate < -3) { descent = true; }
-					if (descent) { System.out.println("BALLOON HAS BURST!\n"); }
-					
-					// Print position data
-					System.out.println("Position data:");
-					System.out.println(" * Transmission time: " + time);
-					System.out.println(" * Altitude: " + alt + " m");
-					System.out.println(" * Ascent rate: " + ascRate + " m/s");
-					System.out.println(" * Latitude: " + lat);
-					System.out.println(" * Longitude: " + lon + "\n");
-					
-
-					
-					// Update tracking vars
-					lastAlt = alt;
-					lastPayloadTime = currentTime;
-					lastTime = System.currentTimeMillis()/1000;
-
-					// Look for a valid fix
-					if (lat != 0 && lon != 0) {
-					
-						// Plot the point in OziExplorer
-						plotPoint(lat, lon, alt);
-						
-						// Update predictor?
-						if (lastTime - lastPredUpdate > predictionAverage || lastPredUpdate > lastTime) {
-							predictor.update(lat, lon, alt, hour, minute, second);
-							lastPredUpdate = lastTime;
-						}
-						
-						// Draw predictions?
-						if (lastTime - lastPredTime > predictionFrequency || lastPredTime > lastTime) {
-							predictor.runPredictions();
-							lastPredTime = System.currentTimeMillis()/1000;
-						}
-						
-					} else {
-						System.out.println("No GPS lock, not plotting...");
-					}
-
-					telemetryTimer = 0;
-				} else if (fields[0].equals("WAYPOINT")) {
-					// Extract fields
-					String waypointName, waypointComment;
-					double lat = 0, lon = 0;
-
-					waypointName = fields[1];
-					lat = Double.parseDouble(fields[2]);
-					lon = Double.parseDouble(fields[3]);
-					waypointComment = fields[4];
-
-					// Delete waypoint if it exists, and add the new waypoint.
-					OziAPI.deleteWaypoint(waypointName);
-					// TODO: Modify waypoint symbol number to be a car symbol.
-					OziAPI.addWaypoint(new Waypoint(waypointName, 0, new LatLon(lat,lon)));
-					System.out.println("Updated Waypoint named " + waypointName + " at " + lat + "," + lon + ".\n");
-
-				} else {
-					System.out.println("Unknown message type: " + udpLine);
-				}
+			// Handle everything that's waiting, as of when it was received
+			while (packet != null) {
+				if (recorder != null) recordPacket(packet.data, packet.length, packet.time, packet.source);
+				deduplicator.offer(packet.data, packet.length, packet.source, packet.time, packet.received);
+				packetQueue.recycle(packet);
+				telemetryTimer = 0;
+				packet = packetQueue.poll(0);
+			}
+			deduplicator.release(System.currentTimeMillis());
+		}
+		deduplicator.drain();
+		for (PacketSource source : packetSources) source.close();
+		flushTracks();
+		
+		if (!sink.isAvailable()) Log.error("Lost connection to OziExplorer, exiting!");
+		shutdown();
+    }
+
+	//
+	// Close the flight log, send anything still pending to the map and close it.
+	// Runs once, at the end of run() or replay(), or from the shutdown hook if
+	// we're killed.
+	//
+	synchronized void shutdown() {
+		if (shutDown) return;
+		shutDown = true;
+		FlightRecorder log = recorder;
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				Log.error("Could not close " + log.getName(), e);
+			}
+		}
+		try {
+			renderer.finish();
+		} catch (Exception e) {
+			Log.error("Could not finish drawing the map", e);
+		}
+		sink.close();
+		Log.flush();
+	}
+
+	//
+	// Open and start every source in SOURCES
+	//
+	ArrayList<PacketSource> openSources(PacketQueue queue) throws IOException {
+		ArrayList<PacketSource> opened = new ArrayList<PacketSource>();
+		for (String spec : sources.split(",")) {
+			if (spec.trim().length() == 0) continue;
+			PacketSource source = PacketSource.create(spec, queue, MAX_PACKET_SIZE);
+			Log.info("Opening packet source " + source.name);
+			source.open();
+			opened.add(source);
+		}
+		for (PacketSource source : opened) source.start();
+		return opened;
+	}
+
+	//
+	// Append a packet to the flight log. A recording failure stops
+	// recording, but never stops tracking.
+	//
+	void recordPacket(byte[] packet, int length, long time, String source) {
+		try {
+			recorder.record(packet, length, time, source);
+		} catch (IOException e) {
+			Log.error("Could not record packet, recording stopped!", e);
+			try {
+				recorder.close();
+			} catch (IOException ignored) {
+			}
+			recorder = null;
+		}
+	}
+
+	//
+	// Play a recorded flight log through the packet handler, then wait
+	// for the predictions and map to catch up
+	//
+	public void replay(File log, double speed) throws Exception {
+		start();
 
-			} catch (Exception e) {
-					System.out.println("Data not in expected format!\r\n");
-					e.printStackTrace();
+		Log.info("Replaying " + log + (speed > 0 ? " at " + speed + "x" : " at full speed"));
+		FlightReplay replay = new FlightReplay(log, speed);
+		replay.replay(new FlightReplay.Handler() {
+			public void handlePacket(byte[] packet, int length, String source) {
+				// Recordings keep every copy, so de-duplicate them again
+				long now = System.currentTimeMillis();
+				deduplicator.release(now);
+				deduplicator.offer(packet, length, source, now, System.nanoTime());
 			}
+		});
+		deduplicator.drain();
+		flushTracks();
+
+		for (PayloadTracker payload : payloads.values()) payload.scheduler.awaitIdle();
+		renderer.finish();
+
+		Log.info("Replayed " + replay.records + " packets (" + (replay.flightTime / 1000) + " s of flight) in " + replay.replayTime + " ms.");
+		shutdown();
+	}
+
+	//
+	// Handle a single packet, received at the given System.nanoTime()
+	//
+	void handlePacket(byte[] packet, int length, long received) {
+		long start = System.nanoTime();
+		Metrics.PACKETS_RECEIVED.incrementAndGet();
+
+		// Print the line, without any trailing return chars
+		if (Log.enabled(Log.DEBUG)) {
+			Log.debug("Read line: " + new String(packet, 0, TelemetryParser.trimmedLength(packet, length), StandardCharsets.ISO_8859_1));
+		}
+
+		try{
+			boolean parsed = parser.parse(packet, length, record);
+			Metrics.PACKET_PARSE_ONLY.recordSince(start);
+			Metrics.PACKET_PARSE.recordSince(received);
+
+			if (!parsed) {
+				Metrics.PACKETS_MALFORMED.incrementAndGet();
+				Log.warn("Data not in expected format!");
 			
-			System.out.println("-------------------------------------------------------------------------------");
+			} else if (record.type == TelemetryRecord.TELEMETRY) {
+				handleTelemetry(record);
+
+			} else if (record.type == TelemetryRecord.WAYPOINT) {
+				// Move the waypoint (replacing it if it exists) on the next frame.
+				// TODO: Modify waypoint symbol number to be a car symbol.
+				renderer.moveWaypoint(record.name, record.lat, record.lon);
+				Log.info("Updated Waypoint named %s at %s,%s.", record.name, record.lat, record.lon);
+
+			} else {
+				Metrics.PACKETS_UNKNOWN.incrementAndGet();
+				Log.warn("Unknown message type!");
+			}
+
+		} catch (Exception e) {
+				Metrics.PACKETS_FAILED.incrementAndGet();
+				Log.error("Could not plot data!", e);
+		}
+		
+		Log.debug("-------------------------------------------------------------------------------");
+		Metrics.PACKET_HANDLE.recordSince(start);
+	}
+
+	//
+	// Handle a TELEMETRY message
+	//
+	void handleTelemetry(TelemetryRecord record) throws Exception {
+		double ascRate;
+		double lat = record.lat, lon = record.lon;
+		int alt = record.alt;
+		int currentTime = record.secondOfDay();
+
+		// Optional callsign, for tracking more than one payload
+		String callsign = record.callsign != null ? record.callsign : balloonCallsign;
+		PayloadTracker payload = getPayload(callsign);
+		if (payload == null) {
+			Metrics.PACKETS_OVER_LIMIT.incrementAndGet();
+			Log.warn("Already tracking " + maxPayloads + " payloads, ignoring " + callsign);
+			return;
+		}
+		
+		// Ascent rate, over the last PREDAVERAGE seconds
+		if (!payload.rates.add(currentTime, alt)) {
+			Metrics.PACKETS_OUT_OF_ORDER.incrementAndGet();
+			Log.warn("Out of order position from " + callsign + ", ignoring.");
+			return;
 		}
+		ascRate = payload.rates.getRoundedRate();
 		
-		if (!OziAPI.findOzi()) System.out.println("Lost connection to OziExplorer, exiting!");
+		// Play some beeps when the balloon first bursts
+		if (!payload.descent && alt < (payload.lastAlt - 100)) { beep(10); }
 		
-    }
+		// Enter descent mode
+		if (ascRate < -3 && !payload.descent) {
+			payload.descent = true;
+			Log.warn(callsign + " HAS BURST!");
+		}
+		
+		// Print position data - one line, or the full block at DEBUG
+		if (Log.enabled(Log.DEBUG)) {
+			Log.debug("Position data (" + callsign + "):\n"
+					+ " * Transmission time: " + String.format("%02d:%02d:%02d", record.hour, record.minute, record.second) + "\n"
+					+ " * Altitude: " + alt + " m\n"
+					+ " * Ascent rate: " + ascRate + " m/s\n"
+					+ " * Latitude: " + lat + "\n"
+					+ " * Longitude: " + lon + (payload.descent ? "\n" + callsign + " HAS BURST!" : ""));
+		}
+		Log.position(callsign, record.hour, record.minute, record.second, lat, lon, alt, ascRate, payload.descent);
+		
+		// Update tracking vars
+		payload.lastAlt = alt;
+		long lastTime = System.currentTimeMillis()/1000;
+
+		// Look for a valid fix
+		if (lat != 0 && lon != 0) {
+		
+			// Plot the point in OziExplorer
+			plotPoint(payload, lat, lon, alt);
+			
+			// Update predictor?
+			if (lastTime - payload.lastPredUpdate > predictionAverage || payload.lastPredUpdate > lastTime) {
+				payload.predictor.update(lat, lon, alt, record.hour, record.minute, record.second);
+				payload.lastPredUpdate = lastTime;
+			}
+			
+			// Draw predictions?
+			// This only queues the request - the prediction runs on the payload's scheduler thread
+			if (lastTime - payload.lastPredTime > predictionFrequency || payload.lastPredTime > lastTime) {
+				payload.scheduler.request();
+				payload.lastPredTime = lastTime;
+			}
+			
+		} else {
+			Log.info("No GPS lock, not plotting...");
+		}
+	}
 	
     //
-	// Plot a point in a track
+	// Plot a point in a payload's track. The waypoint always moves, but the
+	// track only gets the points its simplifier keeps.
 	//
-    public void plotPoint(double lat, double lon, int alt) throws OziException{
-		OziAPI.addTrackPoint(balloonTrack, new TrackPoint(false,new LatLon(lat, lon), alt));
-		OziAPI.deleteWaypoint(balloonCallsign);
-		OziAPI.addWaypoint(new Waypoint(balloonCallsign, 0, new LatLon(lat, lon)));
-		OziAPI.refreshMap();
+    public void plotPoint(PayloadTracker payload, double lat, double lon, int alt) {
+		TrackSimplifier simplifier = payload.simplifier;
+		if (simplifier.add(lat, lon, alt)) {
+			renderer.addTrackPoint(payload.track, simplifier.lat, simplifier.lon, simplifier.alt);
+		}
+		renderer.moveWaypoint(payload.callsign, lat, lon);
+	}
+
+	//
+	// Catch the payload tracks up with the latest positions, when the packets
+	// stop (e.g. after landing)
+	//
+	void flushTracks() {
+		for (PayloadTracker payload : payloads.values()) {
+			TrackSimplifier simplifier = payload.simplifier;
+			while (simplifier.flush()) {
+				renderer.addTrackPoint(payload.track, simplifier.lat, simplifier.lon, simplifier.alt);
+			}
+		}
 	}
 	
 	//
 	// Plot a waypoint
 	//
-    public void plotPoint(double lat, double lon) throws OziException {
-		OziAPI.addWaypoint(new Waypoint("?", 0, new LatLon(lat, lon)));
-		OziAPI.refreshMap();
+    public void plotPoint(double lat, double lon) {
+		renderer.moveWaypoint("?", lat, lon);
 	}
 	
 	//
 	// Play some beeps (print some bells chars)
 	//
 	public void beep(int beeps) {
-		for (int i=0; i<beeps; i++) {
-			System.out.print("\007");
-			System.out.flush();
-		}
+		char[] bells = new char[beeps];
+		Arrays.fill(bells, '\007');
+		Log.warn(new String(bells));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+////////////////////////////////////////////////////////////
+// OziSink.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// MapSink which drives OziExplorer through OziAPI.
+// Predictions are written to an OziExplorer track file
+// and loaded in one go, which is much faster than adding
+// the points one at a time.
+//
+////////////////////////////////////////////////////////////
+
+import com.oziexplorer.*;
+
+public class OziSink implements MapSink {
+
+	public boolean isAvailable() {
+		return OziAPI.findOzi();
+	}
+
+	public String getName() {
+		return "OziExplorer " + OziAPI.getOziVersion();
+	}
+
+	public void setupTrack(int track, String description, int width, int colour) throws Exception {
+		OziAPI.setTrackDescription(track, description);
+		OziAPI.setTrackWidth(track, width);
+		OziAPI.setTrackType(track, TrackType.LINE);
+		OziAPI.setTrackColor(track, colour); 
+		OziAPI.showTrack(track);
+		OziAPI.hideAllTracks(); OziAPI.showAllTracks(); 
+	}
+
+	public void addTrackPoint(int track, double lat, double lon, double alt) throws Exception {
+		OziAPI.addTrackPoint(track, new TrackPoint(false, new LatLon(lat, lon), alt));
+	}
+
+	public void loadTrack(int track, String description, int width, int colour, Trajectory points, String file) throws Exception {
+		long start = System.nanoTime();
+		writeTrackFile(file, description, width, colour, points);
+		Metrics.TRACKFILE_WRITE.recordSince(start);
+
+		start = System.nanoTime();
+		OziAPI.loadTrackFile(track, file);
+		Metrics.TRACKFILE_LOAD.recordSince(start);
+		OziAPI.showTrack(track);
+	}
+
+	//
+	// Write a trajectory out as an OziExplorer track file
+	//
+	static void writeTrackFile(String file, String description, int width, int colour, Trajectory points) throws Exception {
+		TrackFile trackFile = new TrackFile();
+		
+		trackFile.setTrackDesc(description);
+		trackFile.setTrackWidth(width);
+		trackFile.setTrackType(TrackType.LINE);
+		trackFile.setTrackColor(colour); 
+
+		for (int i = 0; i < points.size(); i++) {
+			trackFile.add(new TrackPoint(false, new LatLon(points.getLat(i), points.getLon(i)), points.getAlt(i)));
+		}
+
+		trackFile.write(file);
+	}
+
+	public void clearTrack(int track) throws Exception {
+		OziAPI.clearTrack(track);
+	}
+
+	public void addWaypoint(String name, double lat, double lon) throws Exception {
+		OziAPI.addWaypoint(new Waypoint(name, 0, new LatLon(lat, lon)));
+	}
+
+	public void deleteWaypoint(String name) throws Exception {
+		OziAPI.deleteWaypoint(name);
+	}
+
+	public void refresh() throws Exception {
+		OziAPI.refreshMap();
+	}
+
+	public void close() {
+	}
+}
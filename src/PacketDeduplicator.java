@@ -0,0 +1,265 @@
+////////////////////////////////////////////////////////////
+// PacketDeduplicator.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Sits between the receivers and the packet handler, for
+// when several ground stations forward the same payload.
+// A TELEMETRY packet is passed on the first time its
+// callsign, transmission time and position are seen, and
+// copies from other stations are dropped, so they are
+// never plotted twice or counted twice in the ascent rate.
+// The position tells apart frames sent within the same
+// second, from payloads transmitting faster than 1 Hz.
+//
+// With a reordering window, each packet is held for that
+// long after it arrives, and packets for a payload are
+// passed on in transmission time order. A packet arriving
+// after a later one has already gone is passed straight
+// on (the handler drops it as out of order).
+//
+// Memory is bounded: held packets live in a fixed pool of
+// buffers (when it runs out, the oldest are passed on
+// early), and only the last HISTORY frames for at most
+// MAX_CALLSIGNS payloads are remembered.
+//
+// Each source gets counters - packets, first (delivered a
+// packet before any other station) and duplicates - so we
+// can see which station is delivering first.
+//
+// Other packets (e.g. WAYPOINT) go straight through.
+//
+////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class PacketDeduplicator {
+
+	static final int HISTORY = 256;			// Frames remembered per payload
+	static final int MAX_CALLSIGNS = 64;
+	static final int SECONDS_PER_DAY = 86400;
+
+	static final AtomicLong DUPLICATES = Metrics.counter("packets.dropped.duplicate");
+	static final AtomicLong REORDERED = Metrics.counter("packets.reordered");
+
+	//
+	// Receives each packet that gets through, with when it was received
+	// (System.nanoTime())
+	//
+	interface Handler {
+		void handlePacket(byte[] packet, int length, long received);
+	}
+
+	//
+	// A held packet
+	//
+	static class Slot {
+		byte[] packet;
+		int length;
+		int time;			// Transmission second of day
+		long due;			// When to pass it on (ms)
+		long received;		// System.nanoTime() when it arrived
+	}
+
+	//
+	// What we know about one payload
+	//
+	static class Payload {
+		int[] seenTime = new int[HISTORY];
+		long[] seenFrame = new long[HISTORY];
+		int seenCount = 0, seenNext = 0;
+		ArrayList<Slot> held = new ArrayList<Slot>();	// In transmission time order
+		boolean released = false;
+		int lastReleased;
+
+		boolean seen(int time, long frame) {
+			for (int i = 0; i < seenCount; i++) {
+				if (seenTime[i] == time && seenFrame[i] == frame) return true;
+			}
+			return false;
+		}
+
+		void remember(int time, long frame) {
+			seenTime[seenNext] = time;
+			seenFrame[seenNext] = frame;
+			seenNext = (seenNext + 1) % HISTORY;
+			if (seenCount < HISTORY) seenCount++;
+		}
+	}
+
+	//
+	// Counters for one source
+	//
+	static class Source {
+		AtomicLong packets, first, duplicates;
+
+		Source(String name) {
+			packets = Metrics.counter("source." + name + ".packets");
+			first = Metrics.counter("source." + name + ".first");
+			duplicates = Metrics.counter("source." + name + ".duplicates");
+		}
+	}
+
+	Handler handler;
+	long window;		// ms, 0 to pass packets on as soon as they arrive
+
+	// Used only to find the callsign and time
+	TelemetryParser parser = new TelemetryParser();
+	TelemetryRecord record = new TelemetryRecord();
+
+	// Payloads by callsign, least recently heard first
+	LinkedHashMap<String, Payload> payloads = new LinkedHashMap<String, Payload>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, Payload> eldest) {
+			return size() > MAX_CALLSIGNS && eldest.getValue().held.isEmpty();
+		}
+	};
+
+	HashMap<String, Source> sources = new HashMap<String, Source>();
+
+	// Free buffers for held packets
+	ArrayList<Slot> free = new ArrayList<Slot>();
+	int heldCount = 0;
+
+	//
+	// Constructor. At most capacity packets (of up to maxPacketSize bytes) are held at once.
+	//
+	PacketDeduplicator(Handler handler, long window, int capacity, int maxPacketSize) {
+		this.handler = handler;
+		this.window = window;
+		if (window > 0) {
+			for (int i = 0; i < capacity; i++) {
+				Slot slot = new Slot();
+				slot.packet = new byte[maxPacketSize];
+				free.add(slot);
+			}
+		}
+	}
+
+	//
+	// A packet has arrived from a source (e.g. a station's address), at now
+	// (ms), or received by System.nanoTime()
+	//
+	void offer(byte[] packet, int length, String sourceName, long now, long received) {
+		Source source = sources.get(sourceName);
+		if (source == null) {
+			source = new Source(sourceName);
+			sources.put(sourceName, source);
+		}
+		source.packets.incrementAndGet();
+
+		if (!parser.parse(packet, length, record) || record.type != TelemetryRecord.TELEMETRY) {
+			handler.handlePacket(packet, length, received);
+			return;
+		}
+
+		String callsign = record.callsign != null ? record.callsign : "";
+		int time = record.secondOfDay();
+		long frame = frame(record);
+		Payload payload = payloads.get(callsign);
+		if (payload == null) {
+			payload = new Payload();
+			payloads.put(callsign, payload);
+		}
+
+		if (payload.seen(time, frame)) {
+			DUPLICATES.incrementAndGet();
+			source.duplicates.incrementAndGet();
+			return;
+		}
+		payload.remember(time, frame);
+		source.first.incrementAndGet();
+
+		// Not holding anything back, or too late to put in order
+		if (window <= 0 || (payload.released && compare(time, payload.lastReleased) < 0)) {
+			handler.handlePacket(packet, length, received);
+			return;
+		}
+
+		// Make room, by passing on whatever has been waiting longest
+		if (free.isEmpty()) release(earliestDue());
+
+		Slot slot = free.remove(free.size() - 1);
+		System.arraycopy(packet, 0, slot.packet, 0, length);
+		slot.length = length;
+		slot.time = time;
+		slot.due = now + window;
+		slot.received = received;
+
+		int i = payload.held.size();
+		while (i > 0 && compare(payload.held.get(i - 1).time, time) > 0) i--;
+		if (i < payload.held.size()) REORDERED.incrementAndGet();
+		payload.held.add(i, slot);
+		heldCount++;
+	}
+
+	//
+	// Pass on everything due by now, and anything sent before it
+	//
+	void release(long now) {
+		if (heldCount == 0) return;
+		for (Payload payload : payloads.values()) {
+			ArrayList<Slot> held = payload.held;
+			int last = -1;
+			for (int i = 0; i < held.size(); i++) {
+				if (held.get(i).due <= now) last = i;
+			}
+			for (int i = 0; i <= last; i++) {
+				Slot slot = held.get(i);
+				payload.released = true;
+				payload.lastReleased = slot.time;
+				handler.handlePacket(slot.packet, slot.length, slot.received);
+				free.add(slot);
+			}
+			if (last >= 0) {
+				held.subList(0, last + 1).clear();
+				heldCount -= last + 1;
+			}
+		}
+	}
+
+	//
+	// Pass on everything held (e.g. at the end of a replay)
+	//
+	void drain() {
+		release(Long.MAX_VALUE);
+	}
+
+	//
+	// ms until the next held packet is due (0 if overdue), or Long.MAX_VALUE if none are held
+	//
+	long timeToNext(long now) {
+		if (heldCount == 0) return Long.MAX_VALUE;
+		return Math.max(0, earliestDue() - now);
+	}
+
+	long earliestDue() {
+		long earliest = Long.MAX_VALUE;
+		for (Payload payload : payloads.values()) {
+			for (Slot slot : payload.held) earliest = Math.min(earliest, slot.due);
+		}
+		return earliest;
+	}
+
+	//
+	// Identifies a frame within its second: a hash of the position it reports
+	//
+	static long frame(TelemetryRecord record) {
+		long h = Double.doubleToLongBits(record.lat);
+		h = h * 31 + Double.doubleToLongBits(record.lon);
+		return h * 31 + record.alt;
+	}
+
+	//
+	// Compare two seconds of day, allowing for midnight
+	//
+	static int compare(int a, int b) {
+		int d = a - b;
+		if (d > SECONDS_PER_DAY / 2) d -= SECONDS_PER_DAY;
+		if (d < -SECONDS_PER_DAY / 2) d += SECONDS_PER_DAY;
+		return d;
+	}
+}
@@ -0,0 +1,103 @@
+////////////////////////////////////////////////////////////
+// PacketQueue.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Bounded hand-off from the packet sources (each on its
+// own thread) to the one thread which handles packets.
+//
+// Packets are copied into a fixed pool of buffers, which
+// go back to the pool once handled, so nothing is
+// allocated per packet. Adding a packet never blocks: if
+// the handler has fallen so far behind that the pool is
+// empty, the packet is dropped and counted, so a busy
+// source can slow the others down but never stall them.
+//
+////////////////////////////////////////////////////////////
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class PacketQueue {
+
+	static final AtomicLong DROPPED = Metrics.counter("packets.dropped.queueFull");
+
+	static class Packet {
+		byte[] data;
+		int length;
+		String source;		// Where it came from, e.g. a station's address
+		long time;			// When it was received (ms since 1970)
+		long received;		// and by System.nanoTime(), for latency
+	}
+
+	ArrayBlockingQueue<Packet> free;
+	ArrayBlockingQueue<Packet> ready;
+
+	//
+	// Constructor. Holds at most capacity packets, of up to maxPacketSize bytes.
+	//
+	PacketQueue(int capacity, int maxPacketSize) {
+		free = new ArrayBlockingQueue<Packet>(capacity);
+		ready = new ArrayBlockingQueue<Packet>(capacity);
+		for (int i = 0; i < capacity; i++) {
+			Packet packet = new Packet();
+			packet.data = new byte[maxPacketSize];
+			free.add(packet);
+		}
+	}
+
+	//
+	// Queue a copy of a packet. Returns false if it had to be dropped.
+	//
+	boolean put(byte[] data, int offset, int length, String source) {
+		Packet packet = take(source);
+		if (packet == null) return false;
+		packet.length = Math.min(length, packet.data.length);
+		System.arraycopy(data, offset, packet.data, 0, packet.length);
+		ready.add(packet);
+		return true;
+	}
+
+	//
+	// Queue a copy of what's left in a buffer
+	//
+	boolean put(ByteBuffer buffer, String source) {
+		Packet packet = take(source);
+		if (packet == null) return false;
+		packet.length = Math.min(buffer.remaining(), packet.data.length);
+		buffer.get(packet.data, 0, packet.length);
+		ready.add(packet);
+		return true;
+	}
+
+	//
+	// A free buffer, stamped with the source and the time now (by both clocks). Null (and
+	// counted as dropped) if there isn't one.
+	//
+	Packet take(String source) {
+		Packet packet = free.poll();
+		if (packet == null) {
+			DROPPED.incrementAndGet();
+			return null;
+		}
+		packet.source = source;
+		packet.time = System.currentTimeMillis();
+		packet.received = System.nanoTime();
+		return packet;
+	}
+
+	//
+	// The next packet, waiting up to timeout ms. Null if there isn't one.
+	// Pass it to recycle() once it has been handled.
+	//
+	Packet poll(long timeout) throws InterruptedException {
+		return ready.poll(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	void recycle(Packet packet) {
+		packet.source = null;
+		free.add(packet);
+	}
+}
@@ -0,0 +1,381 @@
+////////////////////////////////////////////////////////////
+// PacketSource.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Somewhere packets come from, configured in SOURCES as:
+//   udp:<port>              UDP packets (TELEMETRY/WAYPOINT)
+//   tcp:<port>              TCP connections to this port,
+//                           a packet per line
+//   tcp:<host>:<port>       connect out to a TCP line stream,
+//                           e.g. a serial port shared over TCP
+//   ukhas:<port>            as tcp, but the lines are UKHAS
+//   ukhas:<host>:<port>     $$ sentences, which are checked
+//                           and turned into TELEMETRY packets
+//
+// Every source (and every TCP connection) reads on its own
+// thread - a virtual thread where the runtime has them -
+// and copies what it reads into the shared PacketQueue, so
+// a slow or stuck peer only ever holds up itself.
+// Outgoing TCP connections are re-made if they drop.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+abstract class PacketSource {
+
+	// Wait this long (ms) before reconnecting
+	static final long RECONNECT_TIME = 5000;
+
+	// Thread.ofVirtual() and Thread.Builder, if this runtime has them (Java 21+)
+	static Method ofVirtual, builderName, builderUnstarted;
+
+	static {
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builder.getMethod("name", String.class);
+			builderUnstarted = builder.getMethod("unstarted", Runnable.class);
+		} catch (Exception e) {
+			ofVirtual = null;
+		}
+	}
+
+	//
+	// A virtual thread if possible, otherwise a daemon thread
+	//
+	static Thread newThread(String name, Runnable task) {
+		if (ofVirtual != null) {
+			try {
+				Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+				return (Thread)builderUnstarted.invoke(builder, task);
+			} catch (Exception e) {
+				// e.g. a preview release without --enable-preview
+				ofVirtual = null;
+			}
+		}
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	//
+	// Create a source from its SOURCES entry
+	//
+	static PacketSource create(String spec, PacketQueue queue, int maxPacketSize) {
+		String[] parts = spec.trim().split(":");
+		String kind = parts[0].toLowerCase();
+		PacketSource source;
+		if (kind.equals("udp") && parts.length == 2) {
+			source = new Udp(Integer.parseInt(parts[1].trim()), maxPacketSize);
+		} else if ((kind.equals("tcp") || kind.equals("ukhas")) && parts.length == 2) {
+			source = new TcpServer(Integer.parseInt(parts[1].trim()), kind.equals("ukhas"), maxPacketSize);
+		} else if ((kind.equals("tcp") || kind.equals("ukhas")) && parts.length == 3) {
+			source = new TcpClient(parts[1].trim(), Integer.parseInt(parts[2].trim()), kind.equals("ukhas"), maxPacketSize);
+		} else {
+			throw new IllegalArgumentException("Unknown packet source " + spec);
+		}
+		source.name = spec.trim();
+		source.queue = queue;
+		return source;
+	}
+
+	String name;
+	PacketQueue queue;
+	volatile boolean closed = false;
+
+	//
+	// Bind or listen, so a bad port shows up at startup
+	//
+	abstract void open() throws IOException;
+
+	//
+	// Read until closed, on the source's own thread
+	//
+	abstract void receive() throws IOException;
+
+	abstract void close();
+
+	//
+	// Start reading
+	//
+	void start() {
+		newThread(name, new Runnable() {
+			public void run() {
+				try {
+					receive();
+				} catch (IOException e) {
+					if (!closed) Log.error(name + " stopped!", e);
+				}
+			}
+		}).start();
+	}
+
+	//
+	// UDP datagrams, one packet each, received straight into a direct buffer
+	//
+	static class Udp extends PacketSource {
+		int port;
+		int maxPacketSize;
+		DatagramChannel channel;
+
+		Udp(int port, int maxPacketSize) {
+			this.port = port;
+			this.maxPacketSize = maxPacketSize;
+		}
+
+		void open() throws IOException {
+			channel = DatagramChannel.open();
+			channel.socket().bind(new InetSocketAddress(port));
+		}
+
+		void receive() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(maxPacketSize);
+			SocketAddress lastAddress = null;
+			String lastName = null;
+			while (!closed) {
+				buffer.clear();
+				SocketAddress from = channel.receive(buffer);
+				buffer.flip();
+
+				if (!from.equals(lastAddress)) {
+					lastAddress = from;
+					lastName = sourceName(from);
+				}
+				queue.put(buffer, lastName);
+			}
+		}
+
+		//
+		// Name a station by its address (not its port, which may change)
+		//
+		static String sourceName(SocketAddress address) {
+			if (address instanceof InetSocketAddress) {
+				InetAddress host = ((InetSocketAddress)address).getAddress();
+				if (host != null) return host.getHostAddress();
+			}
+			return address.toString();
+		}
+
+		void close() {
+			closed = true;
+			try {
+				if (channel != null) channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	//
+	// Incoming TCP connections, each read on its own thread
+	//
+	static class TcpServer extends PacketSource {
+		int port;
+		boolean ukhas;
+		int maxPacketSize;
+		ServerSocket server;
+
+		// Open connections, closed along with the server
+		Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+		TcpServer(int port, boolean ukhas, int maxPacketSize) {
+			this.port = port;
+			this.ukhas = ukhas;
+			this.maxPacketSize = maxPacketSize;
+		}
+
+		void open() throws IOException {
+			server = new ServerSocket(port);
+		}
+
+		void receive() throws IOException {
+			while (!closed) {
+				final Socket socket = server.accept();
+				connections.add(socket);
+				if (closed) {
+					socket.close();
+					return;
+				}
+				final String peer = socket.getInetAddress().getHostAddress();
+				Log.info(name + ": connection from " + peer);
+				newThread(name + " " + peer, new Runnable() {
+					public void run() {
+						try {
+							new LineReader(queue, peer, ukhas, maxPacketSize).read(socket.getInputStream());
+						} catch (IOException e) {
+							if (!closed) Log.warn(name + ": " + peer + " " + e.getMessage());
+						} finally {
+							connections.remove(socket);
+							try {
+								socket.close();
+							} catch (IOException ignored) {
+							}
+						}
+						if (!closed) Log.info(name + ": " + peer + " disconnected");
+					}
+				}).start();
+			}
+		}
+
+		void close() {
+			closed = true;
+			try {
+				if (server != null) server.close();
+			} catch (IOException ignored) {
+			}
+			for (Socket socket : connections) {
+				try {
+					socket.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	//
+	// An outgoing TCP connection, re-made whenever it drops
+	//
+	static class TcpClient extends PacketSource {
+		String host;
+		int port;
+		boolean ukhas;
+		int maxPacketSize;
+		volatile Socket socket;
+
+		TcpClient(String host, int port, boolean ukhas, int maxPacketSize) {
+			this.host = host;
+			this.port = port;
+			this.ukhas = ukhas;
+			this.maxPacketSize = maxPacketSize;
+		}
+
+		void open() {
+			// Connected on the source's thread, so an absent peer doesn't hold up startup
+		}
+
+		void receive() throws IOException {
+			while (!closed) {
+				try {
+					socket = new Socket();
+					socket.connect(new InetSocketAddress(host, port), (int)RECONNECT_TIME);
+					Log.info(name + ": connected");
+					new LineReader(queue, name, ukhas, maxPacketSize).read(socket.getInputStream());
+					if (!closed) Log.warn(name + ": connection closed, reconnecting");
+				} catch (IOException e) {
+					if (closed) return;
+					Log.warn(name + ": " + e.getMessage() + ", retrying");
+				} finally {
+					socket.close();
+				}
+
+				try {
+					Thread.sleep(RECONNECT_TIME);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		void close() {
+			closed = true;
+			try {
+				Socket s = socket;
+				if (s != null) s.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	//
+	// Splits a stream into lines, and queues each line as a packet
+	//
+	static class LineReader {
+		PacketQueue queue;
+		String source;
+		boolean ukhas;
+		byte[] line;
+		int length = 0;
+		boolean overflow = false;
+
+		LineReader(PacketQueue queue, String source, boolean ukhas, int maxPacketSize) {
+			this.queue = queue;
+			this.source = source;
+			this.ukhas = ukhas;
+			this.line = new byte[maxPacketSize];
+		}
+
+		//
+		// Read until the end of the stream
+		//
+		void read(InputStream in) throws IOException {
+			byte[] buf = new byte[4096];
+			int read;
+			while ((read = in.read(buf)) >= 0) {
+				for (int i = 0; i < read; i++) {
+					byte b = buf[i];
+					if (b == '\n') {
+						line();
+					} else if (length < line.length) {
+						line[length++] = b;
+					} else {
+						overflow = true;
+					}
+				}
+			}
+		}
+
+		void line() {
+			int end = TelemetryParser.trimmedLength(line, length);
+			if (overflow) {
+				Metrics.PACKETS_MALFORMED.incrementAndGet();
+				Log.warn(source + ": line too long, ignored");
+			} else if (end > 0 && ukhas) {
+				byte[] packet = ukhasToTelemetry(line, end);
+				if (packet != null) {
+					queue.put(packet, 0, packet.length, source);
+				} else {
+					Metrics.PACKETS_MALFORMED.incrementAndGet();
+					Log.warn(source + ": bad sentence " + new String(line, 0, end, StandardCharsets.ISO_8859_1));
+				}
+			} else if (end > 0) {
+				queue.put(line, 0, end, source);
+			}
+			length = 0;
+			overflow = false;
+		}
+	}
+
+	//
+	// Turn a UKHAS sentence ($$CALLSIGN,id,HH:MM:SS,lat,lon,alt,...*CRC16)
+	// into a TELEMETRY packet. Returns null if it doesn't check out.
+	//
+	static byte[] ukhasToTelemetry(byte[] data, int length) {
+		// Some decoders send more than two $s
+		int start = 0;
+		while (start + 2 < length && data[start] == '$' && data[start + 1] == '$' && data[start + 2] == '$') start++;
+		if (!Checksum.validate(data, start, length - start)) return null;
+
+		int bodyStart = start + 1;
+		while (bodyStart < length && data[bodyStart] == '$') bodyStart++;
+		int star = length - 1;
+		while (star > bodyStart && data[star] != '*') star--;
+		String[] fields = new String(data, bodyStart, star - bodyStart, StandardCharsets.ISO_8859_1).split(",");
+		if (fields.length < 6 || fields[0].length() == 0) return null;
+
+		String time = fields[2].trim();
+		if (time.length() == 6 && time.indexOf(':') < 0) {
+			time = time.substring(0, 2) + ":" + time.substring(2, 4) + ":" + time.substring(4);
+		}
+		String telemetry = "TELEMETRY," + time + "," + fields[3].trim() + "," + fields[4].trim() + ","
+				+ fields[5].trim() + "," + fields[0].trim();
+		return telemetry.getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
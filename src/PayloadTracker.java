@@ -0,0 +1,47 @@
+////////////////////////////////////////////////////////////
+// PayloadTracker.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Holds the tracking state for a single payload callsign:
+// its OziExplorer track (and its simplifier), descent
+// detection state, rate estimator, and its own Predictor
+// and PredictionScheduler.
+//
+// Each payload predicts on its own scheduler thread, so a
+// payload sending lots of packets only ever has one
+// prediction cycle queued, and can't hold up the others.
+//
+////////////////////////////////////////////////////////////
+
+class PayloadTracker {
+
+	String callsign;
+	int track;
+
+	// Tracking vars
+	int lastAlt = 0;
+	long lastPredUpdate = 0;
+	long lastPredTime = 0;
+	boolean descent = false;
+
+	Predictor predictor;
+	PredictionScheduler scheduler;
+
+	// Shared with the predictor
+	RateEstimator rates;
+
+	// Thins out the live track (receive thread only)
+	TrackSimplifier simplifier = new TrackSimplifier(0, 1);
+
+	//
+	// Constructor
+	//
+	PayloadTracker(String callsign, int track, Predictor predictor) {
+		this.callsign = callsign;
+		this.track = track;
+		this.predictor = predictor;
+		this.rates = predictor.rates;
+		this.scheduler = new PredictionScheduler(predictor, callsign);
+	}
+}
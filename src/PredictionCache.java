@@ -0,0 +1,188 @@
+////////////////////////////////////////////////////////////
+// PredictionCache.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Predictor backend which remembers recent predictions,
+// keyed on the launch state quantized to configurable
+// tolerances, and the wind dataset in use. While floating,
+// or when telemetry is sparse, successive scenarios fall in
+// the same buckets, and the previous trajectory is reused -
+// shifted by the small difference in position and time -
+// instead of being computed again.
+//
+// Holds at most a fixed number of trajectories, dropping
+// the least recently used. Thread safe.
+//
+////////////////////////////////////////////////////////////
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PredictionCache implements PredictorBackend {
+
+	// Metres per degree of latitude
+	static final double METRES_PER_DEGREE = 111320.0;
+
+	static final AtomicLong HITS = Metrics.counter("prediction.cache.hits");
+	static final AtomicLong MISSES = Metrics.counter("prediction.cache.misses");
+
+	PredictorBackend backend;
+
+	// Used to identify the wind dataset, null if unknown
+	WindField wind;
+
+	// Tolerances (bucket sizes)
+	double positionTolerance = 50;		// m
+	double altitudeTolerance = 20;		// m
+	double rateTolerance = 0.2;			// m/s
+	long timeTolerance = 300;			// s
+
+	final int capacity;
+	final LinkedHashMap<Key, Entry> entries;
+
+	//
+	// Constructor
+	//
+	public PredictionCache(PredictorBackend backend, WindField wind, int capacity) {
+		this.backend = backend;
+		this.wind = wind;
+		this.capacity = capacity;
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > PredictionCache.this.capacity;
+			}
+		};
+	}
+
+	//
+	// Set the bucket sizes. A scenario within these of a cached one (and in the same bucket) is a hit.
+	//
+	public void setTolerances(double position, double altitude, double rate, long time) {
+		positionTolerance = position;
+		altitudeTolerance = altitude;
+		rateTolerance = rate;
+		timeTolerance = time;
+	}
+
+	public String getName() {
+		return backend.getName();
+	}
+
+	public Trajectory predict(Scenario scenario) throws Exception {
+		return predict(scenario, null);
+	}
+
+	public Trajectory predict(Scenario scenario, TrajectoryListener listener) throws Exception {
+		Key key = key(scenario, wind != null ? wind.currentSignature() : "");
+
+		Entry cached;
+		synchronized (this) {
+			cached = entries.get(key);
+		}
+
+		if (cached != null) {
+			HITS.incrementAndGet();
+			Log.debug("Prediction cache hit.");
+			return translate(cached.trajectory, cached.scenario, scenario);
+		}
+
+		// Predict outside the lock, so other payloads aren't held up
+		MISSES.incrementAndGet();
+		Trajectory trajectory = backend.predict(scenario, listener);
+		if (trajectory.size() > 0) {
+			synchronized (this) {
+				entries.put(key, new Entry(scenario, trajectory));
+			}
+		}
+		return trajectory;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	//
+	// Quantize a scenario into its cache key
+	//
+	Key key(Scenario s, String dataset) {
+		double latStep = positionTolerance / METRES_PER_DEGREE;
+		long latBucket = bucket(s.latitude, latStep);
+		double lonStep = latStep / Math.max(0.01, Math.cos(Math.toRadians(latBucket * latStep)));
+
+		return new Key(latBucket, bucket(s.longitude, lonStep), bucket(s.altitude, altitudeTolerance),
+				Math.floorDiv(s.launchTime, Math.max(1, timeTolerance)),
+				bucket(s.ascentRate, rateTolerance), bucket(s.descentRate, rateTolerance),
+				bucket(s.burstAltitude, altitudeTolerance), s.descent, Double.doubleToLongBits(s.windError), dataset);
+	}
+
+	static long bucket(double value, double step) {
+		return step > 0 ? (long)Math.floor(value / step) : Double.doubleToLongBits(value);
+	}
+
+	//
+	// Shift a cached trajectory from the scenario it was computed for to a nearby one
+	//
+	static Trajectory translate(Trajectory t, Scenario from, Scenario to) {
+		double dLat = to.latitude - from.latitude;
+		double dLon = to.longitude - from.longitude;
+		long dTime = to.launchTime - from.launchTime;
+
+		Trajectory shifted = new Trajectory(Math.max(1, t.size()));
+		for (int i = 0; i < t.size(); i++) {
+			shifted.add(t.getTime(i) + dTime, t.getLat(i) + dLat, t.getLon(i) + dLon, t.getAlt(i));
+		}
+		return shifted;
+	}
+
+	static class Entry {
+		final Scenario scenario;
+		final Trajectory trajectory;
+
+		Entry(Scenario scenario, Trajectory trajectory) {
+			this.scenario = scenario;
+			this.trajectory = trajectory;
+		}
+	}
+
+	static class Key {
+		final long lat, lon, alt, time, ascent, descent, burst, windError;
+		final boolean falling;
+		final String dataset;
+
+		Key(long lat, long lon, long alt, long time, long ascent, long descent, long burst, boolean falling, long windError, String dataset) {
+			this.lat = lat;
+			this.lon = lon;
+			this.alt = alt;
+			this.time = time;
+			this.ascent = ascent;
+			this.descent = descent;
+			this.burst = burst;
+			this.falling = falling;
+			this.windError = windError;
+			this.dataset = dataset;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return lat == k.lat && lon == k.lon && alt == k.alt && time == k.time
+					&& ascent == k.ascent && descent == k.descent && burst == k.burst
+					&& falling == k.falling && windError == k.windError && dataset.equals(k.dataset);
+		}
+
+		public int hashCode() {
+			long h = lat;
+			h = h * 31 + lon;
+			h = h * 31 + alt;
+			h = h * 31 + time;
+			h = h * 31 + ascent;
+			h = h * 31 + descent;
+			h = h * 31 + burst;
+			h = h * 31 + windError;
+			h = h * 31 + (falling ? 1 : 0);
+			return (int)(h ^ (h >>> 32)) * 31 + dataset.hashCode();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+////////////////////////////////////////////////////////////
+// PredictionScheduler.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Runs predictions on a dedicated thread, so the UDP
+// receive loop never waits on the predictor.
+//
+// Requests are coalesced, latest-wins: if a prediction is
+// already running when a new request arrives, one more run
+// is queued, which will pick up the newest Predictor state
+// when it starts. Any further requests made while that run
+// is queued are folded into it.
+//
+////////////////////////////////////////////////////////////
+
+class PredictionScheduler extends Thread {
+
+	Predictor predictor;
+
+	// Guarded by this
+	boolean pending = false;
+	boolean running = false;
+	boolean stopped = false;
+
+	// Statistics
+	volatile long requests = 0;
+	volatile long runs = 0;
+
+	//
+	// Constructor
+	//
+	PredictionScheduler(Predictor predictor, String name) {
+		super("PredictionScheduler-" + name);
+		this.predictor = predictor;
+		setDaemon(true);
+		start();
+	}
+
+	//
+	// Ask for a prediction with the latest state. Never blocks.
+	//
+	public synchronized void request() {
+		requests++;
+		pending = true;
+		notifyAll();
+	}
+
+	//
+	// Is a prediction currently running?
+	//
+	public synchronized boolean isBusy() {
+		return running;
+	}
+
+	//
+	// Wait until no prediction is running or queued
+	//
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (pending || running) wait();
+	}
+
+	//
+	// Stop the scheduler after any current run
+	//
+	public synchronized void shutdown() {
+		stopped = true;
+		notifyAll();
+	}
+
+	//
+	// Worker loop
+	//
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (!pending && !stopped) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (stopped) return;
+				pending = false;
+				running = true;
+			}
+
+			try {
+				predictor.runPredictions();
+			} catch (Exception e) {
+				Metrics.PREDICTIONS_FAILED.incrementAndGet();
+				Log.error("Prediction failed!", e);
+			}
+
+			synchronized (this) {
+				running = false;
+				runs++;
+				notifyAll();
+			}
+		}
+	}
+}
@@ -8,8 +8,9 @@
 // vk5qi@rfhead.net
 //
 // This class is responsible for calculating predictions 
-// via the external CUSF predictor binary and rendering
-// a prediction track in OziExplorer
+// via a PredictorBackend (the in-process TrajectoryEngine,
+// or the external CUSF predictor binary) and rendering
+// a prediction track on the map (OziExplorer, or another MapSink)
 //
 // Updated in 2016-12 to add abort predictions.
 // - Mark Jessop
@@ -24,7 +25,7 @@ import java.io.*;
 import java.lang.Math;
 import java.util.Calendar;
 import java.util.TimeZone;
-import com.oziexplorer.*;
+import java.util.concurrent.*;
 
 public class Predictor {
 
@@ -54,17 +55,76 @@ public class Predictor {
 	int abortTrackNumber;
 	int abortTrackColour = 255; // Solid Red.
 	
-	// What to execute when running the predictor (wtf windows paths)
-	String command = "pred.exe -i ..\\gfs";
+	// Ensemble Track
+	int currentEnsembleTrack;
+	int ensembleTrackNumber;
+	int ensembleTrackColour = 0x00ffff; // Yellow.
+
+	// Backend used to compute the flight path
+	PredictorBackend backend;
+
+	// Batches waypoint changes and map refreshes
+	MapRenderer renderer;
+
+	// Where prediction tracks are drawn
+	MapSink sink;
+
+	// Monte Carlo landing ensemble, null if disabled
+	EnsemblePredictor ensemble;
+
+	// Used to work out the sea level descent rate
+	Atmosphere atmosphere = Atmosphere.STANDARD;
+
+	// Ascent/descent rate, fed with every position by the receive loop
+	RateEstimator rates = new RateEstimator(15, 64);
+
+	// Prediction tracks are simplified to within this many metres (0 to plot every point)
+	double trackTolerance = 0;
+
+	// A prediction within this many metres of the one on the map isn't redrawn (0 to always redraw)
+	double redrawDistance = 0;
+
+	// What's on the map now (null if nothing), and whether the ascent of this
+	// cycle's nominal prediction has already replaced it
+	Trajectory nominalShown, abortShown;
+	boolean ascentShown = false;
+
+	// Runs the nominal, abort and ensemble predictions in parallel.
+	// Shared by all payloads - at least three workers, and one per core
+	// beyond that, with a small bounded queue. If the queue ever fills,
+	// the caller runs the prediction itself.
+	static final ExecutorService executor = new ThreadPoolExecutor(
+			Math.max(3, Runtime.getRuntime().availableProcessors()),
+			Math.max(3, Runtime.getRuntime().availableProcessors()),
+			60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(16),
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Predictor");
+					t.setDaemon(true);
+					return t;
+				}
+			},
+			new ThreadPoolExecutor.CallerRunsPolicy());
+
+	// All map sink calls are serialised on this, as they can
+	// come from the prediction threads and the renderer at once
+	static final Object plotLock = new Object();
 	
 	String prediction_file = System.getProperty("user.dir") + File.separator + "predict.plt";
 	String abort_file = System.getProperty("user.dir") + File.separator + "abort.plt";	
+	String ensemble_file = System.getProperty("user.dir") + File.separator + "ensemble.plt";
+
+	// Appended to waypoint names, so several payloads can be predicted at once
+	String waypointSuffix = "";
 
 	//
 	// Constructor
 	// Pass in all default (configured) values
 	//
-	public Predictor(double asc, double desc, int burst, int track, int colour, int width) {
+	public Predictor(PredictorBackend backend, MapRenderer renderer, double asc, double desc, int burst, int track, int colour, int width) {
+		this.backend = backend;
+		this.renderer = renderer;
+		this.sink = renderer.sink;
 		defaultAscentRate = asc;
 		defaultDescentRate = desc;
 		burstAltitude = burst;
@@ -76,20 +136,75 @@ public class Predictor {
 		// Abort Track Additions
 		abortTrackNumber = track + 2;
 		currentAbortTrack = abortTrackNumber;
-		
+
+		// Ensemble Track Additions
+		ensembleTrackNumber = track + 4;
+		currentEnsembleTrack = ensembleTrackNumber;
 	}
 	
+	//
+	// Name this predictor's waypoints and track files after a payload callsign
+	//
+	public void setCallsign(String callsign) {
+		String dir = System.getProperty("user.dir") + File.separator;
+		waypointSuffix = "-" + callsign;
+		prediction_file = dir + "predict_" + callsign + ".plt";
+		abort_file = dir + "abort_" + callsign + ".plt";
+		ensemble_file = dir + "ensemble_" + callsign + ".plt";
+	}
+
+	//
+	// Enable the Monte Carlo landing ensemble
+	//
+	public void setEnsemble(EnsemblePredictor ensemble) {
+		this.ensemble = ensemble;
+	}
+
+	//
+	// Use a non-standard atmosphere (e.g. with a temperature offset)
+	//
+	public void setAtmosphere(Atmosphere atmosphere) {
+		this.atmosphere = atmosphere;
+	}
+
+	//
+	// Share a rate estimator with the payload's burst detection
+	//
+	public void setRateEstimator(RateEstimator rates) {
+		this.rates = rates;
+	}
+
+	//
+	// Simplify prediction tracks to within a tolerance (m)
+	//
+	public void setTrackTolerance(double tolerance) {
+		this.trackTolerance = tolerance;
+	}
+
+	//
+	// Skip redrawing predictions which moved less than a distance (m)
+	//
+	public void setRedrawDistance(double distance) {
+		this.redrawDistance = distance;
+	}
+
+	//
+	// Is a new track close enough to the one on the map to leave the map alone?
+	//
+	boolean unchanged(Trajectory track, Trajectory shown, boolean complete) {
+		if (redrawDistance <= 0 || shown == null) return false;
+		if (track.distanceFrom(shown, complete) >= redrawDistance) return false;
+		Metrics.PREDICTIONS_UNCHANGED.incrementAndGet();
+		return true;
+	}
+
 	//
 	// Update this object
 	//
-	public void update(double lat, double lon, int alt, int hour, int minute, int second) {
+	public synchronized void update(double lat, double lon, int alt, int hour, int minute, int second) {
 		
-		// Work out the times
-		int time = (hour * 3600) + (minute * 60) + second;
-		int lastTime = (currentHour * 3600) + (currentMinute * 60) + currentSecond;
-		
-		// Compute asc rate
-		currentAscentRate = Math.round((float)(alt - currentAltitude)/(time - lastTime) * 10.0)/10.0;
+		// Asc rate over the recent samples
+		currentAscentRate = rates.getRoundedRate();
 		
 		// Have we entered descent mode?
 		if (alt < currentAltitude - 100) descent = true;
@@ -105,365 +220,357 @@ public class Predictor {
 		currentMinute = minute;
 		currentSecond = second;	
 		
-		System.out.println("\nPredictor updated...");
+		Log.debug("Predictor updated...");
 	}
 	
 	//
-	// Run & plot predictions
+	// Build the scenario for the current state
 	//
-	public void runPredictions() throws Exception {
-		
-		// Internal variables
-		String outputLine;
-		boolean drawnBurstWaypoint = false;
-		double pointLat = 0, pointLon = 0, pointAlt = 0, lastPointAlt = 0;
-		
-		// Default asc/desc
-		double descRate = defaultDescentRate;
-		double ascRate = defaultDescentRate;
-		
+	Scenario buildScenario(double ascRate, double descRate, int burst) {
+
 		// Work out the date etc
 		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
-		//Calendar cal_Two = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-		int day = cal.get(Calendar.DATE);
-		int month = cal.get(Calendar.MONTH) + 1;
-		int year = cal.get(Calendar.YEAR);
-		
-		// Work out if we should use the default asc rate,
-		// the asc rate fed in, or if we need to calculate a desc rate
-		if (descent) {
+		cal.set(Calendar.HOUR_OF_DAY, currentHour);
+		cal.set(Calendar.MINUTE, currentMinute);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+
+		return new Scenario(currentLatitude, currentLongitude, currentAltitude, cal.getTimeInMillis() / 1000L,
+				ascRate, descRate, burst, descent, 0);
+	}
+
+	//
+	// Print out a scenario before running it
+	//
+	void printScenario(Scenario s) {
+		if (!Log.enabled(Log.DEBUG)) return;
+		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.setTimeInMillis(s.launchTime * 1000L);
+
+		StringBuilder text = new StringBuilder();
+		text.append(" * Latitude: " + s.latitude + "\n");
+		text.append(" * Longitude: " + s.longitude + "\n");
+		text.append(" * Altitude: " + s.altitude + " m\n");
+		if (!s.descent) text.append(" * Ascent rate: " + s.ascentRate + " m/s\n");
+		text.append(" * Descent rate: " + s.descentRate  + " m/s\n");
+		if (!s.descent) text.append(" * Burst altitude: " + s.burstAltitude + " m\n");
+		text.append(" * Time: " + String.format("%02d", cal.get(Calendar.HOUR_OF_DAY)) + ":" + String.format("%02d", cal.get(Calendar.MINUTE))
+				+ " " + cal.get(Calendar.DATE) + "/" + (cal.get(Calendar.MONTH) + 1) + "/" + cal.get(Calendar.YEAR));
+		Log.debug(text.toString());
+	}
+
+	//
+	// Run & plot predictions
+	//
+	// The nominal and abort predictions share the same launch state,
+	// so they are run in parallel, and each is plotted as soon as it
+	// completes. Returns once both have been plotted.
+	//
+	public void runPredictions() throws Exception {
 		
-			// Payload is falling,
-			// calculate sea level desc rate
-			descRate = Math.round(Atmosphere.seaLevelDescentRate(currentAscentRate, currentAltitude)*10.0)/10.0;
-			
-			// Don't bother running a prediction if desc rate is slower than -1 m/s, we must have landed
-			if (descRate < 1) return;
+		final Scenario nominal;
+		final Scenario abort;
+
+		// Take a consistent snapshot of our state, so a concurrent update() can't tear it
+		synchronized (this) {
+
+			// Default asc/desc
+			double descRate = defaultDescentRate;
+			double ascRate = defaultDescentRate;
 			
-			// Switch to descent mode
-			//command = command + " -d";
+			// Work out if we should use the default asc rate,
+			// the asc rate fed in, or if we need to calculate a desc rate
+			if (descent) {
 			
-		} else if (currentAscentRate <= 0.5) {	
-			// This is unlikely to occur (probably not launched yet),
-			// use the default asc rate as per config
-			ascRate = defaultAscentRate;
-		} else if (currentAscentRate > 0.5) {
-			// This seems like a sensible ascent rate, lets use it
-			ascRate = currentAscentRate;
+				// Payload is falling,
+				// calculate sea level desc rate
+				descRate = Math.round(Math.abs(currentAscentRate) * atmosphere.descentCorrection(currentAltitude)*10.0)/10.0;
+				
+				// Don't bother running a prediction if desc rate is slower than -1 m/s, we must have landed
+				if (descRate < 1) return;
+				
+			} else if (currentAscentRate <= 0.5) {	
+				// This is unlikely to occur (probably not launched yet),
+				// use the default asc rate as per config
+				ascRate = defaultAscentRate;
+			} else if (currentAscentRate > 0.5) {
+				// This seems like a sensible ascent rate, lets use it
+				ascRate = currentAscentRate;
+			}
+
+			nominal = buildScenario(ascRate, descRate, burstAltitude);
+
+			// Only run the abort prediction while we are still ascending.
+			// Set the abort track burst altitude to the current altitude plus 60 seconds of rise time.
+			if (!descent && currentAltitude < burstAltitude) {
+				abort = nominal.withBurstAltitude(currentAltitude + (int)(60*ascRate));
+			} else {
+				abort = null;
+			}
 		}
 	
-		// Fire up the predictor binary
-		Process predictor;
-		if (descent) {
-			predictor = Runtime.getRuntime().exec(command + " -d"); 
+		// Some debug output
+		if (nominal.descent) {
+			Log.info("Running predictor (" + backend.getName() + ", descent mode):");
 		} else {
-			predictor = Runtime.getRuntime().exec(command);
+			Log.info("Running predictor (" + backend.getName() + "):");
+		}
+		printScenario(nominal);
+		if (abort != null) {
+			Log.info("Running predictor for Abort Track (" + backend.getName() + ").");
+			printScenario(abort);
 		}
 
-		// We need to handle STDOUT and STDERR in their own threads to avoid deadlocking
-		// as BufferedReader calls are blocking - we use InputStreamHandler to do this
-
-		// STDOUT
-		StringBuffer inBuffer = new StringBuffer();
-		InputStream inStream = predictor.getInputStream();
-		new InputStreamHandler(inBuffer, inStream);
+		// Submit both runs
+		Future<?> nominalRun = executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				long start_time = System.currentTimeMillis();
+				long start = System.nanoTime();
+				Trajectory trajectory = backend.predict(nominal, new TrajectoryListener() {
+					public void ascentComplete(Trajectory partial, int burstIndex) throws Exception {
+						plotAscent(nominal, partial, burstIndex);
+					}
+				});
+				Log.info("Predictor Finished in " + (System.currentTimeMillis() - start_time) + " ms. Writing Prediction Track.");
+				plotPrediction(nominal, trajectory);
+				Metrics.PREDICTION_NOMINAL.recordSince(start);
+				return null;
+			}
+		});
 
-		// STDERR
-		StringBuffer errBuffer = new StringBuffer();
-		InputStream errStream = predictor.getErrorStream();
-		new InputStreamHandler(errBuffer, errStream);
-		
-		// Some debug output
-		long start_time = System.currentTimeMillis()/1000;
-		if (descent) {
-			System.out.println("\nRunning predictor (descent mode):");
+		Future<?> abortRun = null;
+		if (abort != null) {
+			abortRun = executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					long start_time = System.currentTimeMillis();
+					long start = System.nanoTime();
+					Trajectory trajectory = backend.predict(abort);
+					Log.info("Abort Predictor Finished in " + (System.currentTimeMillis() - start_time) + " ms. Writing Abort Track.");
+					plotAbortPrediction(abort, trajectory);
+					Metrics.PREDICTION_ABORT.recordSince(start);
+					return null;
+				}
+			});
 		} else {
-			System.out.println("\nRunning predictor:");
+			synchronized (plotLock) {
+				renderer.deleteWaypoint("ABORT" + waypointSuffix);
+				sink.clearTrack(abortTrackNumber);
+				sink.clearTrack(abortTrackNumber+1);
+				abortShown = null;
+			}
 		}
-		System.out.println(" * Latitude: " + currentLatitude);
-		System.out.println(" * Longitude: " + currentLongitude);
-		System.out.println(" * Altitude: " + currentAltitude + " m");
-		if (!descent) System.out.println(" * Ascent rate: " + ascRate + " m/s");
-		System.out.println(" * Descent rate: " + descRate  + " m/s");
-		if (!descent) System.out.println(" * Burst altitude: " + burstAltitude + " m");
-		System.out.println(" * Time: " + String.format("%02d", currentHour) + ":" + String.format("%02d", currentMinute) + " " + day + "/" + month + "/" + year);
-		
-		// Feed in the scenario
-		OutputStreamWriter predictorInput = new OutputStreamWriter(predictor.getOutputStream());
-		
-		predictorInput.write("[launch-site]\n");
-		predictorInput.write("latitude = " + currentLatitude + "\n");
-		predictorInput.write("altitude = " + currentAltitude + "\n");
-		predictorInput.write("longitude =" + currentLongitude + "\n");
-		
-		predictorInput.write("[atmosphere]\n");
-		predictorInput.write("wind-error = 0\n");
-		predictorInput.write("[altitude-model]\n");
-		
-		predictorInput.write("ascent-rate = " + ascRate + "\n");
-		predictorInput.write("descent-rate = " + descRate + "\n");
-		predictorInput.write("burst-altitude = " + burstAltitude + "\n");
-		
-		predictorInput.write("[launch-time]\n");
-		predictorInput.write("hour = " + currentHour + "\n");
-		predictorInput.write("month = " + month + "\n");
-		predictorInput.write("second = 0\n");
-		predictorInput.write("year = " + year + "\n");
-		predictorInput.write("day = " + day + "\n");
-		predictorInput.write("minute = " + currentMinute + "\n");
-		
-		predictorInput.flush();
-		predictorInput.close();
 
-		// Let the predictor run its course
-		predictor.waitFor();
-		System.out.println("Predictor Finished. Writing Oziexplorer Track.");
-
-		long stop_time = System.currentTimeMillis()/1000;
-		System.out.println("Prediction run time (s): " + (stop_time-start_time));
-		
-		// Clear any previous predictions & reset the track, delete waypoints from previous predictions
-		OziAPI.deleteWaypoint("BURST");
-		OziAPI.deleteWaypoint("LANDING");
-		
-		
-		TrackFile predict_track = new TrackFile();
-		
-		predict_track.setTrackDesc("OziPlotter prediction track");
-		predict_track.setTrackWidth(trackWidth);
-		predict_track.setTrackType(TrackType.LINE);
-		predict_track.setTrackColor(trackColour); 
-		
-		// Plot our current position
-		predict_track.add(new TrackPoint(false,new LatLon(currentLatitude, currentLongitude), currentAltitude));
-
-		// Read the datapoints from the predictor
-		BufferedReader predictorOutput = new BufferedReader(new StringReader(inBuffer.toString()));
-		while ((outputLine = predictorOutput.readLine ()) != null) {
-			
-			// Try to process the output as valid coords
-			try {
-				String[] pointData = outputLine.split(",");
-				pointAlt = Double.parseDouble(pointData[3]);
-				
-				// Check if we've passed the highest point, if so plot a way point
-				if (pointAlt < lastPointAlt && !descent && !drawnBurstWaypoint) {
-						drawnBurstWaypoint = true;
-						OziAPI.addWaypoint(new Waypoint("BURST", 0, new LatLon(pointLat, pointLon)));
+		Future<?> ensembleRun = null;
+		if (ensemble != null) {
+			ensembleRun = executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					long start = System.nanoTime();
+					EnsemblePredictor.Result result = ensemble.run(nominal);
+					Log.info("Ensemble Finished: " + result.count + "/" + ensemble.members + " members in " + result.runTime + " ms. Writing Ensemble Track.");
+					plotEnsemble(result);
+					Metrics.PREDICTION_ENSEMBLE.recordSince(start);
+					return null;
 				}
-				
-				pointLat = Double.parseDouble(pointData[1]);
-				pointLon = Double.parseDouble(pointData[2]);
-				predict_track.add(new TrackPoint(false,new LatLon(pointLat, pointLon), pointAlt));
-				lastPointAlt = pointAlt;
-				
-			} catch (Exception e) {
-				// We don't care if we got a bad point
-			}
+			});
 		}
-		  
-		// Plot a point for the landing & tidy up
-		OziAPI.addWaypoint(new Waypoint("LANDING", 0, new LatLon(pointLat, pointLon)));
-		predictorOutput.close();
-		predict_track.write(prediction_file);
-		//predict_track.close();
-		OziAPI.loadTrackFile(currentTrack,prediction_file);
-		OziAPI.showTrack(currentTrack);
-		
-		// Switch our current track to the alternate track number (the old track), and clear it ready for the next prediction.
-		if(currentTrack == trackNumber){
-			currentTrack = trackNumber + 1;
-		}else{
-			currentTrack = trackNumber;
+
+		// Wait for all runs, then report the first failure (if any)
+		Exception failure = waitFor(nominalRun);
+		if (abortRun != null) {
+			Exception abortFailure = waitFor(abortRun);
+			if (failure == null) failure = abortFailure;
 		}
-		OziAPI.clearTrack(currentTrack);
-		
-		OziAPI.refreshMap();
-		System.out.println("Oziexplorer Updated!");
-		
-		if( (!descent) && (currentAltitude<burstAltitude)){
-			runAbortPredictions();
-		}else{
-			OziAPI.deleteWaypoint("ABORT");
-			OziAPI.clearTrack(abortTrackNumber);
-			OziAPI.clearTrack(abortTrackNumber+1);
-			
+		if (ensembleRun != null) {
+			Exception ensembleFailure = waitFor(ensembleRun);
+			if (failure == null) failure = ensembleFailure;
 		}
+		if (failure != null) throw failure;
 	}
-		
+
 	//
-	// Run and plot Abort Track Prediction.
+	// Wait for a prediction run to finish, returning its failure (if any)
 	//
-	public void runAbortPredictions() throws Exception {
-		
-		// Internal variables
-		String outputLine;
-		boolean drawnBurstWaypoint = false;
-		double pointLat = 0, pointLon = 0, pointAlt = 0, lastPointAlt = 0;
-		double lastPointLat = 0, lastPointLon=0;
-		
-		
-		// Default asc/desc
-		double descRate = defaultDescentRate;
-		double ascRate = defaultDescentRate;
+	static Exception waitFor(Future<?> run) {
+		try {
+			run.get();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) return (Exception)cause;
+			return new Exception(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return e;
+		}
+	}
 		
-		// Work out the date etc
-		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
-		//Calendar cal_Two = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-		int day = cal.get(Calendar.DATE);
-		int month = cal.get(Calendar.MONTH) + 1;
-		int year = cal.get(Calendar.YEAR);
+	//
+	// Plot the nominal prediction
+	//
+	void plotPrediction(Scenario scenario, Trajectory trajectory) throws Exception {
+
+		synchronized (plotLock) {
 		
-		// Work out if we should use the default asc rate,
-		// the asc rate fed in, or if we need to calculate a desc rate
-		if (descent) {
-			// If we're in descent, we shouldn't be running anyway.
-			return;
+			Trajectory predict_track = new Trajectory(trajectory.size() + 1);
+			
+			// Plot our current position
+			predict_track.add(scenario.launchTime, scenario.latitude, scenario.longitude, scenario.altitude);
+
+			// Plot the datapoints from the predictor
+			for (int i = 0; i < trajectory.size(); i++) {
+				predict_track.add(trajectory.getTime(i), trajectory.getLat(i), trajectory.getLon(i), trajectory.getAlt(i));
+			}
+			predict_track = TrackSimplifier.simplify(predict_track, trackTolerance);
+
+			// Leave the map alone if it has barely moved (and its ascent wasn't drawn over the old one)
+			boolean redraw = ascentShown || !unchanged(predict_track, nominalShown, true);
+			ascentShown = false;
+			if (!redraw) {
+				Log.debug("Prediction moved less than " + redrawDistance + " m, not redrawn.");
+				return;
+			}
+
+			// Clear any previous predictions & reset the track, delete waypoints from previous predictions
+			renderer.deleteWaypoint("BURST" + waypointSuffix);
+			renderer.deleteWaypoint("LANDING" + waypointSuffix);
+
+			// Plot a way point at the highest point
+			int burst = trajectory.getBurstIndex();
+			if (!scenario.descent && burst >= 0) {
+				renderer.moveWaypoint("BURST" + waypointSuffix, trajectory.getLat(burst), trajectory.getLon(burst));
+			}
+			  
+			// Plot a point for the landing & tidy up
+			int landing = trajectory.getLandingIndex();
+			if (landing >= 0) {
+				renderer.moveWaypoint("LANDING" + waypointSuffix, trajectory.getLat(landing), trajectory.getLon(landing));
+			}
+			sink.loadTrack(currentTrack, "OziPlotter prediction track", trackWidth, trackColour, predict_track, prediction_file);
+			nominalShown = predict_track;
 			
-		} else if (currentAscentRate <= 0.5) {	
-			// This is unlikely to occur (probably not launched yet),
-			// use the default asc rate as per config
-			ascRate = defaultAscentRate;
-		} else if (currentAscentRate > 0.5) {
-			// This seems like a sensible ascent rate, lets use it
-			ascRate = currentAscentRate;
+			// Switch our current track to the alternate track number (the old track), and clear it ready for the next prediction.
+			if(currentTrack == trackNumber){
+				currentTrack = trackNumber + 1;
+			}else{
+				currentTrack = trackNumber;
+			}
+			sink.clearTrack(currentTrack);
+			
+			renderer.requestRefresh();
 		}
+		Log.debug("Map Updated!");
+	}
 		
-		// Set the abort track burst altitude to the current altitude plus 20 seconds of rise time.
-		int abortBurstAltitude = currentAltitude + (int)(60*ascRate);
+	//
+	// Plot the ascent part of the nominal prediction, while the descent is
+	// still being computed. plotPrediction replaces it on the same track.
+	//
+	void plotAscent(Scenario scenario, Trajectory trajectory, int burst) throws Exception {
+		if (scenario.descent) return;
 
-		long start_time = System.currentTimeMillis()/1000;
-	
-		// Fire up the predictor binary
-		Process predictor;
-		if (descent) {
-			predictor = Runtime.getRuntime().exec(command + " -d"); 
-		} else {
-			predictor = Runtime.getRuntime().exec(command);
-		}
+		synchronized (plotLock) {
+			Trajectory ascent_track = new Trajectory(burst + 2);
+			ascent_track.add(scenario.launchTime, scenario.latitude, scenario.longitude, scenario.altitude);
+			for (int i = 0; i <= burst; i++) {
+				ascent_track.add(trajectory.getTime(i), trajectory.getLat(i), trajectory.getLon(i), trajectory.getAlt(i));
+			}
 
-		// We need to handle STDOUT and STDERR in their own threads to avoid deadlocking
-		// as BufferedReader calls are blocking - we use InputStreamHandler to do this
+			ascent_track = TrackSimplifier.simplify(ascent_track, trackTolerance);
+			if (unchanged(ascent_track, nominalShown, false)) return;
 
-		// STDOUT
-		StringBuffer inBuffer = new StringBuffer();
-		InputStream inStream = predictor.getInputStream();
-		new InputStreamHandler(inBuffer, inStream);
+			renderer.moveWaypoint("BURST" + waypointSuffix, trajectory.getLat(burst), trajectory.getLon(burst));
+			sink.loadTrack(currentTrack, "OziPlotter ascent prediction track", trackWidth, trackColour, ascent_track, prediction_file);
+			renderer.requestRefresh();
+			ascentShown = true;
+		}
+		Log.debug("Ascent plotted.");
+	}
 
-		// STDERR
-		StringBuffer errBuffer = new StringBuffer();
-		InputStream errStream = predictor.getErrorStream();
-		new InputStreamHandler(errBuffer, errStream);
-		
-		// Some debug output
-		System.out.println("\nRunning predictor for Abort Track.");
-		
-		System.out.println(" * Latitude: " + currentLatitude);
-		System.out.println(" * Longitude: " + currentLongitude);
-		System.out.println(" * Altitude: " + currentAltitude + " m");
-		if (!descent) System.out.println(" * Ascent rate: " + ascRate + " m/s");
-		System.out.println(" * Descent rate: " + descRate  + " m/s");
-		if (!descent) System.out.println(" * Burst altitude: " + abortBurstAltitude + " m");
-		System.out.println(" * Time: " + String.format("%02d", currentHour) + ":" + String.format("%02d", currentMinute) + " " + day + "/" + month + "/" + year);
-		
-		// Feed in the scenario
-		OutputStreamWriter predictorInput = new OutputStreamWriter(predictor.getOutputStream());
-		
-		predictorInput.write("[launch-site]\n");
-		predictorInput.write("latitude = " + currentLatitude + "\n");
-		predictorInput.write("altitude = " + currentAltitude + "\n");
-		predictorInput.write("longitude =" + currentLongitude + "\n");
-		
-		predictorInput.write("[atmosphere]\n");
-		predictorInput.write("wind-error = 0\n");
-		predictorInput.write("[altitude-model]\n");
-		
-		predictorInput.write("ascent-rate = " + ascRate + "\n");
-		predictorInput.write("descent-rate = " + descRate + "\n");
-		predictorInput.write("burst-altitude = " + abortBurstAltitude + "\n");
-		
-		predictorInput.write("[launch-time]\n");
-		predictorInput.write("hour = " + currentHour + "\n");
-		predictorInput.write("month = " + month + "\n");
-		predictorInput.write("second = 0\n");
-		predictorInput.write("year = " + year + "\n");
-		predictorInput.write("day = " + day + "\n");
-		predictorInput.write("minute = " + currentMinute + "\n");
+	//
+	// Plot the Abort Track Prediction.
+	//
+	void plotAbortPrediction(Scenario scenario, Trajectory trajectory) throws Exception {
+
+		synchronized (plotLock) {
 		
-		predictorInput.flush();
-		predictorInput.close();
+			Trajectory abort_track = new Trajectory(trajectory.size() + 1);
+			
+			// Plot our current position
+			abort_track.add(scenario.launchTime, scenario.latitude, scenario.longitude, scenario.altitude);
 
-		// Let the predictor run its course
-		predictor.waitFor();
-		System.out.println("Predictor Finished. Writing Abort Track.");
+			// Plot the descent only, starting from the highest point
+			int burst = trajectory.getBurstIndex();
+			if (burst >= 0) {
+				for (int i = burst; i < trajectory.size(); i++) {
+					abort_track.add(trajectory.getTime(i), trajectory.getLat(i), trajectory.getLon(i), trajectory.getAlt(i));
+				}
+			}
+			abort_track = TrackSimplifier.simplify(abort_track, trackTolerance);
 
-		long stop_time = System.currentTimeMillis()/1000;
-		System.out.println("Prediction run time (s): " + (stop_time-start_time));
-		
-		// Clear any previous predictions & reset the track, delete waypoints from previous predictions
-		OziAPI.deleteWaypoint("ABORT");
-		
-		TrackFile abort_track = new TrackFile();
-		
-		abort_track.setTrackDesc("OziPlotter Abort prediction track");
-		abort_track.setTrackWidth(trackWidth);
-		abort_track.setTrackType(TrackType.LINE);
-		abort_track.setTrackColor(abortTrackColour); 
-		
-		// Plot our current position
-		abort_track.add(new TrackPoint(false,new LatLon(currentLatitude, currentLongitude), currentAltitude));
+			// Leave the map alone if it has barely moved
+			if (unchanged(abort_track, abortShown, true)) {
+				Log.debug("Abort prediction moved less than " + redrawDistance + " m, not redrawn.");
+				return;
+			}
 
-		// Read the datapoints from the predictor
-		BufferedReader predictorOutput = new BufferedReader(new StringReader(inBuffer.toString()));
-		while ((outputLine = predictorOutput.readLine ()) != null) {
+			// Clear any previous predictions & reset the track, delete waypoints from previous predictions
+			renderer.deleteWaypoint("ABORT" + waypointSuffix);
+			  
+			// Plot a point for the landing & tidy up
+			int landing = trajectory.getLandingIndex();
+			if (landing >= 0) {
+				renderer.moveWaypoint("ABORT" + waypointSuffix, trajectory.getLat(landing), trajectory.getLon(landing));
+			}
+			sink.loadTrack(currentAbortTrack, "OziPlotter Abort prediction track", trackWidth, abortTrackColour, abort_track, abort_file);
+			abortShown = abort_track;
 			
-			// Try to process the output as valid coords
-			try {
-				String[] pointData = outputLine.split(",");
-				pointAlt = Double.parseDouble(pointData[3]);
-				
-				// Check if we've passed the highest point, if so plot a way point
-				if (pointAlt < lastPointAlt && !descent && !drawnBurstWaypoint) {
-						drawnBurstWaypoint = true;
-						abort_track.add(new TrackPoint(false, new LatLon(lastPointLat, lastPointLon), lastPointAlt));
-						//OziAPI.addWaypoint(new Waypoint("", 0, new LatLon(pointLat, pointLon)));
-				}
-				pointLat = Double.parseDouble(pointData[1]);
-				pointLon = Double.parseDouble(pointData[2]);
-				if(drawnBurstWaypoint){
-					abort_track.add(new TrackPoint(false, new LatLon(pointLat, pointLon), pointAlt));
-				}
-				lastPointAlt = pointAlt;
-				lastPointLon = pointLon;
-				lastPointLat = pointLat;
-				
-			} catch (Exception e) {
-				// We don't care if we got a bad point
+			// Switch our current track to the alternate track number (the old track), and clear it ready for the next prediction.
+			if(currentAbortTrack == abortTrackNumber){
+				currentAbortTrack = abortTrackNumber + 1;
+			}else{
+				currentAbortTrack = abortTrackNumber;
 			}
+			sink.clearTrack(currentAbortTrack);
+			
+			renderer.requestRefresh();
 		}
-		  
-		// Plot a point for the landing & tidy up
-		OziAPI.addWaypoint(new Waypoint("ABORT", 0, new LatLon(pointLat, pointLon)));
-		predictorOutput.close();
-		abort_track.write(abort_file);
-		//predict_track.close();
-		OziAPI.loadTrackFile(currentAbortTrack,abort_file);
-		OziAPI.showTrack(currentAbortTrack);
-		
-		// Switch our current track to the alternate track number (the old track), and clear it ready for the next prediction.
-		if(currentAbortTrack == abortTrackNumber){
-			currentAbortTrack = abortTrackNumber + 1;
-		}else{
-			currentAbortTrack = abortTrackNumber;
-		}
-		OziAPI.clearTrack(currentAbortTrack);
-		
-		OziAPI.refreshMap();
-		System.out.println("Oziexplorer Updated!");
+		Log.debug("Map Updated!");
 	}		
 
+	//
+	// Plot the ensemble landing ellipse
+	//
+	void plotEnsemble(EnsemblePredictor.Result result) throws Exception {
+		double[][] ellipse = ensemble.landingEllipse(result);
+
+		synchronized (plotLock) {
+			if (ellipse == null) {
+				sink.clearTrack(ensembleTrackNumber);
+				sink.clearTrack(ensembleTrackNumber+1);
+				return;
+			}
+
+			Trajectory ensemble_track = new Trajectory(ellipse[0].length);
+			for (int i = 0; i < ellipse[0].length; i++) {
+				ensemble_track.add(0, ellipse[0][i], ellipse[1][i], 0);
+			}
+
+			sink.loadTrack(currentEnsembleTrack, "OziPlotter landing ellipse", trackWidth, ensembleTrackColour, ensemble_track, ensemble_file);
+
+			// Switch our current track to the alternate track number (the old track), and clear it ready for the next prediction.
+			if(currentEnsembleTrack == ensembleTrackNumber){
+				currentEnsembleTrack = ensembleTrackNumber + 1;
+			}else{
+				currentEnsembleTrack = ensembleTrackNumber;
+			}
+			sink.clearTrack(currentEnsembleTrack);
+
+			renderer.requestRefresh();
+		}
+		Log.debug("Map Updated!");
+	}
+
 	//
 	// Check if a process is still running
 	//
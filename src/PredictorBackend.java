@@ -0,0 +1,31 @@
+////////////////////////////////////////////////////////////
+// PredictorBackend.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Interface implemented by anything which can turn a
+// Scenario into a predicted Trajectory
+//
+// ExternalPredictor - forks the CUSF pred.exe binary
+// TrajectoryEngine  - in-process Java integrator
+//
+////////////////////////////////////////////////////////////
+
+public interface PredictorBackend {
+
+	//
+	// Run a prediction for the given scenario
+	//
+	public Trajectory predict(Scenario scenario) throws Exception;
+
+	//
+	// Run a prediction, telling the listener (if not null) as soon
+	// as the ascent part of the trajectory is complete
+	//
+	public Trajectory predict(Scenario scenario, TrajectoryListener listener) throws Exception;
+
+	//
+	// Short name used in console output
+	//
+	public String getName();
+}
@@ -0,0 +1,156 @@
+////////////////////////////////////////////////////////////
+// PredictorOutputParser.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Streaming parser for the external predictor's CSV output
+// (time,lat,lon,alt per line). Reads the stream in blocks
+// and parses each line straight from the bytes into a
+// Trajectory as it arrives, so the ascent can be handed to
+// a TrajectoryListener while the predictor is still
+// working on the descent.
+//
+// Lines which aren't a valid point are skipped. Not thread
+// safe - use one parser per stream.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+class PredictorOutputParser {
+
+	static final double[] POW10 = TelemetryParser.POW10;
+
+	byte[] buffer = new byte[8192];
+
+	// Fields of the current line
+	double[] fields = new double[4];
+
+	// Time spent blocked reading the stream (ns)
+	long readTime = 0;
+
+	//
+	// Parse until the end of the stream
+	//
+	Trajectory parse(InputStream in, TrajectoryListener listener) throws Exception {
+		Trajectory trajectory = new Trajectory(1024);
+		boolean notified = listener == null;
+
+		int start = 0;		// Start of the current line
+		int scan = 0;		// Where to look for the next newline
+		int filled = 0;		// End of the data in the buffer
+
+		while (true) {
+			long readStart = System.nanoTime();
+			int n = in.read(buffer, filled, buffer.length - filled);
+			readTime += System.nanoTime() - readStart;
+			if (n < 0) break;
+			filled += n;
+
+			for (; scan < filled; scan++) {
+				if (buffer[scan] != '\n') continue;
+				if (parseLine(buffer, start, scan)) {
+					trajectory.add((long)fields[0], fields[1], fields[2], fields[3]);
+					if (!notified && ascentComplete(trajectory)) {
+						notified = true;
+						listener.ascentComplete(trajectory, trajectory.size() - 2);
+					}
+				}
+				start = scan + 1;
+			}
+
+			// Move the partial line to the front, making room if it fills the buffer
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, filled - start);
+				filled -= start;
+				scan -= start;
+				start = 0;
+			} else if (filled == buffer.length) {
+				byte[] bigger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, bigger, 0, filled);
+				buffer = bigger;
+			}
+		}
+
+		// Last line, if it wasn't terminated
+		if (filled > start && parseLine(buffer, start, filled)) {
+			trajectory.add((long)fields[0], fields[1], fields[2], fields[3]);
+		}
+
+		return trajectory;
+	}
+
+	//
+	// Has the last point just started the descent, after some ascent?
+	//
+	static boolean ascentComplete(Trajectory trajectory) {
+		int last = trajectory.size() - 1;
+		return last >= 2 && trajectory.getAlt(last) < trajectory.getAlt(last-1);
+	}
+
+	//
+	// Parse a line of at least four comma separated numbers into fields.
+	// Returns false if it isn't one.
+	//
+	boolean parseLine(byte[] data, int start, int end) {
+		int field = 0;
+		int from = start;
+		for (int i = start; i <= end && field < 4; i++) {
+			if (i == end || data[i] == ',') {
+				double value = parseNumber(data, from, i);
+				if (Double.isNaN(value)) return false;
+				fields[field++] = value;
+				from = i + 1;
+			}
+		}
+		return field == 4;
+	}
+
+	//
+	// Parse a decimal number ([-+]digits[.digits]) from a range, ignoring
+	// surrounding whitespace. Returns NaN if invalid. Anything unusual
+	// (exponents, very long numbers) goes through Double.parseDouble.
+	//
+	static double parseNumber(byte[] data, int from, int to) {
+		while (from < to && data[from] <= ' ') from++;
+		while (to > from && data[to-1] <= ' ') to--;
+		if (from == to) return Double.NaN;
+
+		int i = from;
+		boolean negative = false;
+		if (data[i] == '-' || data[i] == '+') {
+			negative = data[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = 0;
+		boolean point = false;
+		for (; i < to; i++) {
+			byte b = data[i];
+			if (b >= '0' && b <= '9' && digits < 18) {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (point) decimals++;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				return slowParse(data, from, to);
+			}
+		}
+		if (digits == 0) return Double.NaN;
+
+		double value = mantissa / POW10[decimals];
+		return negative ? -value : value;
+	}
+
+	static double slowParse(byte[] data, int from, int to) {
+		try {
+			return Double.parseDouble(new String(data, from, to - from, StandardCharsets.ISO_8859_1));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
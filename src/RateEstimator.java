@@ -0,0 +1,171 @@
+////////////////////////////////////////////////////////////
+// RateEstimator.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Estimates a payload's ascent/descent rate as the least
+// squares slope of altitude against time, over a sliding
+// window of recent samples held in a primitive ring buffer.
+// Running sums are kept, so each sample costs O(1).
+//
+// Times are seconds since midnight (as sent in TELEMETRY
+// packets), and are unwrapped across midnight. Samples
+// older than the newest one are dropped, and a repeated
+// timestamp replaces the sample it repeats. At least two
+// samples are always kept, so sparse telemetry still gives
+// a rate.
+//
+// Shared by the receive thread and the prediction thread,
+// so all methods are synchronized.
+//
+////////////////////////////////////////////////////////////
+
+class RateEstimator {
+
+	static final int SECONDS_PER_DAY = 86400;
+
+	// Re-base the running sums once the newest time is this many windows past the base
+	static final int REBASE_WINDOWS = 4;
+
+	double window;		// s
+
+	// Ring buffer of samples, oldest at head
+	long[] times;
+	double[] alts;
+	int head = 0;
+	int count = 0;
+
+	// Running sums, with times relative to base
+	long base = 0;
+	double sumT, sumA, sumTT, sumTA;
+
+	// Midnight rollover
+	long lastSecond = -1;
+	long dayOffset = 0;
+
+	//
+	// Constructor
+	//
+	RateEstimator(double window, int capacity) {
+		this.window = window;
+		times = new long[Math.max(2, capacity)];
+		alts = new double[times.length];
+	}
+
+	//
+	// Add a sample. Returns false if it was dropped as out of order.
+	//
+	synchronized boolean add(int secondOfDay, double alt) {
+		long time = unwrap(secondOfDay);
+
+		if (count > 0) {
+			int newest = index(count - 1);
+			if (time < times[newest]) return false;
+			if (time == times[newest]) {
+				// Repeated timestamp - keep the latest altitude
+				double t = times[newest] - base;
+				sumA += alt - alts[newest];
+				sumTA += t * (alt - alts[newest]);
+				alts[newest] = alt;
+				return true;
+			}
+		} else {
+			base = time;
+		}
+		lastSecond = secondOfDay;
+
+		// Make room, then drop anything outside the window
+		if (count == times.length) removeOldest();
+		int i = index(count);
+		times[i] = time;
+		alts[i] = alt;
+		count++;
+		double t = time - base;
+		sumT += t;
+		sumA += alt;
+		sumTT += t * t;
+		sumTA += t * alt;
+
+		while (count > 2 && times[head] < time - window) removeOldest();
+
+		if (time - base > REBASE_WINDOWS * Math.max(window, 1)) rebase();
+		return true;
+	}
+
+	//
+	// Rate (m/s) over the window, or NaN if there aren't enough samples yet
+	//
+	synchronized double getRate() {
+		if (count < 2) return Double.NaN;
+		double d = count * sumTT - sumT * sumT;
+		if (d <= 0) return Double.NaN;
+		return (count * sumTA - sumT * sumA) / d;
+	}
+
+	//
+	// Rate rounded to 0.1 m/s, or 0 if there aren't enough samples yet
+	//
+	double getRoundedRate() {
+		double rate = getRate();
+		return Double.isNaN(rate) ? 0 : Math.round(rate * 10.0) / 10.0;
+	}
+
+	synchronized int getCount() {
+		return count;
+	}
+
+	synchronized void clear() {
+		head = count = 0;
+		sumT = sumA = sumTT = sumTA = 0;
+		lastSecond = -1;
+		dayOffset = 0;
+	}
+
+	//
+	// Continuous time for a second of day, allowing for midnight
+	//
+	long unwrap(int secondOfDay) {
+		if (lastSecond >= 0) {
+			if (secondOfDay < lastSecond - SECONDS_PER_DAY / 2) {
+				// Past midnight
+				dayOffset += SECONDS_PER_DAY;
+			} else if (secondOfDay > lastSecond + SECONDS_PER_DAY / 2) {
+				// A late sample from before midnight
+				return secondOfDay + dayOffset - SECONDS_PER_DAY;
+			}
+		}
+		return secondOfDay + dayOffset;
+	}
+
+	int index(int n) {
+		return (head + n) % times.length;
+	}
+
+	void removeOldest() {
+		double t = times[head] - base;
+		double a = alts[head];
+		sumT -= t;
+		sumA -= a;
+		sumTT -= t * t;
+		sumTA -= t * a;
+		head = index(1);
+		count--;
+	}
+
+	//
+	// Recompute the sums relative to the oldest sample, which keeps them
+	// small and clears any rounding error built up by removals
+	//
+	void rebase() {
+		base = times[head];
+		sumT = sumA = sumTT = sumTA = 0;
+		for (int n = 0; n < count; n++) {
+			int i = index(n);
+			double t = times[i] - base;
+			sumT += t;
+			sumA += alts[i];
+			sumTT += t * t;
+			sumTA += t * alts[i];
+		}
+	}
+}
@@ -0,0 +1,48 @@
+////////////////////////////////////////////////////////////
+// Scenario.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// This class holds the launch state and flight parameters
+// for a single prediction run. Scenarios are immutable, so
+// they can be handed to any predictor backend.
+//
+////////////////////////////////////////////////////////////
+
+public class Scenario {
+
+	// Launch state
+	final double latitude;
+	final double longitude;
+	final int altitude;
+	final long launchTime;		// POSIX timestamp (UTC)
+
+	// Flight parameters
+	final double ascentRate;	// m/s
+	final double descentRate;	// Sea level desc rate, m/s
+	final int burstAltitude;	// m
+	final boolean descent;		// Payload is already falling
+	final double windError;		// Fractional wind error, 0 for none
+
+	//
+	// Constructor
+	//
+	public Scenario(double lat, double lon, int alt, long time, double asc, double desc, int burst, boolean descent, double windError) {
+		latitude = lat;
+		longitude = lon;
+		altitude = alt;
+		launchTime = time;
+		ascentRate = asc;
+		descentRate = desc;
+		burstAltitude = burst;
+		this.descent = descent;
+		this.windError = windError;
+	}
+
+	//
+	// Copy of this scenario with a different burst altitude
+	//
+	public Scenario withBurstAltitude(int burst) {
+		return new Scenario(latitude, longitude, altitude, launchTime, ascentRate, descentRate, burst, descent, windError);
+	}
+}
@@ -0,0 +1,186 @@
+////////////////////////////////////////////////////////////
+// TelemetryGenerator.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Sends synthetic TELEMETRY and WAYPOINT packets to a UDP
+// port, for load testing. Each payload flies a simple
+// flight profile (ascent then descent, or ascent to a
+// float), drifting east, and each chase car wanders
+// around the launch site.
+//
+// The send time of every TELEMETRY packet is kept, keyed
+// on its position, so a harness can match plotted points
+// and predictions back to the packet which caused them.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TelemetryGenerator extends Thread {
+
+	// Flight profiles
+	static final int PROFILE_FLIGHT = 0;	// Ascent, burst, descent to the ground
+	static final int PROFILE_FLOAT = 1;		// Ascent, then float at the burst altitude
+
+	// Metres per degree of latitude
+	static final double METRES_PER_DEGREE = 111320.0;
+
+	// Where to send
+	InetSocketAddress target;
+
+	// Flight settings
+	int profile = PROFILE_FLIGHT;
+	int payloads = 1;
+	int cars = 0;
+	double packetRate = 1.0;		// TELEMETRY packets per second, per payload
+	double carRate = 0.2;			// WAYPOINT packets per second, per car
+	double speedup = 1.0;			// Flight seconds per real second
+	double launchLat = -35.0;
+	double launchLon = 138.8;
+	double ascentRate = 5.0;		// m/s
+	double descentRate = 6.0;		// m/s at sea level, ignoring air density
+	int burstAltitude = 30000;		// m
+	double windSpeed = 10.0;		// m/s, towards the east
+
+	// Send time (System.nanoTime) of each TELEMETRY packet, by position key
+	ConcurrentHashMap<Long, Long> sendTimes = new ConcurrentHashMap<Long, Long>();
+
+	// Statistics
+	volatile long telemetrySent = 0;
+	volatile long waypointsSent = 0;
+	volatile long sendErrors = 0;
+
+	volatile boolean stopped = false;
+
+	//
+	// Constructor
+	//
+	public TelemetryGenerator(InetSocketAddress target) {
+		super("TelemetryGenerator");
+		this.target = target;
+		setDaemon(true);
+	}
+
+	//
+	// Position key - positions are sent with 6 decimal places
+	//
+	static long key(double lat, double lon) {
+		return Math.round(lat * 1e6) * 400000000L + Math.round(lon * 1e6);
+	}
+
+	public void shutdown() {
+		stopped = true;
+		interrupt();
+	}
+
+	//
+	// Send loop. Packets are spread evenly over each payload's interval.
+	//
+	public void run() {
+		DatagramSocket socket;
+		try {
+			socket = new DatagramSocket();
+		} catch (SocketException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		int streams = payloads + cars;
+		long[] nextSend = new long[streams];
+		long[] interval = new long[streams];
+		long[] sequence = new long[streams];
+		long start = System.nanoTime();
+		for (int i = 0; i < streams; i++) {
+			interval[i] = (long)(1e9 / (i < payloads ? packetRate : carRate));
+			nextSend[i] = start + interval[i] * i / streams;
+		}
+
+		// Flight clock (seconds of day, UTC) at the start
+		long startSecond = (System.currentTimeMillis() / 1000) % 86400;
+
+		byte[] packet;
+		try {
+			while (!stopped) {
+
+				// Next stream due
+				int next = 0;
+				for (int i = 1; i < streams; i++) {
+					if (nextSend[i] < nextSend[next]) next = i;
+				}
+				long wait = nextSend[next] - System.nanoTime();
+				if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+
+				double flightTime = (System.nanoTime() - start) / 1e9 * speedup;
+				if (next < payloads) {
+					packet = telemetry(next, sequence[next], flightTime, startSecond);
+				} else {
+					packet = waypoint(next - payloads, flightTime);
+				}
+				sequence[next]++;
+				nextSend[next] += interval[next];
+
+				try {
+					socket.send(new DatagramPacket(packet, packet.length, target));
+					if (next < payloads) {
+						telemetrySent++;
+					} else {
+						waypointsSent++;
+					}
+				} catch (IOException e) {
+					sendErrors++;
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		} finally {
+			socket.close();
+		}
+	}
+
+	//
+	// Build a TELEMETRY packet for a payload, and note its send time
+	//
+	byte[] telemetry(int payload, long sequence, double flightTime, long startSecond) {
+		double alt = altitude(flightTime);
+
+		// Each payload launches from its own spot north of the launch site. The
+		// sequence nudges every position east, so no two packets share a position.
+		double lat = launchLat + payload * 0.05;
+		double lon = launchLon + (windSpeed * flightTime + sequence * 0.2) / (METRES_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+		lat = Math.round(lat * 1e6) / 1e6;
+		lon = Math.round(lon * 1e6) / 1e6;
+
+		long second = (startSecond + (long)flightTime) % 86400;
+		String s = String.format(Locale.US, "TELEMETRY,%02d:%02d:%02d,%.6f,%.6f,%d,LOAD%d\n",
+				second / 3600, (second / 60) % 60, second % 60, lat, lon, (int)alt, payload + 1);
+
+		sendTimes.put(key(lat, lon), System.nanoTime());
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	//
+	// Build a WAYPOINT packet for a chase car, circling the launch site
+	//
+	byte[] waypoint(int car, double flightTime) {
+		double angle = flightTime / 600.0 + car;
+		double lat = launchLat + 0.02 * Math.sin(angle);
+		double lon = launchLon + 0.02 * Math.cos(angle);
+		String s = String.format(Locale.US, "WAYPOINT,CAR%d,%.6f,%.6f,Chase car\n", car + 1, lat, lon);
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	//
+	// Altitude at a time into the flight
+	//
+	double altitude(double t) {
+		double ascentTime = burstAltitude / ascentRate;
+		if (t <= ascentTime) return 10 + ascentRate * t;
+		if (profile == PROFILE_FLOAT) return burstAltitude + 20 * Math.sin(t / 60.0);
+		return Math.max(0, burstAltitude - descentRate * (t - ascentTime));
+	}
+}
@@ -0,0 +1,233 @@
+////////////////////////////////////////////////////////////
+// TelemetryParser.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Hand-written byte level parser for the TELEMETRY and
+// WAYPOINT UDP messages. Parses straight from the packet
+// bytes into a reusable TelemetryRecord, without building
+// Strings, splitting or using regular expressions.
+//
+// Callsigns and waypoint names are looked up in a small
+// cache, so a name only becomes a String the first time
+// it is seen. Not thread safe - use one parser per thread.
+//
+////////////////////////////////////////////////////////////
+
+import java.nio.charset.StandardCharsets;
+
+class TelemetryParser {
+
+	static final byte[] TELEMETRY_PREFIX = { 'T','E','L','E','M','E','T','R','Y',',' };
+	static final byte[] WAYPOINT_PREFIX = { 'W','A','Y','P','O','I','N','T',',' };
+
+	static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+		1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+	};
+
+	// Current packet
+	byte[] data;
+	int pos;
+	int end;
+
+	// Callsign / waypoint name cache (direct mapped)
+	static final int CACHE_SIZE = 64;
+	String[] cacheStrings = new String[CACHE_SIZE];
+	byte[][] cacheBytes = new byte[CACHE_SIZE][];
+
+	//
+	// Parse a packet. Returns false if it isn't in the expected format.
+	// A packet of an unknown type parses as TelemetryRecord.UNKNOWN.
+	//
+	boolean parse(byte[] packet, int length, TelemetryRecord record) {
+		record.clear();
+		data = packet;
+		pos = 0;
+		end = trimmedLength(packet, length);
+
+		if (startsWith(TELEMETRY_PREFIX)) {
+			pos = TELEMETRY_PREFIX.length;
+			record.type = TelemetryRecord.TELEMETRY;
+			return parseTelemetry(record);
+		} else if (startsWith(WAYPOINT_PREFIX)) {
+			pos = WAYPOINT_PREFIX.length;
+			record.type = TelemetryRecord.WAYPOINT;
+			return parseWaypoint(record);
+		}
+		return true;
+	}
+
+	//
+	// Length of a packet with any trailing return chars removed
+	//
+	static int trimmedLength(byte[] packet, int length) {
+		while (length > 0 && (packet[length-1] == '\r' || packet[length-1] == '\n' || packet[length-1] == 0)) length--;
+		return length;
+	}
+
+	//
+	// TELEMETRY,HH:MM:SS,lat,lon,alt[,callsign]
+	//
+	boolean parseTelemetry(TelemetryRecord record) {
+		record.hour = parseInt(':');
+		if (record.hour < 0 || !skip(':')) return false;
+		record.minute = parseInt(':');
+		if (record.minute < 0 || !skip(':')) return false;
+		record.second = parseInt(',');
+		if (record.second < 0 || !skip(',')) return false;
+
+		record.lat = parseDouble();
+		if (Double.isNaN(record.lat) || !skip(',')) return false;
+		record.lon = parseDouble();
+		if (Double.isNaN(record.lon) || !skip(',')) return false;
+
+		double alt = parseDouble();
+		if (Double.isNaN(alt)) return false;
+		record.alt = (int)alt;
+
+		// Optional callsign
+		if (pos < end && skip(',')) {
+			record.callsign = parseString();
+		} else if (pos < end) {
+			return false;
+		}
+		return true;
+	}
+
+	//
+	// WAYPOINT,<waypointname>,lat,lon[,message]
+	//
+	boolean parseWaypoint(TelemetryRecord record) {
+		record.name = parseString();
+		if (record.name == null || !skip(',')) return false;
+		record.lat = parseDouble();
+		if (Double.isNaN(record.lat) || !skip(',')) return false;
+		record.lon = parseDouble();
+		if (Double.isNaN(record.lon)) return false;
+
+		// Optional message - left as a range of the packet
+		if (pos < end && skip(',')) {
+			record.commentStart = pos;
+			record.commentLength = end - pos;
+		} else if (pos < end) {
+			return false;
+		}
+		return true;
+	}
+
+	boolean startsWith(byte[] prefix) {
+		if (end < prefix.length) return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[i] != prefix[i]) return false;
+		}
+		return true;
+	}
+
+	boolean skip(char c) {
+		if (pos < end && data[pos] == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	//
+	// Parse an unsigned integer, stopping at the terminator. Returns -1 if invalid.
+	//
+	int parseInt(char terminator) {
+		int start = pos;
+		int value = 0;
+		while (pos < end && data[pos] != terminator) {
+			int d = data[pos] - '0';
+			if (d < 0 || d > 9 || pos - start > 8) return -1;
+			value = value * 10 + d;
+			pos++;
+		}
+		return pos == start ? -1 : value;
+	}
+
+	//
+	// Parse a decimal number ([-+]digits[.digits]), stopping at a comma or the end.
+	// Returns NaN if invalid.
+	//
+	double parseDouble() {
+		boolean negative = false;
+		if (pos < end && (data[pos] == '-' || data[pos] == '+')) {
+			negative = data[pos] == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = 0;
+		boolean point = false;
+		while (pos < end && data[pos] != ',') {
+			byte b = data[pos];
+			if (b == '.' && !point) {
+				point = true;
+			} else if (b >= '0' && b <= '9') {
+				// Digits beyond the 18th can't change the result meaningfully
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if (point) decimals++;
+				} else if (!point) {
+					return Double.NaN;
+				}
+			} else if (b == ' ') {
+				// Tolerate padding
+			} else {
+				return Double.NaN;
+			}
+			pos++;
+		}
+		if (digits == 0) return Double.NaN;
+
+		double value = mantissa / POW10[decimals];
+		return negative ? -value : value;
+	}
+
+	//
+	// Parse a string field, stopping at a comma or the end. Returns null if empty.
+	//
+	String parseString() {
+		int start = pos;
+		while (pos < end && data[pos] != ',') pos++;
+
+		// Trim spaces
+		int s = start, e = pos;
+		while (s < e && data[s] == ' ') s++;
+		while (e > s && data[e-1] == ' ') e--;
+		if (s == e) return null;
+		return lookup(data, s, e - s);
+	}
+
+	//
+	// Find a cached String for a byte range, creating it on a miss
+	//
+	String lookup(byte[] bytes, int offset, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) hash = 31 * hash + bytes[offset + i];
+		int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+
+		byte[] cached = cacheBytes[slot];
+		if (cached != null && cached.length == length) {
+			boolean match = true;
+			for (int i = 0; i < length; i++) {
+				if (cached[i] != bytes[offset + i]) {
+					match = false;
+					break;
+				}
+			}
+			if (match) return cacheStrings[slot];
+		}
+
+		byte[] copy = new byte[length];
+		System.arraycopy(bytes, offset, copy, 0, length);
+		String s = new String(copy, StandardCharsets.ISO_8859_1);
+		cacheBytes[slot] = copy;
+		cacheStrings[slot] = s;
+		return s;
+	}
+}
@@ -0,0 +1,56 @@
+////////////////////////////////////////////////////////////
+// TelemetryRecord.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// A reusable, mutable holder for one parsed UDP message.
+// TelemetryParser fills the same record in for every
+// packet, so steady-state parsing allocates nothing.
+//
+// Expected Strings:
+// TELEMETRY,HH:MM:SS,lat,lon,alt[,callsign]\n
+// WAYPOINT,<waypointname>,lat,lon[,message]\n
+//
+////////////////////////////////////////////////////////////
+
+class TelemetryRecord {
+
+	// Message types
+	static final int UNKNOWN = 0;
+	static final int TELEMETRY = 1;
+	static final int WAYPOINT = 2;
+
+	int type;
+
+	// TELEMETRY fields
+	int hour, minute, second;
+	int alt;
+	String callsign;		// null if not given
+
+	// WAYPOINT fields
+	String name;
+	int commentStart, commentLength;	// Range of the message within the packet
+
+	// Shared fields
+	double lat, lon;
+
+	//
+	// Seconds since midnight
+	//
+	int secondOfDay() {
+		return (hour * 3600) + (minute * 60) + second;
+	}
+
+	//
+	// Reset before parsing a new packet
+	//
+	void clear() {
+		type = UNKNOWN;
+		hour = minute = second = 0;
+		alt = 0;
+		callsign = null;
+		name = null;
+		commentStart = commentLength = 0;
+		lat = lon = 0;
+	}
+}
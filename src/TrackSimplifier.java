@@ -0,0 +1,250 @@
+////////////////////////////////////////////////////////////
+// TrackSimplifier.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Error-bounded track simplification, so long flights and
+// predictions don't fill OziExplorer with thousands of
+// points it has to load and redraw.
+//
+// Distances are measured in metres in 3D (altitude
+// included), so points where the vertical motion changes,
+// like the burst, are kept by the error bound alone. The
+// burst and the first and last points are always kept.
+//
+// simplify() does a whole trajectory (Douglas-Peucker),
+// and an instance simplifies a live track as points
+// arrive (an opening window: a point is only released
+// once a later point shows it can't be skipped). On a
+// live track, the highest point is released as soon as
+// the altitude drops by more than the tolerance, so the
+// burst is kept even though it isn't known in advance.
+//
+////////////////////////////////////////////////////////////
+
+public class TrackSimplifier {
+
+	// Metres per degree of latitude
+	static final double METRES_PER_DEGREE = 111320.0;
+
+	//
+	// Simplify a trajectory, keeping every point within tolerance (m) of the result.
+	// Returns the trajectory itself if there is nothing to remove.
+	//
+	static Trajectory simplify(Trajectory t, double tolerance) {
+		int n = t.size();
+		if (tolerance <= 0 || n <= 2) return t;
+
+		double[] x = new double[n], y = new double[n];
+		project(t, x, y);
+
+		boolean[] keep = new boolean[n];
+		keep[0] = true;
+		keep[n - 1] = true;
+		int burst = t.getBurstIndex();
+		if (burst >= 0) keep[burst] = true;
+
+		// Douglas-Peucker over each run between points which must be kept
+		int[] stack = new int[2 * n];
+		double tolerance2 = tolerance * tolerance;
+		int from = 0;
+		for (int to = 1; to < n; to++) {
+			if (!keep[to]) continue;
+			int top = 0;
+			stack[top++] = from;
+			stack[top++] = to;
+			while (top > 0) {
+				int b = stack[--top];
+				int a = stack[--top];
+				int worst = -1;
+				double worstDistance = tolerance2;
+				for (int i = a + 1; i < b; i++) {
+					double d = distance2(x[i], y[i], t.alt[i], x[a], y[a], t.alt[a], x[b], y[b], t.alt[b]);
+					if (d > worstDistance) {
+						worstDistance = d;
+						worst = i;
+					}
+				}
+				if (worst >= 0) {
+					keep[worst] = true;
+					stack[top++] = a;
+					stack[top++] = worst;
+					stack[top++] = worst;
+					stack[top++] = b;
+				}
+			}
+			from = to;
+		}
+
+		int kept = 0;
+		for (int i = 0; i < n; i++) if (keep[i]) kept++;
+		if (kept == n) return t;
+
+		Trajectory simplified = new Trajectory(kept);
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) simplified.add(t.time[i], t.lat[i], t.lon[i], t.alt[i]);
+		}
+		return simplified;
+	}
+
+	//
+	// Local flat projection (m) about the first point
+	//
+	static void project(Trajectory t, double[] x, double[] y) {
+		double lat0 = t.lat[0], lon0 = t.lon[0];
+		double xScale = METRES_PER_DEGREE * Math.cos(Math.toRadians(lat0));
+		for (int i = 0; i < t.size(); i++) {
+			x[i] = (t.lon[i] - lon0) * xScale;
+			y[i] = (t.lat[i] - lat0) * METRES_PER_DEGREE;
+		}
+	}
+
+	//
+	// Squared distance from point p to the segment a-b
+	//
+	static double distance2(double px, double py, double pz, double ax, double ay, double az, double bx, double by, double bz) {
+		double dx = bx - ax, dy = by - ay, dz = bz - az;
+		double length2 = dx*dx + dy*dy + dz*dz;
+		double u = 0;
+		if (length2 > 0) {
+			u = ((px - ax)*dx + (py - ay)*dy + (pz - az)*dz) / length2;
+			u = Math.max(0, Math.min(1, u));
+		}
+		double ex = ax + u*dx - px, ey = ay + u*dy - py, ez = az + u*dz - pz;
+		return ex*ex + ey*ey + ez*ez;
+	}
+
+	// Live track state
+	double tolerance;
+	int maxHeld;
+
+	// Last point released (the start of the window), in degrees and metres
+	boolean anchored = false;
+	double anchorLat, anchorLon, anchorAlt;
+
+	// Points held back since the anchor: lat, lon, alt
+	double[] held;
+	int heldCount = 0;
+	int peak = -1;		// Highest held point, -1 if none
+
+	// The point to plot, after add() or flush() returns true
+	double lat, lon, alt;
+
+	//
+	// Constructor. At most maxHeld points are held back, so the plotted
+	// track never falls more than that many points behind.
+	//
+	TrackSimplifier(double tolerance, int maxHeld) {
+		this.tolerance = tolerance;
+		this.maxHeld = Math.max(1, maxHeld);
+		held = new double[3 * this.maxHeld];
+	}
+
+	//
+	// Add a live point. Returns true if a point should now be plotted (lat, lon, alt),
+	// which is always an earlier point than the one added, except for the first.
+	//
+	boolean add(double lat, double lon, double alt) {
+		if (tolerance <= 0 || !anchored) {
+			anchored = true;
+			anchorLat = lat;
+			anchorLon = lon;
+			anchorAlt = alt;
+			return release(lat, lon, alt);
+		}
+
+		// Just gone over the top? Keep the highest point.
+		if (peak >= 0 && alt < held[3*peak + 2] - tolerance && held[3*peak + 2] > anchorAlt) {
+			releasePeak();
+			hold(lat, lon, alt);
+			return release(anchorLat, anchorLon, anchorAlt);
+		}
+
+		// Can the line from the anchor to the new point stand in for everything held?
+		boolean fits = heldCount < maxHeld;
+		if (fits && heldCount > 0) {
+			double xScale = METRES_PER_DEGREE * Math.cos(Math.toRadians(anchorLat));
+			double bx = (lon - anchorLon) * xScale, by = (lat - anchorLat) * METRES_PER_DEGREE, bz = alt - anchorAlt;
+			double tolerance2 = tolerance * tolerance;
+			for (int i = 0; i < heldCount && fits; i++) {
+				double px = (held[3*i + 1] - anchorLon) * xScale;
+				double py = (held[3*i] - anchorLat) * METRES_PER_DEGREE;
+				double pz = held[3*i + 2] - anchorAlt;
+				fits = distance2(px, py, pz, 0, 0, 0, bx, by, bz) <= tolerance2;
+			}
+		}
+
+		if (fits) {
+			hold(lat, lon, alt);
+			return false;
+		}
+
+		// No - the last held point has to be kept, and starts the next window.
+		// Unless the track went over the top in this window, then it's the top.
+		int last = 3 * (heldCount - 1);
+		if (peak >= 0 && held[3*peak + 2] > anchorAlt && held[3*peak + 2] > held[last + 2]) {
+			releasePeak();
+			hold(lat, lon, alt);
+			return release(anchorLat, anchorLon, anchorAlt);
+		}
+		anchorLat = held[last];
+		anchorLon = held[last + 1];
+		anchorAlt = held[last + 2];
+		heldCount = 0;
+		peak = -1;
+		hold(lat, lon, alt);
+		return release(anchorLat, anchorLon, anchorAlt);
+	}
+
+	//
+	// Release what is held back (e.g. when the packets stop), a point per call:
+	// the top if the track went over it, then the newest point. Returns false
+	// once there is nothing left.
+	//
+	boolean flush() {
+		if (heldCount == 0) return false;
+		int last = 3 * (heldCount - 1);
+		if (peak >= 0 && held[3*peak + 2] > anchorAlt && held[3*peak + 2] > held[last + 2]) {
+			releasePeak();
+			return release(anchorLat, anchorLon, anchorAlt);
+		}
+		anchorLat = held[last];
+		anchorLon = held[last + 1];
+		anchorAlt = held[last + 2];
+		heldCount = 0;
+		peak = -1;
+		return release(anchorLat, anchorLon, anchorAlt);
+	}
+
+	//
+	// Make the highest held point the anchor, keeping the points after it
+	//
+	void releasePeak() {
+		int p = 3 * peak;
+		anchorLat = held[p];
+		anchorLon = held[p + 1];
+		anchorAlt = held[p + 2];
+		int remaining = heldCount - peak - 1;
+		System.arraycopy(held, p + 3, held, 0, 3 * remaining);
+		heldCount = remaining;
+		peak = -1;
+		for (int i = 0; i < heldCount; i++) {
+			if (peak < 0 || held[3*i + 2] > held[3*peak + 2]) peak = i;
+		}
+	}
+
+	void hold(double lat, double lon, double alt) {
+		held[3*heldCount] = lat;
+		held[3*heldCount + 1] = lon;
+		held[3*heldCount + 2] = alt;
+		if (peak < 0 || alt > held[3*peak + 2]) peak = heldCount;
+		heldCount++;
+	}
+
+	boolean release(double lat, double lon, double alt) {
+		this.lat = lat;
+		this.lon = lon;
+		this.alt = alt;
+		return true;
+	}
+}
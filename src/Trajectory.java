@@ -0,0 +1,117 @@
+////////////////////////////////////////////////////////////
+// Trajectory.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// This class holds a predicted flight path as a set of
+// primitive arrays (time, lat, lon, alt), as produced by
+// a predictor backend
+//
+////////////////////////////////////////////////////////////
+
+import java.util.Arrays;
+
+public class Trajectory {
+
+	long[] time;
+	double[] lat;
+	double[] lon;
+	double[] alt;
+	int size = 0;
+
+	//
+	// Constructor
+	//
+	public Trajectory() {
+		this(256);
+	}
+
+	public Trajectory(int capacity) {
+		time = new long[capacity];
+		lat = new double[capacity];
+		lon = new double[capacity];
+		alt = new double[capacity];
+	}
+
+	//
+	// Append a point
+	//
+	public void add(long t, double latitude, double longitude, double altitude) {
+		if (size == time.length) {
+			int capacity = Math.max(16, size * 2);
+			time = Arrays.copyOf(time, capacity);
+			lat = Arrays.copyOf(lat, capacity);
+			lon = Arrays.copyOf(lon, capacity);
+			alt = Arrays.copyOf(alt, capacity);
+		}
+		time[size] = t;
+		lat[size] = latitude;
+		lon[size] = longitude;
+		alt[size] = altitude;
+		size++;
+	}
+
+	public int size() { return size; }
+	public long getTime(int i) { return time[i]; }
+	public double getLat(int i) { return lat[i]; }
+	public double getLon(int i) { return lon[i]; }
+	public double getAlt(int i) { return alt[i]; }
+
+	//
+	// Index of the highest point (the burst), or -1 if the track never descends
+	//
+	public int getBurstIndex() {
+		for (int i = 1; i < size; i++) {
+			if (alt[i] < alt[i-1]) return i - 1;
+		}
+		return -1;
+	}
+
+	//
+	// Index of the last point (the landing), or -1 if empty
+	//
+	public int getLandingIndex() {
+		return size - 1;
+	}
+
+	//
+	// Largest horizontal distance (m) between this track and another at the same
+	// times, over the times they share. If ends is set, the last points (e.g. the
+	// landings) are compared as well. Infinite if the times don't overlap.
+	//
+	public double distanceFrom(Trajectory other, boolean ends) {
+		if (size == 0 || other.size == 0) return Double.POSITIVE_INFINITY;
+		double max = 0;
+		int compared = 0;
+		int j = 0;
+		int otherLast = other.size - 1;
+		for (int i = 0; i < size; i++) {
+			long t = time[i];
+			if (t < other.time[0] || t > other.time[otherLast]) continue;
+
+			// Where the other track was at this time
+			double otherLat = other.lat[otherLast], otherLon = other.lon[otherLast];
+			if (otherLast > 0) {
+				while (j < otherLast - 1 && other.time[j+1] < t) j++;
+				long span = other.time[j+1] - other.time[j];
+				double f = span > 0 ? (double)(t - other.time[j]) / span : 1;
+				otherLat = other.lat[j] + f * (other.lat[j+1] - other.lat[j]);
+				otherLon = other.lon[j] + f * (other.lon[j+1] - other.lon[j]);
+			}
+			max = Math.max(max, distance(lat[i], lon[i], otherLat, otherLon));
+			compared++;
+		}
+		if (compared == 0) return Double.POSITIVE_INFINITY;
+		if (ends) max = Math.max(max, distance(lat[size-1], lon[size-1], other.lat[otherLast], other.lon[otherLast]));
+		return max;
+	}
+
+	//
+	// Distance (m) between two nearby points
+	//
+	static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dy = (lat2 - lat1) * 111320.0;
+		double dx = (lon2 - lon1) * 111320.0 * Math.cos(Math.toRadians(0.5 * (lat1 + lat2)));
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+}
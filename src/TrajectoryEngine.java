@@ -0,0 +1,132 @@
+////////////////////////////////////////////////////////////
+// TrajectoryEngine.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// In-process predictor backend. Integrates the flight path
+// through the resident WindField, using a constant ascent
+// rate up to burst, then a descent rate scaled by air
+// density from an Atmosphere table.
+//
+// Output format matches the CUSF predictor: a point every
+// few seconds of flight, with the burst and landing points
+// always included.
+//
+////////////////////////////////////////////////////////////
+
+public class TrajectoryEngine implements PredictorBackend {
+
+	// Mean earth radius (m)
+	static final double EARTH_RADIUS = 6371009.0;
+
+	WindField wind;
+	Atmosphere atmosphere;
+
+	// Integration settings
+	double timeStep = 1.0;			// s
+	int outputInterval = 10;		// Emit a point every N steps
+	int maxFlightTime = 8 * 3600;	// Give up after this many seconds
+
+	//
+	// Constructor
+	//
+	public TrajectoryEngine(WindField wind) {
+		this(wind, Atmosphere.STANDARD);
+	}
+
+	public TrajectoryEngine(WindField wind, Atmosphere atmosphere) {
+		this.wind = wind;
+		this.atmosphere = atmosphere;
+	}
+
+	public String getName() {
+		return "java";
+	}
+
+	//
+	// Integrate the flight path for a scenario
+	//
+	public Trajectory predict(Scenario scenario) throws Exception {
+		return predict(scenario, null);
+	}
+
+	public Trajectory predict(Scenario scenario, TrajectoryListener listener) throws Exception {
+
+		// Pick up any new wind data, for the forecast hours this flight could span
+		WindGrid[] grids = wind.select(scenario.latitude, scenario.longitude,
+				scenario.launchTime, scenario.launchTime + maxFlightTime);
+		if (grids.length == 0) throw new Exception("No wind data available.");
+
+		long start = System.nanoTime();
+		try {
+			return integrate(scenario, grids, listener);
+		} finally {
+			Metrics.ENGINE_COMPUTE.recordSince(start);
+		}
+	}
+
+	//
+	// Integrate against the given forecast hours
+	//
+	Trajectory integrate(Scenario scenario, WindGrid[] grids, TrajectoryListener listener) throws Exception {
+		Trajectory trajectory = new Trajectory(1024);
+		double[] w = new double[2];
+
+		double lat = scenario.latitude;
+		double lon = scenario.longitude;
+		double alt = scenario.altitude;
+		double time = scenario.launchTime;
+		double windScale = 1.0 + scenario.windError;
+		boolean falling = scenario.descent || alt >= scenario.burstAltitude;
+
+		trajectory.add((long)time, lat, lon, alt);
+
+		int maxSteps = (int)(maxFlightTime / timeStep);
+		for (int step = 1; step <= maxSteps; step++) {
+			boolean burst = false;
+
+			// Vertical motion
+			if (!falling) {
+				alt += scenario.ascentRate * timeStep;
+				if (alt >= scenario.burstAltitude) {
+					alt = scenario.burstAltitude;
+					falling = true;
+					burst = true;
+				}
+			} else {
+				alt -= descentRate(scenario.descentRate, alt) * timeStep;
+			}
+
+			// Horizontal motion
+			WindField.getWind(grids, lat, lon, alt, time, w);
+			double dLat = Math.toDegrees(w[1] * windScale * timeStep / EARTH_RADIUS);
+			double dLon = Math.toDegrees(w[0] * windScale * timeStep / (EARTH_RADIUS * Math.cos(Math.toRadians(lat))));
+			lat += dLat;
+			lon += dLon;
+			time += timeStep;
+
+			// Landed?
+			if (alt <= 0) {
+				trajectory.add((long)time, lat, lon, 0);
+				break;
+			}
+
+			if (burst || step % outputInterval == 0) {
+				trajectory.add((long)time, lat, lon, alt);
+			}
+			if (burst && listener != null) {
+				listener.ascentComplete(trajectory, trajectory.size() - 1);
+			}
+		}
+
+		return trajectory;
+	}
+
+	//
+	// Descent rate at altitude for a given sea level descent rate
+	// (the inverse of Atmosphere.seaLevelDescentRate)
+	//
+	double descentRate(double seaLevelRate, double alt) {
+		return seaLevelRate / atmosphere.descentCorrection(Math.max(0, alt));
+	}
+}
@@ -0,0 +1,20 @@
+////////////////////////////////////////////////////////////
+// TrajectoryListener.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Receives a trajectory while a predictor backend is still
+// computing it, so the ascent can be drawn on the map
+// before the descent has finished.
+//
+////////////////////////////////////////////////////////////
+
+public interface TrajectoryListener {
+
+	//
+	// Called once, on the prediction thread, when the trajectory first
+	// descends. Points 0 to burstIndex are the complete ascent; the
+	// trajectory keeps growing after this returns, so don't keep it.
+	//
+	public void ascentComplete(Trajectory trajectory, int burstIndex) throws Exception;
+}
@@ -0,0 +1,99 @@
+////////////////////////////////////////////////////////////
+// WindConverter.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Converts the CUSF text wind files (gfs_*.dat) in a gfs
+// directory into the binary wind grid format, which the
+// in-process predictor can memory-map without parsing.
+//
+// Usage: java WindConverter [-delete] <gfs directory>
+//
+// The binary files are written alongside the .dat files.
+// The .dat files are kept unless -delete is given, as the
+// external pred.exe backend still needs them.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+
+public class WindConverter {
+
+	//
+	// Entry point
+	//
+	public static void main(String[] args) throws Exception {
+		boolean delete = false;
+		String directory = null;
+
+		for (String arg : args) {
+			if (arg.equals("-delete")) {
+				delete = true;
+			} else {
+				directory = arg;
+			}
+		}
+
+		if (directory == null) {
+			System.err.println("Usage: java WindConverter [-delete] <gfs directory>");
+			System.exit(1);
+		}
+
+		int converted = convertDirectory(new File(directory), delete);
+		System.out.println("Converted " + converted + " wind data files.");
+	}
+
+	//
+	// Convert every gfs_*.dat file in a directory, returning the number converted
+	//
+	public static int convertDirectory(File directory, boolean delete) throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("gfs_") && name.endsWith(".dat");
+			}
+		});
+		if (files == null) throw new IOException("Could not read wind directory " + directory);
+
+		int converted = 0;
+		for (File file : files) {
+			File binary = new File(directory, binaryName(file.getName()));
+
+			// Skip anything already converted
+			if (!binary.exists() || binary.lastModified() < file.lastModified()) {
+				long start = System.currentTimeMillis();
+				convert(file, binary);
+				System.out.println(file.getName() + " -> " + binary.getName() + " (" + (System.currentTimeMillis() - start) + " ms)");
+				converted++;
+			}
+
+			if (delete && !file.delete()) {
+				System.err.println("Could not delete " + file.getName());
+			}
+		}
+		return converted;
+	}
+
+	//
+	// Convert a single file. Writes to a temporary file first,
+	// so a running predictor never maps a half written grid.
+	//
+	public static void convert(File source, File destination) throws IOException {
+		WindGrid grid = WindGrid.load(source);
+		File temp = new File(destination.getPath() + ".tmp");
+		grid.write(temp);
+		if (destination.exists() && !destination.delete()) {
+			temp.delete();
+			throw new IOException("Could not replace " + destination.getName());
+		}
+		if (!temp.renameTo(destination)) {
+			throw new IOException("Could not rename " + temp.getName());
+		}
+	}
+
+	//
+	// gfs_<time>_<lat>_<lon>_<latradius>_<lonradius>.dat -> .bin
+	//
+	static String binaryName(String datName) {
+		return datName.substring(0, datName.length() - 4) + WindGrid.BINARY_EXTENSION;
+	}
+}
@@ -0,0 +1,157 @@
+////////////////////////////////////////////////////////////
+// WindField.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// This class interpolates the wind in both space and
+// time, from the forecast hours in the gfs directory.
+// Each prediction asks for the forecast hours which
+// bracket its flight, from files covering its position
+// (see WindIndex), and gets its own set of grids, so
+// payloads in different places don't disturb each other.
+// Grids are loaded once and kept resident until their
+// file changes, goes or expires (drops out of the index).
+//
+// Binary (.bin) grids written by WindConverter are memory
+// mapped, and are used in preference to a .dat file of the
+// same name.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class WindField {
+
+	WindIndex index;
+
+	// Forecast hours, sorted by valid time, from the last selection
+	volatile WindGrid[] grids = new WindGrid[0];
+
+	// Grids loaded so far, by file name, size and modification time
+	HashMap<String, WindGrid> loaded = new HashMap<String, WindGrid>();
+	String loadedSignature = "";
+
+	// If the index isn't watching the directory, don't look at it more often
+	// than this (ms), so ensembles running many predictions don't hammer the disk
+	long checkInterval = 5000;
+	long lastCheck = 0;
+
+	//
+	// Constructors
+	//
+	public WindField(String directory) {
+		this(new WindIndex(new File(directory)));
+	}
+
+	public WindField(WindIndex index) {
+		this.index = index;
+	}
+
+	//
+	// Re-index the directory if nothing is watching it
+	//
+	synchronized void check() throws IOException {
+		if (index.isWatching()) return;
+		long now = System.currentTimeMillis();
+		if (lastCheck != 0 && now - lastCheck < checkInterval && now >= lastCheck) return;
+		lastCheck = now;
+		index.rescan();
+	}
+
+	//
+	// Load every forecast hour
+	//
+	public void refresh() throws IOException {
+		select(Double.NaN, Double.NaN, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	//
+	// The forecast hours for a flight from (lat, lon) between start and end
+	// (POSIX timestamps), sorted by valid time. Loads any that are new.
+	//
+	public synchronized WindGrid[] select(double lat, double lon, long start, long end) throws IOException {
+		check();
+		List<WindIndex.Entry> entries = index.select(lat, lon, start, end);
+
+		// Let go of grids whose files have changed or gone
+		String signature = index.signature;
+		if (!signature.equals(loadedSignature)) {
+			HashSet<String> current = new HashSet<String>();
+			for (WindIndex.Entry e : index.entries.values()) current.add(e.key());
+			loaded.keySet().retainAll(current);
+			loadedSignature = signature;
+		}
+
+		long startTime = System.currentTimeMillis();
+		int count = 0;
+		WindGrid[] selected = new WindGrid[entries.size()];
+		for (int i = 0; i < selected.length; i++) {
+			WindIndex.Entry e = entries.get(i);
+			WindGrid grid = loaded.get(e.key());
+			if (grid == null) {
+				grid = WindGrid.open(e.file);
+				loaded.put(e.key(), grid);
+				count++;
+			}
+			selected[i] = grid;
+		}
+		if (count > 0) {
+			Log.info("Loaded " + count + " wind data files in " + (System.currentTimeMillis() - startTime) + " ms.");
+		}
+
+		grids = selected;
+		return selected;
+	}
+
+	//
+	// Signature of the wind directory as it is now, without loading anything
+	//
+	public String currentSignature() throws IOException {
+		check();
+		return index.signature;
+	}
+
+	public boolean isEmpty() {
+		return grids.length == 0;
+	}
+
+	//
+	// Sample the wind from the last selection
+	//
+	public void getWind(double lat, double lon, double alt, double time, double[] out) {
+		getWind(grids, lat, lon, alt, time, out);
+	}
+
+	//
+	// Sample the wind at a position and time, writing {u, v} (m/s) into out.
+	// Times outside the dataset are clamped to the first/last forecast hour.
+	//
+	static void getWind(WindGrid[] g, double lat, double lon, double alt, double time, double[] out) {
+		if (g.length == 0) {
+			out[0] = 0;
+			out[1] = 0;
+			return;
+		}
+
+		// Find the forecast hours either side of this time
+		int upper = 0;
+		while (upper < g.length && g[upper].validTime < time) upper++;
+		if (upper == 0 || upper == g.length) {
+			g[upper == 0 ? 0 : g.length - 1].getWind(lat, lon, alt, out);
+			return;
+		}
+		WindGrid before = g[upper - 1];
+		WindGrid after = g[upper];
+
+		// Linear interpolation in time
+		double f = (time - before.validTime) / (double)(after.validTime - before.validTime);
+		before.getWind(lat, lon, alt, out);
+		double u0 = out[0], v0 = out[1];
+		after.getWind(lat, lon, alt, out);
+		out[0] = u0 + (out[0] - u0) * f;
+		out[1] = v0 + (out[1] - v0) * f;
+	}
+}
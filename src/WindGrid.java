@@ -0,0 +1,387 @@
+////////////////////////////////////////////////////////////
+// WindGrid.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// This class holds a single forecast hour of GFS wind data,
+// as written by wind_dict_to_cusf() in get_wind_data.py:
+// a pressure x latitude x longitude grid of geopotential
+// height, u-wind and v-wind.
+//
+// Grids can be loaded from the CUSF text format, or
+// memory-mapped from the binary format written by
+// WindConverter (see write() below for the layout).
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.Formatter;
+import java.util.Locale;
+
+public class WindGrid {
+
+	// Header
+	long validTime;			// POSIX timestamp
+	double latCentre, latRadius, lonCentre, lonRadius;
+
+	// Axes
+	double[] pressures;		// Highest pressure (lowest altitude) first
+	double[] lats;
+	double[] lons;
+	int numPressures, numLats, numLons;
+
+	// Data, indexed [(pressure * numLats + lat) * numLons + lon]
+	// Backed by heap arrays or by a mapped file
+	FloatBuffer hgt;
+	FloatBuffer u;
+	FloatBuffer v;
+
+	// Binary format
+	static final int MAGIC = 0x4F5A5747;	// "OZWG"
+	static final int FORMAT_VERSION = 1;
+	static final String BINARY_EXTENSION = ".bin";
+
+	//
+	// Load a CUSF format .dat file
+	//
+	public static WindGrid load(File file) throws IOException {
+		WindGrid grid = new WindGrid();
+		BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16);
+
+		try {
+			// Header block - window coverage area, and timestamp
+			String[] header = nextLine(in).split(",");
+			grid.latCentre = Double.parseDouble(header[0]);
+			grid.latRadius = Double.parseDouble(header[1]);
+			grid.lonCentre = Double.parseDouble(header[2]);
+			grid.lonRadius = Double.parseDouble(header[3]);
+			grid.validTime = (long)Double.parseDouble(header[4]);
+
+			// Number of axes - always 3 - pressure, latitude, longitude
+			int axes = Integer.parseInt(nextLine(in));
+			if (axes != 3) throw new IOException("Expected 3 axes, got " + axes);
+			grid.pressures = readAxis(in);
+			grid.lats = readAxis(in);
+			grid.lons = readAxis(in);
+			grid.numPressures = grid.pressures.length;
+			grid.numLats = grid.lats.length;
+			grid.numLons = grid.lons.length;
+
+			// Data block
+			int lines = Integer.parseInt(nextLine(in));
+			int components = Integer.parseInt(nextLine(in));
+			if (lines != grid.numPressures * grid.numLats * grid.numLons || components != 3) {
+				throw new IOException("Unexpected data block size in " + file.getName());
+			}
+
+			float[] hgt = new float[lines];
+			float[] u = new float[lines];
+			float[] v = new float[lines];
+			for (int i = 0; i < lines; i++) {
+				String line = nextLine(in);
+				int c1 = line.indexOf(',');
+				int c2 = line.indexOf(',', c1 + 1);
+				hgt[i] = Float.parseFloat(line.substring(0, c1));
+				u[i] = Float.parseFloat(line.substring(c1 + 1, c2));
+				v[i] = Float.parseFloat(line.substring(c2 + 1));
+			}
+			grid.hgt = FloatBuffer.wrap(hgt);
+			grid.u = FloatBuffer.wrap(u);
+			grid.v = FloatBuffer.wrap(v);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Could not parse " + file.getName() + ": " + e);
+		} finally {
+			in.close();
+		}
+
+		return grid;
+	}
+
+	//
+	// Load either format, based on the file extension
+	//
+	public static WindGrid open(File file) throws IOException {
+		if (file.getName().endsWith(BINARY_EXTENSION)) return map(file);
+		return load(file);
+	}
+
+	//
+	// Memory-map a binary format file. Nothing is parsed or copied
+	// beyond the header - the data arrays are views onto the file.
+	//
+	public static WindGrid map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		try {
+			if (buf.getInt() != MAGIC) throw new IOException(file.getName() + " is not a wind grid file");
+			int version = buf.getInt();
+			if (version != FORMAT_VERSION) throw new IOException("Unsupported wind grid version " + version + " in " + file.getName());
+
+			WindGrid grid = new WindGrid();
+			grid.validTime = buf.getLong();
+			grid.latCentre = buf.getDouble();
+			grid.latRadius = buf.getDouble();
+			grid.lonCentre = buf.getDouble();
+			grid.lonRadius = buf.getDouble();
+			grid.numPressures = buf.getInt();
+			grid.numLats = buf.getInt();
+			grid.numLons = buf.getInt();
+			buf.getInt();	// Padding
+			grid.pressures = readAxis(buf, grid.numPressures);
+			grid.lats = readAxis(buf, grid.numLats);
+			grid.lons = readAxis(buf, grid.numLons);
+
+			int cells = grid.numPressures * grid.numLats * grid.numLons;
+			grid.hgt = column(buf, cells);
+			grid.u = column(buf, cells);
+			grid.v = column(buf, cells);
+			return grid;
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file.getName() + " is truncated");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(file.getName() + " is truncated");
+		}
+	}
+
+	static double[] readAxis(ByteBuffer buf, int size) {
+		double[] axis = new double[size];
+		for (int i = 0; i < size; i++) axis[i] = buf.getDouble();
+		return axis;
+	}
+
+	//
+	// View the next float32 column of the buffer, and skip past it
+	//
+	static FloatBuffer column(ByteBuffer buf, int cells) {
+		ByteBuffer slice = buf.slice();
+		slice.order(ByteOrder.LITTLE_ENDIAN);
+		slice.limit(cells * 4);
+		buf.position(buf.position() + cells * 4);
+		return slice.asFloatBuffer();
+	}
+
+	//
+	// Write this grid in the binary format
+	//
+	// Layout (little endian):
+	//   int32   magic "OZWG", int32 version
+	//   int64   valid time (POSIX)
+	//   float64 lat centre, lat radius, lon centre, lon radius
+	//   int32   number of pressures, lats, lons, padding
+	//   float64 pressure axis, latitude axis, longitude axis
+	//   float32 HGT[cells], U[cells], V[cells]
+	//
+	public void write(File file) throws IOException {
+		int cells = numPressures * numLats * numLons;
+		int headerSize = 4 + 4 + 8 + 4 * 8 + 4 * 4 + (numPressures + numLats + numLons) * 8;
+		ByteBuffer buf = ByteBuffer.allocate(headerSize + cells * 4 * 3).order(ByteOrder.LITTLE_ENDIAN);
+
+		buf.putInt(MAGIC);
+		buf.putInt(FORMAT_VERSION);
+		buf.putLong(validTime);
+		buf.putDouble(latCentre);
+		buf.putDouble(latRadius);
+		buf.putDouble(lonCentre);
+		buf.putDouble(lonRadius);
+		buf.putInt(numPressures);
+		buf.putInt(numLats);
+		buf.putInt(numLons);
+		buf.putInt(0);
+		for (double p : pressures) buf.putDouble(p);
+		for (double l : lats) buf.putDouble(l);
+		for (double l : lons) buf.putDouble(l);
+		for (int i = 0; i < cells; i++) buf.putFloat(hgt.get(i));
+		for (int i = 0; i < cells; i++) buf.putFloat(u.get(i));
+		for (int i = 0; i < cells; i++) buf.putFloat(v.get(i));
+		buf.flip();
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			while (buf.hasRemaining()) channel.write(buf);
+		} finally {
+			out.close();
+		}
+	}
+
+	//
+	// Write this grid in the CUSF text format, as wind_dict_to_cusf() in get_wind_data.py does
+	//
+	public void writeText(File file) throws IOException {
+		Formatter out = new Formatter(new BufferedWriter(new FileWriter(file), 1 << 16), Locale.US);
+		try {
+			out.format("# window centre latitude, window latitude radius, window centre longitude, window longitude radius, POSIX timestamp\n");
+			out.format("%.1f,%.1f,%.1f,%.1f,%d\n", latCentre, latRadius, lonCentre, lonRadius, validTime);
+			out.format("# Number of axes\n3\n");
+			writeAxis(out, "axis 1: pressures", pressures);
+			writeAxis(out, "axis 2: latitudes", lats);
+			writeAxis(out, "axis 3: longitudes", lons);
+
+			int cells = numPressures * numLats * numLons;
+			out.format("# number of lines of data\n%d\n", cells);
+			out.format("# data line component count\n3\n");
+			out.format("# now the data in axis 3 major order\n# data is: geopotential height [gpm], u-component wind [m/s], v-component wind [m/s]\n");
+
+			// Formatter is far too slow for hundreds of thousands of lines
+			StringBuilder line = new StringBuilder(64);
+			for (int i = 0; i < cells; i++) {
+				line.setLength(0);
+				appendFixed(line, hgt.get(i));
+				appendFixed(line.append(','), u.get(i));
+				appendFixed(line.append(','), v.get(i));
+				out.out().append(line.append('\n'));
+			}
+		} finally {
+			out.close();
+		}
+		if (out.ioException() != null) throw out.ioException();
+	}
+
+	//
+	// Append a value with five decimals, as "%.5f" would
+	//
+	static void appendFixed(StringBuilder sb, double value) {
+		if (Double.isNaN(value)) {
+			sb.append("nan");
+			return;
+		}
+		if (value < 0) sb.append('-');
+		long scaled = Math.round(Math.abs(value) * 100000);
+		sb.append(scaled / 100000).append('.');
+		long fraction = scaled % 100000;
+		for (long digit = 10000; digit > 1 && fraction < digit; digit /= 10) sb.append('0');
+		sb.append(fraction);
+	}
+
+	//
+	// Two decimals, where get_wind_data.py used one, so 0.25 degree axes come out exact
+	//
+	static void writeAxis(Formatter out, String comment, double[] axis) {
+		out.format("# %s\n%d\n", comment, axis.length);
+		for (int i = 0; i < axis.length; i++) {
+			out.format(i > 0 ? ",%.2f" : "%.2f", axis[i]);
+		}
+		out.format("\n");
+	}
+
+	//
+	// Read the next non-comment line
+	//
+	static String nextLine(BufferedReader in) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.length() > 0 && line.charAt(0) != '#') return line;
+		}
+		throw new EOFException("Unexpected end of wind data");
+	}
+
+	//
+	// Read an axis definition (size, then values)
+	//
+	static double[] readAxis(BufferedReader in) throws IOException {
+		int size = Integer.parseInt(nextLine(in));
+		String[] fields = nextLine(in).split(",");
+		if (fields.length != size) throw new IOException("Axis size mismatch");
+		double[] axis = new double[size];
+		for (int i = 0; i < size; i++) axis[i] = Double.parseDouble(fields[i]);
+		return axis;
+	}
+
+	//
+	// Sample the wind at a position, writing {u, v} (m/s) into out.
+	// Positions outside the grid are clamped to its edge.
+	//
+	public void getWind(double lat, double lon, double alt, double[] out) {
+
+		// Fractional position within the lat/lon axes
+		double latIdx = axisIndex(lats, lat);
+		double lonIdx = axisIndex(lons, normaliseLongitude(lon));
+
+		int i0 = (int)latIdx;
+		int j0 = (int)lonIdx;
+		int i1 = Math.min(i0 + 1, numLats - 1);
+		int j1 = Math.min(j0 + 1, numLons - 1);
+		double fi = latIdx - i0;
+		double fj = lonIdx - j0;
+
+		// Bilinear blend of the vertical profiles at the four corners,
+		// summed straight into out so nothing is allocated per lookup
+		out[0] = 0;
+		out[1] = 0;
+		addColumn(i0, j0, alt, 1 - fi, 1 - fj, out);
+		addColumn(i0, j1, alt, 1 - fi, fj, out);
+		addColumn(i1, j0, alt, fi, 1 - fj, out);
+		addColumn(i1, j1, alt, fi, fj, out);
+	}
+
+	//
+	// Interpolate the wind vertically at a single grid column, and add
+	// it to out weighted by wi * wj
+	//
+	void addColumn(int latIdx, int lonIdx, double alt, double wi, double wj, double[] out) {
+		int stride = numLats * numLons;
+		int base = latIdx * numLons + lonIdx;
+
+		// Below the lowest level, or above the highest - use the edge values
+		if (alt <= hgt.get(base)) {
+			out[0] += u.get(base) * wi * wj;
+			out[1] += v.get(base) * wi * wj;
+			return;
+		}
+		int top = base + (numPressures - 1) * stride;
+		if (alt >= hgt.get(top)) {
+			out[0] += u.get(top) * wi * wj;
+			out[1] += v.get(top) * wi * wj;
+			return;
+		}
+
+		// Find the pair of levels bracketing this altitude
+		int lower = base;
+		int upper = base + stride;
+		while (hgt.get(upper) < alt) {
+			lower = upper;
+			upper += stride;
+		}
+
+		double hLower = hgt.get(lower);
+		double f = (alt - hLower) / (hgt.get(upper) - hLower);
+		double uLower = u.get(lower), vLower = v.get(lower);
+		out[0] += (uLower + (u.get(upper) - uLower) * f) * wi * wj;
+		out[1] += (vLower + (v.get(upper) - vLower) * f) * wi * wj;
+	}
+
+	//
+	// Fractional index of a value along an evenly spaced axis, clamped to the axis
+	//
+	static double axisIndex(double[] axis, double value) {
+		if (axis.length < 2) return 0;
+		double idx = (value - axis[0]) / (axis[1] - axis[0]);
+		if (idx < 0) return 0;
+		if (idx > axis.length - 1) return axis.length - 1;
+		return idx;
+	}
+
+	//
+	// GRIB data may use 0-360 longitudes, move the requested longitude into the grid's range
+	//
+	double normaliseLongitude(double lon) {
+		double min = Math.min(lons[0], lons[numLons - 1]);
+		double max = Math.max(lons[0], lons[numLons - 1]);
+		if (lon < min && lon + 360 <= max) return lon + 360;
+		if (lon > max && lon - 360 >= min) return lon - 360;
+		return lon;
+	}
+}
@@ -0,0 +1,326 @@
+////////////////////////////////////////////////////////////
+// WindIndex.java
+//
+// Project Horus (http://www.projecthorus.org)
+//
+// Index of the wind files in the gfs directory, by valid
+// time and coverage, so the predictor only loads the
+// forecast hours which bracket a flight, from a file
+// which covers where the payload is.
+//
+// File names (gfs_<time>_<lat>_<lon>_<latradius>_<lonradius>
+// .dat or .bin) are parsed where possible, and the file
+// header is read otherwise. A .dat file which has been
+// converted to .bin is left out, as in WindField.
+//
+// Once started, a background thread watches the directory
+// and re-indexes when files arrive or go, and moves
+// forecast hours older than the retention time into an
+// archive directory (or deletes them), so old wind data
+// never has to be cleaned out by hand. Expired hours drop
+// out of the index straight away, so WindField lets go of
+// them, but a grid a prediction still has mapped can't be
+// moved on Windows - it is tried again on the next pass,
+// and is archived on the next start at the latest.
+//
+////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class WindIndex {
+
+	//
+	// A wind file, and what it covers
+	//
+	static class Entry {
+		File file;
+		long validTime;
+		double latCentre, lonCentre, latRadius, lonRadius;
+		long length, modified;
+
+		boolean covers(double lat, double lon) {
+			double dLon = Math.abs(lon - lonCentre) % 360;
+			if (dLon > 180) dLon = 360 - dLon;
+			return Math.abs(lat - latCentre) <= latRadius && dLon <= lonRadius;
+		}
+
+		String key() {
+			return file.getName() + ":" + length + ":" + modified;
+		}
+	}
+
+	File directory;
+
+	// Where expired files go (null to delete them), and how long after their valid time (s)
+	File archive;
+	long retention = 0;		// 0 to keep everything
+
+	// Current index, by file name. Replaced, never modified, so it can be read without locking.
+	volatile HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	volatile String signature = "";
+
+	// Files past the retention time, left out of the index until they're removed
+	ArrayList<Entry> expired = new ArrayList<Entry>();
+
+	// Files which couldn't be removed last time, so they're only warned about once
+	HashSet<String> stuck = new HashSet<String>();
+	volatile boolean watching = false;
+
+	// How often to look for expired files, and how long the directory must be quiet before re-indexing (ms)
+	long evictInterval = 60000;
+	long settleTime = 1000;
+
+	Thread watcher;
+
+	//
+	// Constructor
+	//
+	public WindIndex(File directory) {
+		this.directory = directory;
+	}
+
+	//
+	// Move (or delete, if archive is null) files this many seconds past their valid time
+	//
+	public void setRetention(long seconds, File archive) {
+		this.retention = seconds;
+		this.archive = archive;
+	}
+
+	//
+	// Re-read the directory
+	//
+	public void rescan() throws IOException {
+		rescan(System.currentTimeMillis() / 1000);
+	}
+
+	//
+	// Re-read the directory, leaving out anything expired by now (s)
+	//
+	synchronized void rescan(long now) throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				if (!name.startsWith("gfs_")) return false;
+				if (name.endsWith(WindGrid.BINARY_EXTENSION)) return true;
+				return name.endsWith(".dat") && !new File(dir, WindConverter.binaryName(name)).exists();
+			}
+		});
+		if (files == null) throw new IOException("Could not read wind directory " + directory);
+		Arrays.sort(files);
+
+		HashMap<String, Entry> old = entries;
+		HashMap<String, Entry> index = new HashMap<String, Entry>();
+		ArrayList<Entry> past = new ArrayList<Entry>();
+		StringBuilder sb = new StringBuilder();
+		for (File f : files) {
+			Entry e = old.get(f.getName());
+			if (e == null || e.length != f.length() || e.modified != f.lastModified()) {
+				try {
+					e = describe(f);
+				} catch (IOException ex) {
+					// Probably still being written - it'll be picked up next time
+					Log.warn("Skipping wind file " + f.getName() + ": " + ex.getMessage());
+					continue;
+				}
+			}
+			if (retention > 0 && e.validTime + retention < now) {
+				past.add(e);
+				continue;
+			}
+			index.put(f.getName(), e);
+			sb.append(e.key()).append(';');
+		}
+		entries = index;
+		signature = sb.toString();
+		expired = past;
+	}
+
+	//
+	// Index a file, from its name if possible, otherwise from its header
+	//
+	static Entry describe(File file) throws IOException {
+		Entry e = new Entry();
+		e.file = file;
+		e.length = file.length();
+		e.modified = file.lastModified();
+		if (parseName(file.getName(), e)) return e;
+
+		WindGrid grid = WindGrid.open(file);
+		e.validTime = grid.validTime;
+		e.latCentre = grid.latCentre;
+		e.lonCentre = grid.lonCentre;
+		e.latRadius = grid.latRadius;
+		e.lonRadius = grid.lonRadius;
+		return e;
+	}
+
+	//
+	// Parse gfs_<time>_<lat>_<lon>_<latradius>_<lonradius> (or a single radius)
+	//
+	static boolean parseName(String name, Entry e) {
+		int dot = name.lastIndexOf('.');
+		String[] parts = name.substring(4, dot).split("_");
+		if (parts.length != 4 && parts.length != 5) return false;
+		try {
+			e.validTime = Long.parseLong(parts[0]);
+			e.latCentre = Double.parseDouble(parts[1]);
+			e.lonCentre = Double.parseDouble(parts[2]);
+			e.latRadius = Double.parseDouble(parts[3]);
+			e.lonRadius = Double.parseDouble(parts[parts.length - 1]);
+		} catch (NumberFormatException ex) {
+			return false;
+		}
+		return true;
+	}
+
+	//
+	// The files a flight needs, sorted by valid time: at each forecast hour the
+	// newest file covering the position, from the last hour at or before start
+	// to the first at or after end (times in s). If no file covers the position,
+	// every file is considered, as the grids clamp to their edges.
+	//
+	public List<Entry> select(double lat, double lon, long start, long end) {
+		Collection<Entry> all = entries.values();
+		TreeMap<Long, Entry> byTime = new TreeMap<Long, Entry>();
+		for (int pass = 0; pass < 2 && byTime.isEmpty(); pass++) {
+			for (Entry e : all) {
+				if (pass == 0 && !e.covers(lat, lon)) continue;
+				Entry existing = byTime.get(e.validTime);
+				if (existing == null || e.modified > existing.modified) byTime.put(e.validTime, e);
+			}
+		}
+		if (byTime.isEmpty()) return new ArrayList<Entry>();
+
+		Long from = byTime.floorKey(start);
+		if (from == null) from = byTime.firstKey();
+		Long to = byTime.ceilingKey(end);
+		if (to == null) to = byTime.lastKey();
+		return new ArrayList<Entry>(byTime.subMap(from, true, to, true).values());
+	}
+
+	//
+	// Archive (or delete) everything past the retention time (now in s).
+	// Returns the number of forecast hours removed.
+	//
+	public synchronized int evict(long now) throws IOException {
+		if (retention <= 0) return 0;
+
+		// Drop anything newly expired from the index first, so it stops being selected
+		rescan(now);
+
+		int evicted = 0;
+		for (Entry e : expired) {
+			// The .bin first, which may still be mapped, and the .dat only once it has gone,
+			// so the two are never split between the directory and the archive
+			String name = e.file.getName();
+			String base = name.substring(0, name.lastIndexOf('.'));
+			try {
+				for (String extension : new String[] { WindGrid.BINARY_EXTENSION, ".dat" }) {
+					File f = new File(directory, base + extension);
+					if (f.exists()) remove(f);
+				}
+				stuck.remove(name);
+				evicted++;
+			} catch (IOException ex) {
+				if (stuck.add(name)) {
+					Log.warn("Could not remove expired wind data file " + name + " (" + ex.getMessage() + "), will try again.");
+				}
+			}
+		}
+		if (evicted > 0) {
+			Log.info((archive != null ? "Archived " : "Deleted ") + evicted + " expired wind data files.");
+			rescan(now);
+		}
+		return evicted;
+	}
+
+	void remove(File f) throws IOException {
+		if (archive == null) {
+			if (!f.delete()) throw new IOException("Could not delete " + f);
+			return;
+		}
+		if (!archive.isDirectory() && !archive.mkdirs()) throw new IOException("Could not create " + archive);
+		Files.move(f.toPath(), new File(archive, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	//
+	// Index the directory, and keep the index up to date in the background
+	//
+	public void start() throws IOException {
+		rescan();
+		final WatchService service = FileSystems.getDefault().newWatchService();
+		directory.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watching = true;
+
+		watcher = new Thread("WindIndex") {
+			public void run() {
+				try {
+					watch(service);
+				} catch (InterruptedException e) {
+					// Stopped
+				} finally {
+					watching = false;
+					try {
+						service.close();
+					} catch (IOException ignored) {
+					}
+				}
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	//
+	// Watch loop. Re-indexes once the directory has been quiet for settleTime
+	// after a change, so half-written files are left until they're finished.
+	//
+	void watch(WatchService service) throws InterruptedException {
+		long lastEvict = 0;
+		boolean changed = false;
+		while (true) {
+			long now = System.currentTimeMillis();
+			if (now - lastEvict >= evictInterval || now < lastEvict) {
+				lastEvict = now;
+				try {
+					evict(now / 1000);
+				} catch (IOException e) {
+					Log.error("Could not remove expired wind data", e);
+				}
+			}
+
+			WatchKey key = service.poll(changed ? settleTime : evictInterval, TimeUnit.MILLISECONDS);
+			if (key != null) {
+				key.pollEvents();
+				if (!key.reset()) {
+					Log.error("Lost access to wind directory " + directory + ", no longer watching it.");
+					return;
+				}
+				changed = true;
+				continue;
+			}
+
+			if (changed) {
+				changed = false;
+				try {
+					rescan();
+					Log.info("Wind directory changed, " + entries.size() + " wind data files indexed.");
+				} catch (IOException e) {
+					Log.error("Could not index wind directory", e);
+				}
+			}
+		}
+	}
+
+	public boolean isWatching() {
+		return watching;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
@@ -21,7 +21,6 @@ import logging
 import datetime
 import time
 import numpy as np
-from osgeo import gdal
 
 # GRIB Filter URL
 GRIB_FILTER_URL = "http://nomads.ncep.noaa.gov/cgi-bin/filter_gfs_%s.pl"
@@ -246,6 +245,9 @@ def download_grib(url, params, filename="temp.grib"):
 def parse_grib_to_dict(gribfile):
     ''' Parse a GRIB file into a python dictionary format '''
 
+    # Only needed here, so --grib works without GDAL installed
+    from osgeo import gdal
+
     _grib = gdal.Open(gribfile)
 
     output = {}
@@ -408,18 +410,6 @@ def copytree(src, dst, symlinks=False, ignore=None):
         else:
             shutil.copy2(s, d)
 
-# Remove directory contents ( https://stackoverflow.com/a/185941 )
-def remove_dir_contents(_dir):
-    for file in os.listdir(_dir):
-        file_path = os.path.join(_dir, file)
-        try:
-            if os.path.isfile(file_path):
-                os.unlink(file_path)
-            elif os.path.isdir(file_path):
-                shutil.rmtree(file_path)
-        except Exception as e:
-            print(e)
-
 if __name__ == '__main__':
     parser = argparse.ArgumentParser()
     parser.add_argument('--age', type=int, default=0, help="Age of the model to grab, in blocks of 6 hours.")
@@ -433,6 +423,7 @@ if __name__ == '__main__':
     parser.add_argument('-o', '--output_dir', type=str, default='./gfs/', help='GFS data output directory.')
     parser.add_argument('--wait', type=int, default=0, help="Force use of the latest dataset, and wait up to X minutes for the data to become available.")
     parser.add_argument('--override', action='store_true', default=False, help="Re-download data, even if there is existing data.")
+    parser.add_argument('--grib', action='store_true', default=False, help="Keep the GRIB files for GribConverter, rather than parsing them here (much faster).")
     args = parser.parse_args()
 
     if args.verbose:
@@ -480,6 +471,14 @@ if __name__ == '__main__':
             londelta=args.londelta
             )
 
+        if args.grib:
+            # Leave the conversion to GribConverter
+            if download_grib(url, params, filename=os.path.join(_temp_dir, params['file'])):
+                logging.info("Downloaded data for T+%03d" % forecast_time)
+            else:
+                logging.error("Could not download data for T+%03d" % forecast_time)
+            continue
+
         success = download_grib(url, params, filename=os.path.join(_temp_dir, 'temp.grib'))
 
         if success:
@@ -499,10 +498,12 @@ if __name__ == '__main__':
         else:
             logging.error("Error processing GRIB file.")
 
-    # Clean out output directory if it already exists, create if it does not
-    if os.path.exists(args.output_dir):
-        remove_dir_contents(args.output_dir)
-    else:
+    # Create the output directory if it does not exist. Anything already in it is
+    # left alone - files for the same forecast hours are replaced below, and
+    # OziPlotter archives hours once they expire (WINDRETAIN and WINDARCHIVE in
+    # OziPlotter.conf), so the archive and the still-valid hours of the
+    # previous run survive.
+    if not os.path.exists(args.output_dir):
         os.mkdir(args.output_dir)
 
     # Write model name into dataset.txt
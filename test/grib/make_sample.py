@@ -0,0 +1,228 @@
+#!/usr/bin/env python
+#
+# make_sample.py
+#
+# Project Horus (http://www.projecthorus.org)
+#
+# Writes sample.grib2, the GRIB2 fixture for GribConverterTest,
+# and sample.txt, the values it holds. The encoder here follows
+# the GRIB2 spec (WMO FM 92) and shares no code with
+# Grib2Reader, so the test checks the reader against the spec
+# and not against itself.
+#
+# The fixture is a small GFS-like file: a 0.5 degree grid
+# scanned north to south (scan mode 0), with HGT, UGRD and
+# VGRD at 1000 and 500 hPa, forecast hour 3 of the
+# 2026-10-16 06Z run. HGT is packed with template 5.3
+# (second order spatial differencing), UGRD with 5.3 (first
+# order) and VGRD with 5.0 (simple packing). A TMP field,
+# simple packed with a bitmap marking missing points, checks
+# bitmaps and that other fields are ignored by the converter.
+#
+# Usage: python make_sample.py
+#
+import calendar
+import math
+import random
+import struct
+
+
+def sign_magnitude(v, nbytes):
+    if v < 0:
+        return (1 << (8 * nbytes - 1)) | -v
+    return v
+
+
+def bits_for(v):
+    n = 0
+    while (1 << n) <= v:
+        n += 1
+    return n
+
+
+class Bits(object):
+    def __init__(self):
+        self.bits = []
+
+    def put(self, value, n):
+        for i in range(n - 1, -1, -1):
+            self.bits.append((value >> i) & 1)
+
+    def align(self):
+        while len(self.bits) % 8:
+            self.bits.append(0)
+
+    def bytes(self):
+        self.align()
+        out = bytearray()
+        for i in range(0, len(self.bits), 8):
+            b = 0
+            for k in range(8):
+                b = (b << 1) | self.bits[i + k]
+            out.append(b)
+        return bytes(out)
+
+
+def section(number, body):
+    return struct.pack('>IB', 5 + len(body), number) + body
+
+
+def identification(year, month, day, hour):
+    # NCEP, reference time is the start of the forecast, operational forecast
+    return section(1, struct.pack('>HHBBBHBBBBBBB', 7, 0, 2, 1, 1, year, month, day, hour, 0, 0, 0, 1))
+
+
+def grid(ni, nj, la1, lo1, di, dj, scan):
+    # Template 3.0, latitude/longitude, spherical earth
+    la2 = la1 + (nj - 1) * dj * (1 if scan & 0x40 else -1)
+    lo2 = lo1 + (ni - 1) * di * (-1 if scan & 0x80 else 1)
+    body = struct.pack('>BIBBH', 0, ni * nj, 0, 0, 0)
+    body += struct.pack('>BBIBIBI', 6, 0, 0, 0, 0, 0, 0)
+    body += struct.pack('>II', ni, nj)
+    body += struct.pack('>II', 0, 0xFFFFFFFF)
+    body += struct.pack('>IIBIIIIB',
+                        sign_magnitude(int(round(la1 * 1e6)), 4), int(round(lo1 * 1e6)) % (360 * 10 ** 6), 48,
+                        sign_magnitude(int(round(la2 * 1e6)), 4), int(round(lo2 * 1e6)) % (360 * 10 ** 6),
+                        int(round(di * 1e6)), int(round(dj * 1e6)), scan)
+    return section(3, body)
+
+
+def product(category, number, hour, pressure):
+    # Template 4.0, forecast hour, isobaric surface (Pa)
+    body = struct.pack('>HH', 0, 0)
+    body += struct.pack('>BBBBBHBBI', category, number, 2, 0, 96, 0, 0, 1, hour)
+    body += struct.pack('>BBIBBI', 100, 0, pressure, 255, 0, 0)
+    return section(4, body)
+
+
+def no_bitmap():
+    return section(6, bytes(bytearray([255])))
+
+
+def bitmap(present):
+    b = Bits()
+    for p in present:
+        b.put(1 if p else 0, 1)
+    return section(6, bytes(bytearray([0])) + b.bytes())
+
+
+def simple(values, decimal, nbits):
+    # Template 5.0
+    ints = [int(round(v * 10 ** decimal)) for v in values]
+    reference = min(ints)
+    assert max(ints) - reference < (1 << nbits)
+    b = Bits()
+    for x in ints:
+        b.put(x - reference, nbits)
+    body = struct.pack('>IH', len(values), 0) + struct.pack('>f', float(reference))
+    body += struct.pack('>HHBB', 0, sign_magnitude(decimal, 2), nbits, 0)
+    return section(5, body), section(7, b.bytes())
+
+
+def complex_differenced(values, decimal, order, group_size):
+    # Template 5.3, no missing values, equal sized groups but the last
+    ints = [int(round(v * 10 ** decimal)) for v in values]
+    if order == 1:
+        diffs = [ints[i] - ints[i - 1] for i in range(1, len(ints))]
+    else:
+        diffs = [ints[i] - 2 * ints[i - 1] + ints[i - 2] for i in range(2, len(ints))]
+    first = ints[:order]
+    minimum = min(diffs)
+    nbytes = 2
+    while max(abs(v) for v in first + [minimum]) >= (1 << (8 * nbytes - 1)):
+        nbytes += 1
+
+    seq = [0] * order + [d - minimum for d in diffs]
+    groups = [seq[i:i + group_size] for i in range(0, len(seq), group_size)]
+    refs = [min(g) for g in groups]
+    widths = [bits_for(max(g) - min(g)) for g in groups]
+    ref_bits = bits_for(max(refs))
+    width_ref = min(widths)
+    width_bits = bits_for(max(widths) - width_ref)
+
+    b = Bits()
+    for f in first:
+        b.put(sign_magnitude(f, nbytes), 8 * nbytes)
+    b.put(sign_magnitude(minimum, nbytes), 8 * nbytes)
+    for r in refs:
+        b.put(r, ref_bits)
+    b.align()
+    for w in widths:
+        b.put(w - width_ref, width_bits)
+    b.align()
+    # Group lengths all equal the reference, so take no bits
+    for g, r, w in zip(groups, refs, widths):
+        for v in g:
+            b.put(v - r, w)
+
+    body = struct.pack('>IH', len(values), 3) + struct.pack('>f', 0.0)
+    body += struct.pack('>HHBB', 0, sign_magnitude(decimal, 2), ref_bits, 0)
+    body += struct.pack('>BBIIIBBIBIB', 1, 0, 0, 0, len(groups), width_ref, width_bits,
+                        group_size, 1, len(groups[-1]), 0)
+    body += struct.pack('>BB', order, nbytes)
+    return section(5, body), section(7, b.bytes())
+
+
+def message(*sections):
+    body = b''.join(sections)
+    return b'GRIB' + b'\0\0' + bytes(bytearray([0, 2])) + struct.pack('>Q', 16 + len(body) + 4) + body + b'7777'
+
+
+def main():
+    random.seed(2026)
+    ni, nj = 5, 4
+    la1, lo1, step = -30.0, 137.0, 0.5
+    lats = [la1 - j * step for j in range(nj)]
+    lons = [lo1 + i * step for i in range(ni)]
+    hour = 3
+    valid = calendar.timegm((2026, 10, 16, 6, 0, 0)) + hour * 3600
+
+    def field(make):
+        return [make(i, j) for j in range(nj) for i in range(ni)]
+
+    messages = []
+    expected = []
+    for pressure in (100000, 50000):
+        hgt = field(lambda i, j: round(110 + (100000 - pressure) / 9.0 + i * 3.7 - j * 1.3 + random.random(), 1))
+        ugrd = field(lambda i, j: round(15 * math.sin(i * 0.7 + j * 0.3 + pressure / 7000.0) + random.uniform(-1, 1), 2))
+        vgrd = field(lambda i, j: round(random.uniform(-20, 20), 1))
+
+        g = grid(ni, nj, la1, lo1, step, step, 0)
+        s5, s7 = complex_differenced(hgt, 1, 2, 6)
+        messages.append(message(identification(2026, 10, 16, 6), g, product(3, 5, hour, pressure), s5, no_bitmap(), s7))
+        expected.append((3, 5, pressure, 3, hgt))
+
+        # UGRD and VGRD as two fields in one message, sharing the grid
+        s5u, s7u = complex_differenced(ugrd, 2, 1, 5)
+        s5v, s7v = simple(vgrd, 1, 9)
+        messages.append(message(identification(2026, 10, 16, 6), g,
+                                product(2, 2, hour, pressure), s5u, no_bitmap(), s7u,
+                                product(2, 3, hour, pressure), s5v, no_bitmap(), s7v))
+        expected.append((2, 2, pressure, 3, ugrd))
+        expected.append((2, 3, pressure, 0, vgrd))
+
+    # Temperature, with a bitmap
+    tmp = field(lambda i, j: round(250 + random.uniform(-10, 10), 1))
+    present = [random.random() > 0.25 for _ in tmp]
+    s5, s7 = simple([t for t, p in zip(tmp, present) if p], 1, 8)
+    messages.insert(1, message(identification(2026, 10, 16, 6), grid(ni, nj, la1, lo1, step, step, 0),
+                               product(0, 0, hour, 50000), s5, bitmap(present), s7))
+    expected.insert(1, (0, 0, 50000, 0, [t if p else None for t, p in zip(tmp, present)]))
+
+    with open('sample.grib2', 'wb') as f:
+        f.write(b''.join(messages))
+
+    with open('sample.txt', 'w') as f:
+        f.write('# Fields in sample.grib2, written by make_sample.py\n')
+        f.write('# field <discipline> <category> <number> <level (Pa)> <data template> <valid time>\n')
+        f.write('# then the latitudes and longitudes in scan order, and the values\n')
+        f.write('# latitude major (NaN where missing)\n')
+        for category, number, pressure, template, values in expected:
+            f.write('field 0 %d %d %d %d %d\n' % (category, number, pressure, template, valid))
+            f.write('lats ' + ' '.join('%g' % v for v in lats) + '\n')
+            f.write('lons ' + ' '.join('%g' % v for v in lons) + '\n')
+            f.write('values ' + ' '.join('NaN' if v is None else repr(v) for v in values) + '\n')
+
+
+if __name__ == '__main__':
+    main()